@@ -15,22 +15,97 @@
  */
 package cn.yy.cobar.client.audit;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 
-public class ConcurrentSqlAuditor implements ISqlAuditor {
+/**
+ * keeps the statistics of the sql statements and of the shards they are
+ * executed on in memory, they can be read with
+ * {@link #getStatementSnapshots()} and {@link #getShardSnapshots()} to find the
+ * hot statements or the slow shards, and cleared with {@link #reset()}.<br>
+ * as an {@link ISqlAuditor}, it counts the audited statements, as an
+ * {@link ISqlExecutionAuditor}, it counts the executions and the failures and
+ * records the latencies, see {@link SqlStatistics}.<br>
+ * 
+ * @since 1.0
+ */
+public class ConcurrentSqlAuditor implements ISqlAuditor, ISqlExecutionAuditor {
 	private ExecutorService executorService;
 
 	/**
 	 * simple map-reduce results holder it's not the final abstraction yet, may
 	 * be refactored later.
+	 * 
+	 * @deprecated it's kept for the configurations that set it, but nothing is
+	 *             put into it, read {@link #getStatementSnapshots()} instead.
 	 */
+	@Deprecated
 	private ConcurrentMap<String, Long> statementStatistics = new ConcurrentHashMap<String, Long>();
 
+	private volatile ConcurrentMap<String, SqlStatistics> statementSqlStatistics = new ConcurrentHashMap<String, SqlStatistics>();
+
+	private volatile ConcurrentMap<String, SqlStatistics> shardSqlStatistics = new ConcurrentHashMap<String, SqlStatistics>();
+
 	public void audit(String id, String sql, Object sqlContext) {
-		// TODO
-		// implement application-specific profiling logic here.
+		if (id != null) {
+			statisticsOf(statementSqlStatistics, id).recordAudit();
+		}
+	}
+
+	public void auditExecution(String id, String shard, long elapsedNanos, Throwable failure) {
+		if (id != null) {
+			statisticsOf(statementSqlStatistics, id).recordExecution(elapsedNanos, failure != null);
+		}
+		if (shard != null) {
+			statisticsOf(shardSqlStatistics, shard).recordExecution(elapsedNanos, failure != null);
+		}
+	}
+
+	private static SqlStatistics statisticsOf(ConcurrentMap<String, SqlStatistics> statistics, String key) {
+		SqlStatistics result = statistics.get(key);
+		if (result == null) {
+			result = new SqlStatistics();
+			SqlStatistics existing = statistics.putIfAbsent(key, result);
+			if (existing != null) {
+				result = existing;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the snapshots of the statistics keyed by the sql statement ids.
+	 */
+	public Map<String, SqlStatistics.Snapshot> getStatementSnapshots() {
+		return snapshotOf(statementSqlStatistics);
+	}
+
+	/**
+	 * @return the snapshots of the statistics keyed by the shard identities.
+	 */
+	public Map<String, SqlStatistics.Snapshot> getShardSnapshots() {
+		return snapshotOf(shardSqlStatistics);
+	}
+
+	private static Map<String, SqlStatistics.Snapshot> snapshotOf(Map<String, SqlStatistics> statistics) {
+		Map<String, SqlStatistics.Snapshot> snapshots = new HashMap<String, SqlStatistics.Snapshot>(
+				statistics.size() * 2);
+		for (Map.Entry<String, SqlStatistics> entry : statistics.entrySet()) {
+			snapshots.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return snapshots;
+	}
+
+	/**
+	 * starts the statistics over, the executions being recorded when it's
+	 * called may go to the statistics that are dropped.
+	 */
+	public void reset() {
+		this.statementSqlStatistics = new ConcurrentHashMap<String, SqlStatistics>();
+		this.shardSqlStatistics = new ConcurrentHashMap<String, SqlStatistics>();
 	}
 
 	public void setExecutorService(ExecutorService executorService) {
@@ -41,12 +116,28 @@ public class ConcurrentSqlAuditor implements ISqlAuditor {
 		return executorService;
 	}
 
+	/**
+	 * @deprecated see {@link #statementStatistics}.
+	 */
+	@Deprecated
 	public void setStatementStatistics(ConcurrentMap<String, Long> statementStatistics) {
 		this.statementStatistics = statementStatistics;
 	}
 
+	/**
+	 * @deprecated see {@link #statementStatistics}.
+	 */
+	@Deprecated
 	public ConcurrentMap<String, Long> getStatementStatistics() {
 		return statementStatistics;
 	}
 
+	public ConcurrentMap<String, SqlStatistics> getStatementSqlStatistics() {
+		return statementSqlStatistics;
+	}
+
+	public ConcurrentMap<String, SqlStatistics> getShardSqlStatistics() {
+		return shardSqlStatistics;
+	}
+
 }
@@ -0,0 +1,29 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.audit;
+
+/**
+ * marks an {@link ISqlAuditor} whose {@link #audit(String, String, Object)}
+ * returns right away without blocking, so it can be called in the threads
+ * that execute the statements instead of an executor of its own.<br>
+ * it's a marker interface instead of a class check, so that it survives when
+ * the auditor is proxied.<br>
+ * 
+ * @since 1.0
+ * @see RingBufferSqlAuditor
+ */
+public interface INonBlockingSqlAuditor extends ISqlAuditor {
+}
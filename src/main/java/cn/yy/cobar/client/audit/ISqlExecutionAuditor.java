@@ -0,0 +1,40 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.audit;
+
+/**
+ * audits each execution of a sql statement on a shard with how long it took,
+ * as opposed to {@link ISqlAuditor} which audits the statements with their sql
+ * before they are executed.<br>
+ * it's called on the data path, right after the execution, so it must be
+ * cheap and must not block.<br>
+ * 
+ * @since 1.0
+ */
+public interface ISqlExecutionAuditor {
+	/**
+	 * @param id,
+	 *            the sql statement id
+	 * @param shard,
+	 *            the identity of the data source it's executed on, null if
+	 *            it's unknown.
+	 * @param elapsedNanos,
+	 *            how long the execution took
+	 * @param failure,
+	 *            the failure of the execution, null if it succeeded.
+	 */
+	void auditExecution(String id, String shard, long elapsedNanos, Throwable failure);
+}
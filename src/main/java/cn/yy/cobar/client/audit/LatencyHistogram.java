@@ -0,0 +1,142 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.audit;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * a histogram of latencies in nanoseconds with a fixed number of log-linear
+ * buckets, like HdrHistogram, each power of 2 is divided into
+ * {@link #SUB_BUCKETS} buckets, so a recorded value is off by at most 1/16 of
+ * it, and latencies of up to about a minute take {@link #BUCKETS} counters
+ * whatever they are.<br>
+ * the counts go to one array of counters until recording threads contend on
+ * it, only then extra stripes of counters are created, one at a time, and the
+ * contending threads spread over them at random, like {@link LongAdder} does.
+ * so a histogram that is recorded by one thread at a time takes one array,
+ * about 4KB, and the stripes are summed up when a snapshot is taken.<br>
+ * 
+ * @since 1.0
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/**
+	 * the largest exponent of 2 that is counted in its own buckets, greater
+	 * values, about 69 seconds and up, are counted in the last bucket.
+	 */
+	private static final int MAX_EXPONENT = 35;
+	static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+	private static final int MAX_STRIPES = Math.min(8,
+			Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1);
+
+	private final AtomicLongArray base = new AtomicLongArray(BUCKETS);
+	/**
+	 * created on contention only, a slot stays null until a contending thread
+	 * picks it.
+	 */
+	private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<AtomicLongArray>(
+			MAX_STRIPES);
+
+	public void record(long nanos) {
+		int bucket = bucketOf(nanos);
+		if (MAX_STRIPES == 1) {
+			base.incrementAndGet(bucket);
+			return;
+		}
+		long count = base.get(bucket);
+		if (base.compareAndSet(bucket, count, count + 1)) {
+			return;
+		}
+		int index = ThreadLocalRandom.current().nextInt(MAX_STRIPES);
+		AtomicLongArray stripe = stripes.get(index);
+		if (stripe == null) {
+			stripes.compareAndSet(index, null, new AtomicLongArray(BUCKETS));
+			stripe = stripes.get(index);
+		}
+		stripe.incrementAndGet(bucket);
+	}
+
+	/**
+	 * @return the counts of the buckets summed up over the stripes.
+	 */
+	public long[] getCounts() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = base.get(i);
+		}
+		for (int s = 0; s < MAX_STRIPES; s++) {
+			AtomicLongArray stripe = stripes.get(s);
+			if (stripe != null) {
+				for (int i = 0; i < BUCKETS; i++) {
+					counts[i] += stripe.get(i);
+				}
+			}
+		}
+		return counts;
+	}
+
+	static int bucketOf(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (nanos < 0) ? 0 : (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponent > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the greatest value counted in the bucket.
+	 */
+	static long highestValueOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+		return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+	/**
+	 * @param counts,
+	 *            the counts of the buckets as {@link #getCounts()} returns.
+	 * @param percentile,
+	 *            in (0, 100]
+	 * @return the value at the percentile, 0 if nothing is counted.
+	 */
+	static long valueAtPercentile(long[] counts, long total, double percentile) {
+		if (total == 0) {
+			return 0L;
+		}
+		long rank = Math.max(1L, (long) Math.ceil(total * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return highestValueOf(i);
+			}
+		}
+		return highestValueOf(counts.length - 1);
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.audit;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * an {@link ISqlAuditor} that never blocks the threads which audit the
+ * statements, it puts the statements into a ring buffer, and a daemon thread
+ * drains them in batches to the {@link #delegate} auditor.<br>
+ * the slots of the ring buffer are allocated up front, a statement claims its
+ * slot with one CAS and publishes it by writing its sequence into the slot, so
+ * that auditing allocates nothing and takes no lock. if the ring buffer is
+ * full, the statement is dropped and counted in {@link #getDroppedCount()}
+ * instead of waiting for the drain thread. {@link #samplingRate} can thin the
+ * statements out before they reach the ring buffer.<br>
+ * the drain thread parks for {@link #idleWaitMillis} when the ring buffer is
+ * empty, the auditing threads never wake it up.<br>
+ * 
+ * @since 1.0
+ */
+public class RingBufferSqlAuditor implements INonBlockingSqlAuditor, InitializingBean, DisposableBean {
+
+	private transient final Logger logger = LoggerFactory.getLogger(RingBufferSqlAuditor.class);
+
+	private ISqlAuditor delegate;
+
+	/**
+	 * rounded up to a power of 2.
+	 */
+	private int bufferSize = 8192;
+
+	/**
+	 * at most how many statements are drained to the delegate before the drain
+	 * thread publishes its progress and checks for shutdown.
+	 */
+	private int batchSize = 256;
+
+	/**
+	 * 1 out of how many statements is audited.
+	 */
+	private int samplingRate = 1;
+
+	private long idleWaitMillis = 1;
+
+	private String[] ids;
+	private String[] sqls;
+	private Object[] sqlContexts;
+	/**
+	 * the sequence of the statement in each slot once it's written, the drain
+	 * thread only reads a slot whose sequence is the one it expects next.
+	 */
+	private AtomicLongArray published;
+	private int mask;
+
+	private final AtomicLong claimed = new AtomicLong();
+	/**
+	 * the sequence the drain thread reads next, only written by the drain
+	 * thread.
+	 */
+	private volatile long consumed;
+
+	private final LongAdder dropped = new LongAdder();
+
+	private volatile boolean running;
+	private Thread drainThread;
+
+	public void afterPropertiesSet() throws Exception {
+		Validate.notNull(delegate, "the delegate auditor must be given.");
+		int capacity = Integer.highestOneBit(Math.max(2, bufferSize) - 1) << 1;
+		this.ids = new String[capacity];
+		this.sqls = new String[capacity];
+		this.sqlContexts = new Object[capacity];
+		this.published = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			published.set(i, -1L);
+		}
+		this.mask = capacity - 1;
+
+		running = true;
+		drainThread = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "RingBufferSqlAuditor-drain");
+		drainThread.setDaemon(true);
+		drainThread.start();
+	}
+
+	public void destroy() throws Exception {
+		running = false;
+		if (drainThread != null) {
+			LockSupport.unpark(drainThread);
+			drainThread.join(TimeUnit.SECONDS.toMillis(5));
+		}
+	}
+
+	public void audit(String id, String sql, Object sqlContext) {
+		if (!running) {
+			dropped.increment();
+			return;
+		}
+		if (samplingRate > 1 && ThreadLocalRandom.current().nextInt(samplingRate) != 0) {
+			return;
+		}
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (sequence - consumed > mask) {
+				dropped.increment();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+
+		int index = (int) sequence & mask;
+		ids[index] = id;
+		sqls[index] = sql;
+		sqlContexts[index] = sqlContext;
+		published.lazySet(index, sequence);
+	}
+
+	private void drain() {
+		while (true) {
+			if (drainBatch() == 0) {
+				if (!running) {
+					break;
+				}
+				if (claimed.get() > consumed) {
+					// the next slot is claimed, but not written yet.
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(idleWaitMillis));
+				}
+			}
+		}
+	}
+
+	private int drainBatch() {
+		long next = consumed;
+		int drained = 0;
+		while (drained < batchSize) {
+			int index = (int) next & mask;
+			if (published.get(index) != next) {
+				break;
+			}
+			String id = ids[index];
+			String sql = sqls[index];
+			Object sqlContext = sqlContexts[index];
+			ids[index] = null;
+			sqls[index] = null;
+			sqlContexts[index] = null;
+			next++;
+			drained++;
+			try {
+				delegate.audit(id, sql, sqlContext);
+			} catch (Throwable t) {
+				logger.warn("failed to audit sql of " + id, t);
+			}
+		}
+		if (drained > 0) {
+			consumed = next;
+		}
+		return drained;
+	}
+
+	/**
+	 * @return how many statements are dropped since the ring buffer was full.
+	 */
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	/**
+	 * @return how many statements are waiting for the drain thread.
+	 */
+	public long getPendingCount() {
+		return Math.max(0L, claimed.get() - consumed);
+	}
+
+	public ISqlAuditor getDelegate() {
+		return delegate;
+	}
+
+	public void setDelegate(ISqlAuditor delegate) {
+		this.delegate = delegate;
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public void setBufferSize(int bufferSize) {
+		Validate.isTrue(bufferSize > 0 && bufferSize <= (1 << 30), "bufferSize must be in (0, 2^30].");
+		this.bufferSize = bufferSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		Validate.isTrue(batchSize > 0, "batchSize must be positive.");
+		this.batchSize = batchSize;
+	}
+
+	public int getSamplingRate() {
+		return samplingRate;
+	}
+
+	public void setSamplingRate(int samplingRate) {
+		Validate.isTrue(samplingRate > 0, "samplingRate must be positive.");
+		this.samplingRate = samplingRate;
+	}
+
+	public long getIdleWaitMillis() {
+		return idleWaitMillis;
+	}
+
+	public void setIdleWaitMillis(long idleWaitMillis) {
+		Validate.isTrue(idleWaitMillis > 0, "idleWaitMillis must be positive.");
+		this.idleWaitMillis = idleWaitMillis;
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.audit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * statistics of the executions of a sql statement or on a shard, the counters
+ * are {@link LongAdder}s and the latencies are counted in a
+ * {@link LatencyHistogram}, so that recording from many threads doesn't
+ * contend. the histogram is created on the first execution, so the statistics
+ * of a statement that is only audited stay small.<br>
+ * 
+ * @since 1.0
+ */
+public class SqlStatistics {
+
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	private final LongAdder audits = new LongAdder();
+	private final LongAdder executions = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(MAX, 0L);
+	private volatile LatencyHistogram latencies;
+
+	/**
+	 * counts a statement that is audited before it's executed.
+	 */
+	public void recordAudit() {
+		audits.increment();
+	}
+
+	public void recordExecution(long elapsedNanos, boolean failed) {
+		executions.increment();
+		if (failed) {
+			failures.increment();
+		}
+		totalNanos.add(elapsedNanos);
+		maxNanos.accumulate(elapsedNanos);
+		latenciesOf().record(elapsedNanos);
+	}
+
+	private LatencyHistogram latenciesOf() {
+		LatencyHistogram result = latencies;
+		if (result == null) {
+			synchronized (this) {
+				result = latencies;
+				if (result == null) {
+					result = new LatencyHistogram();
+					latencies = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	public Snapshot snapshot() {
+		LatencyHistogram histogram = latencies;
+		return new Snapshot(audits.sum(), executions.sum(), failures.sum(), totalNanos.sum(), maxNanos.get(),
+				(histogram == null) ? new long[0] : histogram.getCounts());
+	}
+
+	/**
+	 * the statistics at the moment it's taken, the counters are read one by
+	 * one, so they may be slightly off from each other under load.
+	 */
+	public static class Snapshot {
+		private final long audits;
+		private final long executions;
+		private final long failures;
+		private final long totalNanos;
+		private final long maxNanos;
+		private final long[] latencyCounts;
+		private final long latencyTotal;
+
+		Snapshot(long audits, long executions, long failures, long totalNanos, long maxNanos, long[] latencyCounts) {
+			this.audits = audits;
+			this.executions = executions;
+			this.failures = failures;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+			this.latencyCounts = latencyCounts;
+			long total = 0;
+			for (long count : latencyCounts) {
+				total += count;
+			}
+			this.latencyTotal = total;
+		}
+
+		/**
+		 * @return how many times the statement is audited by
+		 *         {@link ISqlAuditor#audit(String, String, Object)}.
+		 */
+		public long getAudits() {
+			return audits;
+		}
+
+		public long getExecutions() {
+			return executions;
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		public long getMeanNanos() {
+			return (executions == 0) ? 0L : totalNanos / executions;
+		}
+
+		/**
+		 * @param percentile,
+		 *            in (0, 100], like 99 or 99.9
+		 * @return the latency at the percentile in nanoseconds, it's at most
+		 *         1/16 greater than the actual one, and never greater than
+		 *         the max one.
+		 */
+		public long getLatencyAtPercentile(double percentile) {
+			return Math.min(maxNanos, LatencyHistogram.valueAtPercentile(latencyCounts, latencyTotal, percentile));
+		}
+
+		@Override
+		public String toString() {
+			return "audits=" + audits + ", executions=" + executions + ", failures=" + failures + ", totalMillis="
+					+ TimeUnit.NANOSECONDS.toMillis(totalNanos) + ", meanMicros="
+					+ TimeUnit.NANOSECONDS.toMicros(getMeanNanos()) + ", p50Micros="
+					+ TimeUnit.NANOSECONDS.toMicros(getLatencyAtPercentile(50)) + ", p99Micros="
+					+ TimeUnit.NANOSECONDS.toMicros(getLatencyAtPercentile(99)) + ", maxMicros="
+					+ TimeUnit.NANOSECONDS.toMicros(maxNanos);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * super class of the mergers that aggregate the results of an aggregate query
+ * on the shards into the result across the shards.<br>
+ * a shard result is either what selectOne returns, or the list selectList
+ * returns, the latter is flattened and the aggregated result is returned as a
+ * singleton list again, so the same merger works for both.<br>
+ * 
+ * @since 1.0
+ */
+public abstract class AbstractAggregateMerger implements IMerger<Object, Object> {
+
+	public Object merge(List<Object> entities) {
+		if (entities == null) {
+			return null;
+		}
+		boolean listed = false;
+		List<Object> values = new ArrayList<Object>(entities.size());
+		for (Object entity : entities) {
+			if (entity instanceof Collection) {
+				listed = true;
+				for (Object value : (Collection<?>) entity) {
+					if (value != null) {
+						values.add(value);
+					}
+				}
+			} else if (entity != null) {
+				values.add(entity);
+			}
+		}
+		Object aggregated = values.isEmpty() ? null : aggregate(values);
+		if (!listed) {
+			return aggregated;
+		}
+		return (aggregated == null) ? new ArrayList<Object>() : Collections.singletonList(aggregated);
+	}
+
+	/**
+	 * @param values,
+	 *            the non-null partial results of the shards, not empty.
+	 */
+	protected abstract Object aggregate(List<Object> values);
+}
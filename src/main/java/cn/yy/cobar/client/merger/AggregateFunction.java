@@ -0,0 +1,129 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * the aggregate functions whose results of the shards can be combined into the
+ * result across the shards.<br>
+ * COUNT and SUM are combined by adding the partial results up, MIN and MAX by
+ * picking the least or greatest one of them. AVG can't be combined from the
+ * partial averages, it's computed from a SUM and a COUNT instead, see
+ * {@link ColumnAggregateMerger#setAverages(java.util.Map)}.<br>
+ * null stands for a shard without rows to aggregate and is skipped, as SQL
+ * does.<br>
+ * 
+ * @since 1.0
+ */
+public enum AggregateFunction {
+	COUNT {
+		@Override
+		Object doCombine(Object accumulated, Object value) {
+			return add((Number) accumulated, (Number) value);
+		}
+	},
+	SUM {
+		@Override
+		Object doCombine(Object accumulated, Object value) {
+			return add((Number) accumulated, (Number) value);
+		}
+	},
+	MIN {
+		@Override
+		Object doCombine(Object accumulated, Object value) {
+			return (compare(value, accumulated) < 0) ? value : accumulated;
+		}
+	},
+	MAX {
+		@Override
+		Object doCombine(Object accumulated, Object value) {
+			return (compare(value, accumulated) > 0) ? value : accumulated;
+		}
+	};
+
+	/**
+	 * @param accumulated,
+	 *            the result combined so far, may be null.
+	 * @param value,
+	 *            the partial result of another shard, may be null.
+	 * @return the combined result.
+	 */
+	public Object combine(Object accumulated, Object value) {
+		if (accumulated == null) {
+			return value;
+		}
+		if (value == null) {
+			return accumulated;
+		}
+		return doCombine(accumulated, value);
+	}
+
+	abstract Object doCombine(Object accumulated, Object value);
+
+	/**
+	 * adds up two numbers in the widest type of them, so that a sum of longs
+	 * stays a long and a sum of decimals keeps its precision.
+	 */
+	static Number add(Number a, Number b) {
+		if (a instanceof BigDecimal || b instanceof BigDecimal) {
+			return toBigDecimal(a).add(toBigDecimal(b));
+		}
+		if (a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float) {
+			return a.doubleValue() + b.doubleValue();
+		}
+		if (a instanceof BigInteger || b instanceof BigInteger) {
+			return toBigInteger(a).add(toBigInteger(b));
+		}
+		long sum = a.longValue() + b.longValue();
+		if (((a.longValue() ^ sum) & (b.longValue() ^ sum)) < 0) {
+			return BigInteger.valueOf(a.longValue()).add(BigInteger.valueOf(b.longValue()));
+		}
+		if (a instanceof Long || b instanceof Long) {
+			return sum;
+		}
+		if (sum == (int) sum) {
+			return (int) sum;
+		}
+		return sum;
+	}
+
+	static BigDecimal toBigDecimal(Number number) {
+		if (number instanceof BigDecimal) {
+			return (BigDecimal) number;
+		}
+		if (number instanceof BigInteger) {
+			return new BigDecimal((BigInteger) number);
+		}
+		if (number instanceof Double || number instanceof Float) {
+			return BigDecimal.valueOf(number.doubleValue());
+		}
+		return BigDecimal.valueOf(number.longValue());
+	}
+
+	private static BigInteger toBigInteger(Number number) {
+		return (number instanceof BigInteger) ? (BigInteger) number : BigInteger.valueOf(number.longValue());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compare(Object a, Object b) {
+		if (a instanceof Number && b instanceof Number && a.getClass() != b.getClass()) {
+			return toBigDecimal((Number) a).compareTo(toBigDecimal((Number) b));
+		}
+		return ((Comparable) a).compareTo(b);
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang.Validate;
+
+import cn.yy.cobar.client.router.rules.ShardKeyExtractor;
+
+/**
+ * extracts the key of an element from its attributes, which are the columns
+ * of map rows, or the properties or public fields of beans, nested attributes
+ * are separated by ".".<br>
+ * the key is the value of the only attribute, or the list of the values of
+ * the attributes.<br>
+ * 
+ * @since 1.0
+ * @see ShardKeyExtractor
+ */
+public class AttributeKeyExtractor implements IKeyExtractor<Object> {
+
+	private String[] attributes;
+
+	public AttributeKeyExtractor() {
+	}
+
+	public AttributeKeyExtractor(String... attributes) {
+		setAttributes(attributes);
+	}
+
+	public Object keyOf(Object element) {
+		if (attributes.length == 1) {
+			return extract(element, attributes[0]);
+		}
+		Object[] values = new Object[attributes.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = extract(element, attributes[i]);
+		}
+		return Arrays.asList(values);
+	}
+
+	private static Object extract(Object element, String attribute) {
+		Object value = ShardKeyExtractor.extract(element, attribute);
+		if (value == ShardKeyExtractor.UNRESOLVED) {
+			throw new IllegalArgumentException("can't read attribute '" + attribute + "' of " + element);
+		}
+		return value;
+	}
+
+	public String[] getAttributes() {
+		return attributes;
+	}
+
+	public void setAttributes(String[] attributes) {
+		Validate.notEmpty(attributes, "the key attributes must be given.");
+		this.attributes = attributes;
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * merges the rows, as maps of column to value, that an aggregate query with
+ * several aggregate columns like "select count(*) c, sum(amount) s, max(amount)
+ * m from ..." returns from each of the shards.<br>
+ * each column in {@link #columns} is combined with its aggregate function, the
+ * other columns are taken from the first row.<br>
+ * an average can't be combined from the averages of the shards, so the query
+ * selects the sum and the count it's computed from, and the average column is
+ * declared in {@link #averages} as "sumColumn,countColumn". the average is a
+ * {@link BigDecimal} if the sum is, a Double otherwise, and null if the count
+ * is 0.<br>
+ * column names are matched as they appear in the rows, which depends on the
+ * driver for unquoted aliases.<br>
+ * 
+ * @since 1.0
+ */
+public class ColumnAggregateMerger extends AbstractAggregateMerger implements InitializingBean {
+
+	private Map<String, AggregateFunction> columns = new LinkedHashMap<String, AggregateFunction>();
+
+	private Map<String, String> averages = new LinkedHashMap<String, String>();
+
+	private String[][] averageColumns = new String[0][];
+
+	public void afterPropertiesSet() throws Exception {
+		Validate.isTrue(!columns.isEmpty() || !averages.isEmpty(), "no aggregate column is given.");
+		String[][] parsed = new String[averages.size()][];
+		int i = 0;
+		for (Map.Entry<String, String> average : averages.entrySet()) {
+			String[] pair = StringUtils.split(average.getValue(), ",");
+			Validate.isTrue(pair != null && pair.length == 2,
+					"the average column " + average.getKey() + " must be given as 'sumColumn,countColumn'.");
+			String sumColumn = StringUtils.trim(pair[0]);
+			String countColumn = StringUtils.trim(pair[1]);
+			if (!columns.containsKey(sumColumn)) {
+				columns.put(sumColumn, AggregateFunction.SUM);
+			}
+			if (!columns.containsKey(countColumn)) {
+				columns.put(countColumn, AggregateFunction.COUNT);
+			}
+			parsed[i++] = new String[] { average.getKey(), sumColumn, countColumn };
+		}
+		this.averageColumns = parsed;
+	}
+
+	@Override
+	protected Object aggregate(List<Object> values) {
+		Map<String, Object> result = null;
+		for (Object value : values) {
+			if (result == null) {
+				result = newAggregate(value);
+			} else {
+				accumulate(result, value);
+			}
+		}
+		return complete(result);
+	}
+
+	/**
+	 * @return a copy of the row to accumulate the other rows into.
+	 */
+	protected Map<String, Object> newAggregate(Object row) {
+		return new HashMap<String, Object>(rowOf(row));
+	}
+
+	/**
+	 * combines the aggregate columns of the row into the aggregate.
+	 */
+	protected void accumulate(Map<String, Object> aggregate, Object row) {
+		Map<String, Object> columnValues = rowOf(row);
+		for (Map.Entry<String, AggregateFunction> column : columns.entrySet()) {
+			String name = column.getKey();
+			aggregate.put(name, column.getValue().combine(aggregate.get(name), columnValues.get(name)));
+		}
+	}
+
+	/**
+	 * computes the average columns once all of the rows are accumulated.
+	 */
+	protected Map<String, Object> complete(Map<String, Object> aggregate) {
+		for (String[] average : averageColumns) {
+			aggregate.put(average[0], average((Number) aggregate.get(average[1]), (Number) aggregate.get(average[2])));
+		}
+		return aggregate;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> rowOf(Object row) {
+		if (!(row instanceof Map)) {
+			throw new IllegalArgumentException("rows to aggregate by column must be maps, but got " + row.getClass());
+		}
+		return (Map<String, Object>) row;
+	}
+
+	private static Object average(Number sum, Number count) {
+		if (sum == null || count == null || count.longValue() == 0L) {
+			return null;
+		}
+		if (sum instanceof BigDecimal) {
+			return ((BigDecimal) sum).divide(AggregateFunction.toBigDecimal(count), MathContext.DECIMAL64);
+		}
+		return sum.doubleValue() / count.doubleValue();
+	}
+
+	public Map<String, AggregateFunction> getColumns() {
+		return columns;
+	}
+
+	/**
+	 * @param columns,
+	 *            the aggregate function to combine each column with.
+	 */
+	public void setColumns(Map<String, AggregateFunction> columns) {
+		Validate.notNull(columns);
+		this.columns = new LinkedHashMap<String, AggregateFunction>(columns);
+	}
+
+	public Map<String, String> getAverages() {
+		return averages;
+	}
+
+	/**
+	 * @param averages,
+	 *            the average columns, each mapped to the sum column and the
+	 *            count column it's computed from, separated by a comma, like
+	 *            "S,C".
+	 */
+	public void setAverages(Map<String, String> averages) {
+		Validate.notNull(averages);
+		this.averages = new LinkedHashMap<String, String>(averages);
+	}
+}
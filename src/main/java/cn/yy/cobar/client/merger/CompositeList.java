@@ -0,0 +1,108 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * a read-only view over the sub-result lists of the shards as one list, in the
+ * order of the sub-result lists, so the elements are not copied into a new
+ * list.<br>
+ * the view reads through to the sub-result lists, which must not be modified
+ * while it's in use. {@link #get(int)} finds the sub-result list by binary
+ * search over their offsets, iterating the view walks the sub-result lists
+ * directly.<br>
+ * 
+ * @since 1.0
+ * @param <E>
+ */
+public class CompositeList<E> extends AbstractList<E> implements RandomAccess {
+
+	private final List<? extends E>[] lists;
+
+	/**
+	 * offsets[i] is the index of the first element of lists[i] in the view,
+	 * offsets[lists.length] is the size of the view.
+	 */
+	private final int[] offsets;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public CompositeList(List<? extends List<? extends E>> lists) {
+		this.lists = lists.toArray(new List[lists.size()]);
+		this.offsets = new int[this.lists.length + 1];
+		for (int i = 0; i < this.lists.length; i++) {
+			offsets[i + 1] = offsets[i] + this.lists[i].size();
+		}
+	}
+
+	@Override
+	public E get(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+		// the last list that starts at or before the index, which can't be an
+		// empty one.
+		int low = 0;
+		int high = lists.length - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (offsets[mid] <= index) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return lists[low].get(index - offsets[low]);
+	}
+
+	@Override
+	public int size() {
+		return offsets[lists.length];
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			private int next = 0;
+			private Iterator<? extends E> current = null;
+
+			public boolean hasNext() {
+				while (current == null || !current.hasNext()) {
+					if (next == lists.length) {
+						return false;
+					}
+					current = lists[next++].iterator();
+				}
+				return true;
+			}
+
+			public E next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return current.next();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
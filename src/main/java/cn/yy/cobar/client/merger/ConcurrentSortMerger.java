@@ -27,6 +27,7 @@ import java.util.concurrent.Future;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 
+import cn.yy.cobar.client.exception.UncategorizedCobarClientException;
 import cn.yy.cobar.client.support.utils.CollectionUtils;
 
 /**
@@ -34,6 +35,10 @@ import cn.yy.cobar.client.support.utils.CollectionUtils;
  * sub-result lists are all in order.<br>
  * In this situation, we only need to do the 2nd part of merge-sort algorithm to
  * sort all of the sub-result lists.<br>
+ * the sub-result lists are merged in one pass with a {@link KWayMergeIterator}
+ * in the calling thread. only if the total size reaches
+ * {@link #parallelMergeThreshold}, groups of the sub-result lists are merged on
+ * the executor first, and then the merged groups are merged.<br>
  * 
  * @author fujohnwang
  * @since 1.0
@@ -45,69 +50,66 @@ public class ConcurrentSortMerger<E> implements IMerger<List<E>, List<E>>, Initi
 
 	private ExecutorService executor;
 	private Comparator<E> comparator;
+	/**
+	 * the total size of the sub-result lists from which they are merged in
+	 * parallel.
+	 */
+	private int parallelMergeThreshold = 256 * 1024;
 
 	public List<E> merge(List<List<E>> entities) {
-		List<E> resultList = new ArrayList<E>();
-		if (CollectionUtils.isNotEmpty(entities)) {
-			if (entities.size() == 1) {
-				resultList.addAll(entities.get(0));
-			} else {
-				List<List<E>> partialResult = new ArrayList<List<E>>();
-				int pairs = entities.size() / 2;
-				List<Future<List<E>>> futures = new ArrayList<Future<List<E>>>();
-
-				for (int i = 0; i < pairs; i++) {
-					final List<E> llst = entities.get(i * 2);
-					final List<E> rlst = entities.get(i * 2 + 1);
-					futures.add(getExecutor().submit(new Callable<List<E>>() {
-						public List<E> call() throws Exception {
-							return partialSortMerge(llst, rlst);
-						}
-					}));
-				}
+		if (CollectionUtils.isEmpty(entities)) {
+			return new ArrayList<E>();
+		}
+		if (entities.size() == 1) {
+			return new ArrayList<E>(entities.get(0));
+		}
 
-				for (Future<List<E>> f : futures) {
-					try {
-						partialResult.add(f.get());
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					} catch (ExecutionException e) {
-						e.printStackTrace();
-					}
-				}
+		int total = 0;
+		for (List<E> entity : entities) {
+			total += entity.size();
+		}
+		int groups = groupCountOf(entities.size(), total);
+		if (groups <= 1) {
+			return KWayMergeIterator.merge(entities, getComparator());
+		}
 
-				if (entities.size() % 2 == 1) {
-					partialResult.add(entities.get(pairs * 2));
+		List<Future<List<E>>> futures = new ArrayList<Future<List<E>>>(groups);
+		for (int i = 0; i < groups; i++) {
+			final List<List<E>> group = entities.subList(i * entities.size() / groups,
+					(i + 1) * entities.size() / groups);
+			futures.add(getExecutor().submit(new Callable<List<E>>() {
+				public List<E> call() throws Exception {
+					return KWayMergeIterator.merge(group, getComparator());
 				}
-
-				resultList.addAll(merge(partialResult));
+			}));
+		}
+		List<List<E>> partialResult = new ArrayList<List<E>>(groups);
+		try {
+			for (Future<List<E>> f : futures) {
+				partialResult.add(f.get());
 			}
+		} catch (InterruptedException e) {
+			cancel(futures);
+			Thread.currentThread().interrupt();
+			throw new UncategorizedCobarClientException("interrupted when merging sub-results.", e);
+		} catch (ExecutionException e) {
+			cancel(futures);
+			throw new UncategorizedCobarClientException("failed to merge sub-results.", e.getCause());
 		}
-		return resultList;
+		return KWayMergeIterator.merge(partialResult, getComparator());
 	}
 
-	protected List<E> partialSortMerge(List<E> llst, List<E> rlst) {
-		List<E> resultList = new ArrayList<E>();
-		int li = 0, ri = 0;
-		while (li < llst.size() && ri < rlst.size()) {
-			E le = llst.get(li);
-			E re = rlst.get(ri);
-			if (getComparator().compare(le, re) <= 0) {
-				resultList.add(le);
-				li++;
-			} else {
-				resultList.add(re);
-				ri++;
-			}
+	private int groupCountOf(int lists, int total) {
+		if (total < getParallelMergeThreshold() || lists < 4 || getExecutor() == null) {
+			return 1;
 		}
+		return Math.min(lists / 2, Runtime.getRuntime().availableProcessors());
+	}
 
-		if (li < llst.size()) {
-			resultList.addAll(llst.subList(li, llst.size()));
+	private static void cancel(List<? extends Future<?>> futures) {
+		for (Future<?> f : futures) {
+			f.cancel(true);
 		}
-		if (ri < rlst.size()) {
-			resultList.addAll(rlst.subList(ri, rlst.size()));
-		}
-		return resultList;
 	}
 
 	public void setExecutor(ExecutorService executor) {
@@ -143,4 +145,12 @@ public class ConcurrentSortMerger<E> implements IMerger<List<E>, List<E>>, Initi
 		return comparator;
 	}
 
+	public int getParallelMergeThreshold() {
+		return parallelMergeThreshold;
+	}
+
+	public void setParallelMergeThreshold(int parallelMergeThreshold) {
+		this.parallelMergeThreshold = parallelMergeThreshold;
+	}
+
 }
@@ -0,0 +1,132 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import cn.yy.cobar.client.support.utils.CollectionUtils;
+
+/**
+ * merges the sub-result lists of the shards while removing the elements of the
+ * same key, like the rows of a replicated table or of a table being migrated
+ * between shards, the first one of equal keys in the order of the shards is
+ * kept.<br>
+ * without a {@link #comparator}, the keys seen are kept in a hash set sized for
+ * the total size of the sub-result lists.<br>
+ * with a comparator that the sub-result lists are all ordered by, the lists
+ * are merged with a {@link KWayMergeIterator}, and an element is only checked
+ * against the elements before it that compare equal to it, so only the keys of
+ * one run of equal elements are held at a time. elements of equal keys must
+ * compare equal, which holds if the comparator orders by the key columns
+ * first.<br>
+ * 
+ * @since 1.0
+ * @param <E>
+ */
+public class DistinctMerger<E> implements IMerger<List<E>, List<E>> {
+
+	private IKeyExtractor<? super E> keyExtractor;
+
+	private Comparator<? super E> comparator;
+
+	public DistinctMerger() {
+	}
+
+	public DistinctMerger(IKeyExtractor<? super E> keyExtractor) {
+		this.keyExtractor = keyExtractor;
+	}
+
+	public List<E> merge(List<List<E>> entities) {
+		if (CollectionUtils.isEmpty(entities)) {
+			return new ArrayList<E>();
+		}
+		int total = 0;
+		for (List<E> entity : entities) {
+			total += entity.size();
+		}
+		return (comparator == null) ? mergeByHash(entities, total) : mergeSorted(entities, total);
+	}
+
+	private List<E> mergeByHash(List<List<E>> entities, int total) {
+		Set<Object> keys = new HashSet<Object>((int) Math.min(Integer.MAX_VALUE >> 1, total / 0.75f + 1));
+		List<E> result = new ArrayList<E>(total);
+		for (List<E> entity : entities) {
+			for (E element : entity) {
+				if (keys.add(keyOf(element))) {
+					result.add(element);
+				}
+			}
+		}
+		return result;
+	}
+
+	private List<E> mergeSorted(List<List<E>> entities, int total) {
+		List<Iterator<E>> sources = new ArrayList<Iterator<E>>(entities.size());
+		for (List<E> entity : entities) {
+			sources.add(entity.iterator());
+		}
+		Iterator<E> elements = new KWayMergeIterator<E>(sources, comparator);
+		List<E> result = new ArrayList<E>(total);
+		Set<Object> runKeys = new HashSet<Object>();
+		E runHead = null;
+		while (elements.hasNext()) {
+			E element = elements.next();
+			if (runKeys.isEmpty() || comparator.compare(runHead, element) != 0) {
+				runKeys.clear();
+				runHead = element;
+			}
+			if (runKeys.add(keyOf(element))) {
+				result.add(element);
+			}
+		}
+		return result;
+	}
+
+	private Object keyOf(E element) {
+		return (keyExtractor == null) ? element : keyExtractor.keyOf(element);
+	}
+
+	public IKeyExtractor<? super E> getKeyExtractor() {
+		return keyExtractor;
+	}
+
+	/**
+	 * @param keyExtractor,
+	 *            the key of the elements, the elements themselves are taken
+	 *            as the keys if it's not given.
+	 */
+	public void setKeyExtractor(IKeyExtractor<? super E> keyExtractor) {
+		this.keyExtractor = keyExtractor;
+	}
+
+	public Comparator<? super E> getComparator() {
+		return comparator;
+	}
+
+	/**
+	 * @param comparator,
+	 *            the order of the sub-result lists, they are merged as
+	 *            unordered ones if it's not given.
+	 */
+	public void setComparator(Comparator<? super E> comparator) {
+		this.comparator = comparator;
+	}
+}
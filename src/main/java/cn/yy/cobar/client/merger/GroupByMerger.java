@@ -0,0 +1,259 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.Validate;
+import org.springframework.beans.factory.DisposableBean;
+
+import cn.yy.cobar.client.exception.UncategorizedCobarClientException;
+import cn.yy.cobar.client.support.utils.CollectionUtils;
+
+/**
+ * merges the partial groups that a "group by" query returns from each of the
+ * shards, as lists of rows of column to value, into the groups across the
+ * shards.<br>
+ * the rows of the same values of {@link #groupByColumns} are combined into one
+ * row with the aggregate functions of the columns, averages are computed from
+ * sum/count pairs, see {@link ColumnAggregateMerger}.<br>
+ * the groups are collected in one pass into a hash table sized for the total
+ * number of the shard rows, so it never grows. only if the total reaches
+ * {@link #parallelMergeThreshold}, the rows are partitioned by the hash of
+ * their group keys, and the partitions are merged on the executor, each into
+ * its own table.<br>
+ * the groups come out in no particular order, order the result in the
+ * application if it matters.<br>
+ * 
+ * @since 1.0
+ */
+public class GroupByMerger extends ColumnAggregateMerger implements DisposableBean {
+
+	private static final Object NULL_KEY = new Object();
+
+	private boolean usingDefaultExecutor = false;
+
+	private ExecutorService executor;
+
+	private String[] groupByColumns;
+
+	/**
+	 * the total number of the shard rows from which they are merged in
+	 * parallel.
+	 */
+	private int parallelMergeThreshold = 256 * 1024;
+
+	/**
+	 * how many partitions the rows are merged in when they are merged in
+	 * parallel.
+	 */
+	private int partitionCount = Runtime.getRuntime().availableProcessors();
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		Validate.notEmpty(groupByColumns, "the group by columns must be given.");
+		super.afterPropertiesSet();
+		if (getExecutor() == null) {
+			setExecutor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()));
+			usingDefaultExecutor = true;
+		}
+	}
+
+	public void destroy() throws Exception {
+		if (usingDefaultExecutor) {
+			getExecutor().shutdown();
+		}
+	}
+
+	@Override
+	public Object merge(List<Object> entities) {
+		if (CollectionUtils.isEmpty(entities)) {
+			return new ArrayList<Object>();
+		}
+		List<Collection<?>> shardRows = new ArrayList<Collection<?>>(entities.size());
+		int total = 0;
+		for (Object entity : entities) {
+			if (entity instanceof Collection) {
+				shardRows.add((Collection<?>) entity);
+				total += ((Collection<?>) entity).size();
+			} else if (entity != null) {
+				shardRows.add(Collections.singletonList(entity));
+				total++;
+			}
+		}
+
+		int partitions = partitionCountOf(total);
+		if (partitions <= 1) {
+			Map<Object, Map<String, Object>> groups = new HashMap<Object, Map<String, Object>>(capacityFor(total));
+			for (Collection<?> rows : shardRows) {
+				for (Object row : rows) {
+					accumulate(groups, keyOf(row), row);
+				}
+			}
+			return complete(groups, new ArrayList<Object>(groups.size()));
+		}
+
+		final List<List<Object>> keysByPartition = new ArrayList<List<Object>>(partitions);
+		final List<List<Object>> rowsByPartition = new ArrayList<List<Object>>(partitions);
+		for (int i = 0; i < partitions; i++) {
+			keysByPartition.add(new ArrayList<Object>(total / partitions + 1));
+			rowsByPartition.add(new ArrayList<Object>(total / partitions + 1));
+		}
+		for (Collection<?> rows : shardRows) {
+			for (Object row : rows) {
+				Object key = keyOf(row);
+				int partition = partitionOf(key, partitions);
+				keysByPartition.get(partition).add(key);
+				rowsByPartition.get(partition).add(row);
+			}
+		}
+
+		List<Future<Map<Object, Map<String, Object>>>> futures = new ArrayList<Future<Map<Object, Map<String, Object>>>>(
+				partitions);
+		for (int i = 0; i < partitions; i++) {
+			final List<Object> keys = keysByPartition.get(i);
+			final List<Object> rows = rowsByPartition.get(i);
+			futures.add(getExecutor().submit(new Callable<Map<Object, Map<String, Object>>>() {
+				public Map<Object, Map<String, Object>> call() throws Exception {
+					Map<Object, Map<String, Object>> groups = new HashMap<Object, Map<String, Object>>(
+							capacityFor(keys.size()));
+					for (int j = 0; j < keys.size(); j++) {
+						accumulate(groups, keys.get(j), rows.get(j));
+					}
+					return groups;
+				}
+			}));
+		}
+		List<Object> result = new ArrayList<Object>();
+		try {
+			for (Future<Map<Object, Map<String, Object>>> f : futures) {
+				complete(f.get(), result);
+			}
+		} catch (InterruptedException e) {
+			cancel(futures);
+			Thread.currentThread().interrupt();
+			throw new UncategorizedCobarClientException("interrupted when merging groups.", e);
+		} catch (ExecutionException e) {
+			cancel(futures);
+			throw new UncategorizedCobarClientException("failed to merge groups.", e.getCause());
+		}
+		return result;
+	}
+
+	private void accumulate(Map<Object, Map<String, Object>> groups, Object key, Object row) {
+		Map<String, Object> group = groups.get(key);
+		if (group == null) {
+			groups.put(key, newAggregate(row));
+		} else {
+			accumulate(group, row);
+		}
+	}
+
+	private List<Object> complete(Map<Object, Map<String, Object>> groups, List<Object> result) {
+		for (Map<String, Object> group : groups.values()) {
+			result.add(complete(group));
+		}
+		return result;
+	}
+
+	/**
+	 * the value of the only group by column, or the list of the values of the
+	 * group by columns.
+	 */
+	@SuppressWarnings("unchecked")
+	private Object keyOf(Object row) {
+		if (!(row instanceof Map)) {
+			throw new IllegalArgumentException("rows to group must be maps, but got " + row.getClass());
+		}
+		Map<String, Object> columnValues = (Map<String, Object>) row;
+		if (groupByColumns.length == 1) {
+			Object value = columnValues.get(groupByColumns[0]);
+			return (value == null) ? NULL_KEY : value;
+		}
+		Object[] values = new Object[groupByColumns.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = columnValues.get(groupByColumns[i]);
+		}
+		return Arrays.asList(values);
+	}
+
+	private static int partitionOf(Object key, int partitions) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % partitions;
+	}
+
+	private int partitionCountOf(int total) {
+		if (total < getParallelMergeThreshold() || getExecutor() == null) {
+			return 1;
+		}
+		return getPartitionCount();
+	}
+
+	private static int capacityFor(int size) {
+		return (int) Math.min(Integer.MAX_VALUE >> 1, size / 0.75f + 1);
+	}
+
+	private static void cancel(List<? extends Future<?>> futures) {
+		for (Future<?> f : futures) {
+			f.cancel(true);
+		}
+	}
+
+	public String[] getGroupByColumns() {
+		return groupByColumns;
+	}
+
+	public void setGroupByColumns(String[] groupByColumns) {
+		this.groupByColumns = groupByColumns;
+	}
+
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	public int getParallelMergeThreshold() {
+		return parallelMergeThreshold;
+	}
+
+	public void setParallelMergeThreshold(int parallelMergeThreshold) {
+		this.parallelMergeThreshold = parallelMergeThreshold;
+	}
+
+	public int getPartitionCount() {
+		return partitionCount;
+	}
+
+	public void setPartitionCount(int partitionCount) {
+		Validate.isTrue(partitionCount > 0, "partitionCount must be positive.");
+		this.partitionCount = partitionCount;
+	}
+}
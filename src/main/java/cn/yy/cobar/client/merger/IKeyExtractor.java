@@ -0,0 +1,28 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+/**
+ * tells the key that identifies an element, elements of equal keys are taken
+ * as the same logical row by {@link DistinctMerger}.<br>
+ * the keys must implement equals and hashCode by value.<br>
+ * 
+ * @since 1.0
+ * @param <E>
+ */
+public interface IKeyExtractor<E> {
+	Object keyOf(E element);
+}
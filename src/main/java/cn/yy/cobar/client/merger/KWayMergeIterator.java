@@ -0,0 +1,131 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * iterates over the elements of several sorted sources in order.<br>
+ * the current heads of the sources are kept in a binary min-heap, so that
+ * taking the next element costs O(log k) comparisons for k sources, and
+ * nothing is copied or allocated per element. elements that compare equal are
+ * returned in the order of their sources, which keeps the merge stable.
+ * 
+ * @param <E>
+ */
+public class KWayMergeIterator<E> implements Iterator<E> {
+
+	private final Comparator<? super E> comparator;
+	private final Iterator<? extends E>[] sources;
+	private final Object[] heads;
+	/**
+	 * indexes of the sources which are not exhausted yet, ordered as a heap by
+	 * their heads.
+	 */
+	private final int[] heap;
+	private int size;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public KWayMergeIterator(List<? extends Iterator<? extends E>> sources, Comparator<? super E> comparator) {
+		this.comparator = comparator;
+		this.sources = sources.toArray(new Iterator[sources.size()]);
+		this.heads = new Object[this.sources.length];
+		this.heap = new int[this.sources.length];
+		for (int i = 0; i < this.sources.length; i++) {
+			if (this.sources[i].hasNext()) {
+				heads[i] = this.sources[i].next();
+				heap[size++] = i;
+			}
+		}
+		for (int i = (size >>> 1) - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+	}
+
+	/**
+	 * merge sorted lists into a new list, which is allocated only once with
+	 * the total size.
+	 */
+	public static <E> List<E> merge(List<? extends List<? extends E>> lists, Comparator<? super E> comparator) {
+		int total = 0;
+		List<Iterator<? extends E>> sources = new ArrayList<Iterator<? extends E>>(lists.size());
+		for (List<? extends E> list : lists) {
+			total += list.size();
+			sources.add(list.iterator());
+		}
+		List<E> result = new ArrayList<E>(total);
+		KWayMergeIterator<E> iterator = new KWayMergeIterator<E>(sources, comparator);
+		while (iterator.hasNext()) {
+			result.add(iterator.next());
+		}
+		return result;
+	}
+
+	public boolean hasNext() {
+		return size > 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public E next() {
+		if (size == 0) {
+			throw new NoSuchElementException();
+		}
+		int source = heap[0];
+		E element = (E) heads[source];
+		if (sources[source].hasNext()) {
+			heads[source] = sources[source].next();
+		} else {
+			heads[source] = null;
+			heap[0] = heap[--size];
+		}
+		if (size > 1) {
+			siftDown(0);
+		}
+		return element;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	private void siftDown(int index) {
+		int source = heap[index];
+		int half = size >>> 1;
+		while (index < half) {
+			int child = (index << 1) + 1;
+			int right = child + 1;
+			if (right < size && less(heap[right], heap[child])) {
+				child = right;
+			}
+			if (!less(heap[child], source)) {
+				break;
+			}
+			heap[index] = heap[child];
+			index = child;
+		}
+		heap[index] = source;
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean less(int left, int right) {
+		int result = comparator.compare((E) heads[left], (E) heads[right]);
+		return (result < 0) || (result == 0 && left < right);
+	}
+}
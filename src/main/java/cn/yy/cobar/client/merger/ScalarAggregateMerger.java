@@ -0,0 +1,60 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * merges the single values that an aggregate query like
+ * "select count(*) from ..." returns from each of the shards.<br>
+ * 
+ * @since 1.0
+ */
+public class ScalarAggregateMerger extends AbstractAggregateMerger implements InitializingBean {
+
+	private AggregateFunction function;
+
+	public ScalarAggregateMerger() {
+	}
+
+	public ScalarAggregateMerger(AggregateFunction function) {
+		this.function = function;
+	}
+
+	public void afterPropertiesSet() throws Exception {
+		Validate.notNull(function, "the aggregate function must be given.");
+	}
+
+	@Override
+	protected Object aggregate(List<Object> values) {
+		Object result = null;
+		for (Object value : values) {
+			result = function.combine(result, value);
+		}
+		return result;
+	}
+
+	public AggregateFunction getFunction() {
+		return function;
+	}
+
+	public void setFunction(AggregateFunction function) {
+		this.function = function;
+	}
+}
@@ -16,16 +16,25 @@
 package cn.yy.cobar.client.router;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import cn.yy.cobar.client.merger.IMerger;
 import cn.yy.cobar.client.router.rules.IRoutingRule;
+import cn.yy.cobar.client.router.rules.ibatis.AbstractIBatisOrientedRule;
 import cn.yy.cobar.client.router.support.IBatisRoutingFact;
+import cn.yy.cobar.client.router.support.RoutingCacheKey;
 import cn.yy.cobar.client.router.support.RoutingResult;
-import cn.yy.cobar.client.support.LRUMap;
+import cn.yy.cobar.client.support.ConcurrentLRUCache;
 import cn.yy.cobar.client.support.utils.CollectionUtils;
 
 /**
@@ -49,18 +58,29 @@ import cn.yy.cobar.client.support.utils.CollectionUtils;
  * just match against the "namespace" part in the sql action id; we will match
  * these rules in sequence against the routing fact, each later rule will be
  * used as fall-back rule if former match fails.<br>
+ * when the rule sequences are set, each set of rules is indexed by the sql
+ * action id or the namespace it matches against, so only the rules that can
+ * match the routing fact will be evaluated, no matter how many rules there are.
+ * <br>
  * To enhance the rule matching performance, we add a LRU cache, you can decide
  * whether to use this cache by set the {@link #enableCache} property's value to
- * true or false.<br>
+ * true or false, reads of the cache don't need any lock.<br>
+ * the cache is keyed by the sql action id and the values of the shard keys the
+ * rules read from the argument, see {@link IShardKeyAwareRouter}.<br>
  * 
  * @author fujohnwang
  * @since 1.0
  */
-public class CobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact> {
+public class CobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact>, IShardKeyAwareRouter, IMergerAwareRouter {
+
+	/**
+	 * stands for unknown shard keys in {@link #shardKeysByAction}.
+	 */
+	private static final String[] UNKNOWN_SHARD_KEYS = new String[0];
 
 	private transient final Logger logger = LoggerFactory.getLogger(CobarClientInternalRouter.class);
 
-	private LRUMap localCache;
+	private ConcurrentLRUCache<Object, RoutingResult> localCache;
 	private boolean enableCache = false;
 
 	public CobarClientInternalRouter(boolean enableCache) {
@@ -74,20 +94,30 @@ public class CobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact
 	public CobarClientInternalRouter(boolean enableCache, int cacheSize) {
 		this.enableCache = enableCache;
 		if (this.enableCache) {
-			localCache = new LRUMap(cacheSize);
+			localCache = new ConcurrentLRUCache<Object, RoutingResult>(cacheSize);
 		}
 	}
 
 	private List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences = new ArrayList<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>();
 
+	/**
+	 * one index for each set of rules in {@link #ruleSequences}, in the same
+	 * order.
+	 */
+	private List<RuleIndex> ruleIndexes = new ArrayList<RuleIndex>();
+
+	private ConcurrentMap<String, String[]> shardKeysByAction = new ConcurrentHashMap<String, String[]>();
+
+	private Map<String, IMerger<Object, Object>> mergers = new HashMap<String, IMerger<Object, Object>>();
+
 	public RoutingResult doRoute(IBatisRoutingFact routingFact) throws RoutingException {
+		Object cacheKey = null;
 		if (enableCache) {
-			synchronized (localCache) {
-				if (localCache.containsKey(routingFact)) {
-					RoutingResult result = (RoutingResult) localCache.get(routingFact);
-					logger.info("return routing result:{} from cache for fact:{}", result, routingFact);
-					return result;
-				}
+			cacheKey = RoutingCacheKey.of(routingFact, getShardKeys(routingFact.getAction()));
+			RoutingResult result = localCache.get(cacheKey);
+			if (result != null) {
+				logger.info("return routing result:{} from cache for fact:{}", result, routingFact);
+				return result;
 			}
 		}
 
@@ -95,9 +125,10 @@ public class CobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact
 		result.setResourceIdentities(new ArrayList<String>());
 
 		IRoutingRule<IBatisRoutingFact, List<String>> ruleToUse = null;
-		if (!CollectionUtils.isEmpty(getRuleSequences())) {
-			for (Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet : getRuleSequences()) {
-				ruleToUse = searchMatchedRuleAgainst(ruleSet, routingFact);
+		if (!CollectionUtils.isEmpty(ruleIndexes)) {
+			String namespace = StringUtils.substringBeforeLast(routingFact.getAction(), ".");
+			for (RuleIndex index : ruleIndexes) {
+				ruleToUse = searchMatchedRuleAgainst(index, routingFact, namespace, result);
 				if (ruleToUse != null) {
 					break;
 				}
@@ -106,38 +137,100 @@ public class CobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact
 
 		if (ruleToUse != null) {
 			logger.info("matched with rule:{} with fact:{}", ruleToUse, routingFact);
-			result.getResourceIdentities().addAll(ruleToUse.action());
 		} else {
 			logger.info("No matched rule found for routing fact:{}", routingFact);
 		}
 
 		if (enableCache) {
-			synchronized (localCache) {
-				localCache.put(routingFact, result);
-			}
+			localCache.put(cacheKey, result);
 		}
 
 		return result;
 	}
 
+	public String[] getShardKeys(String action) {
+		if (action == null) {
+			return null;
+		}
+		String[] shardKeys = shardKeysByAction.get(action);
+		if (shardKeys == null) {
+			String namespace = StringUtils.substringBeforeLast(action, ".");
+			ShardKeys keys = new ShardKeys();
+			for (RuleIndex index : ruleIndexes) {
+				keys.addAll(index.rulesByAction.get(action));
+				keys.addAll(index.rulesByNamespace.get(namespace));
+				keys.addAll(index.unindexedRules);
+			}
+			shardKeys = keys.toArray();
+			shardKeysByAction.put(action, (shardKeys == null) ? UNKNOWN_SHARD_KEYS : shardKeys);
+		}
+		return (shardKeys == UNKNOWN_SHARD_KEYS) ? null : shardKeys;
+	}
+
+	/**
+	 * the merger bound to the sql action wins over the one bound to its
+	 * namespace.
+	 */
+	public IMerger<Object, Object> getMerger(String action) {
+		if (action == null || mergers.isEmpty()) {
+			return null;
+		}
+		IMerger<Object, Object> merger = mergers.get(action);
+		if (merger == null) {
+			merger = mergers.get(StringUtils.substringBeforeLast(action, "."));
+		}
+		return merger;
+	}
+
+	private IRoutingRule<IBatisRoutingFact, List<String>> searchMatchedRuleAgainst(RuleIndex index,
+			IBatisRoutingFact routingFact, String namespace, RoutingResult result) {
+		IRoutingRule<IBatisRoutingFact, List<String>> rule = searchMatchedRuleAgainst(
+				index.rulesByAction.get(routingFact.getAction()), routingFact, result);
+		if (rule == null) {
+			rule = searchMatchedRuleAgainst(index.rulesByNamespace.get(namespace), routingFact, result);
+		}
+		if (rule == null) {
+			rule = searchMatchedRuleAgainst(index.unindexedRules, routingFact, result);
+		}
+		return rule;
+	}
+
+	/**
+	 * @return the data sources of the rule for the routing fact, null if the
+	 *         rule is not defined at it.
+	 */
+	private List<String> actionIfDefinedAt(IRoutingRule<IBatisRoutingFact, List<String>> rule,
+			IBatisRoutingFact routingFact) {
+		if (rule instanceof AbstractIBatisOrientedRule) {
+			return ((AbstractIBatisOrientedRule) rule).actionIfDefinedAt(routingFact);
+		}
+		return rule.isDefinedAt(routingFact) ? rule.action() : null;
+	}
+
+	/**
+	 * adds the data sources of the matched rule to the result.
+	 */
 	private IRoutingRule<IBatisRoutingFact, List<String>> searchMatchedRuleAgainst(
-			Set<IRoutingRule<IBatisRoutingFact, List<String>>> rules, IBatisRoutingFact routingFact) {
+			List<IRoutingRule<IBatisRoutingFact, List<String>>> rules, IBatisRoutingFact routingFact,
+			RoutingResult result) {
 		if (CollectionUtils.isEmpty(rules)) {
 			return null;
 		}
 		for (IRoutingRule<IBatisRoutingFact, List<String>> rule : rules) {
-			if (rule.isDefinedAt(routingFact)) {
+			List<String> action = actionIfDefinedAt(rule, routingFact);
+			if (action != null) {
+				result.getResourceIdentities().addAll(action);
 				return rule;
 			}
 		}
 		return null;
 	}
 
-	public LRUMap getLocalCache() {
+	public ConcurrentLRUCache<Object, RoutingResult> getLocalCache() {
 		return localCache;
 	}
 
-	public synchronized void clearLocalCache() {
+	public void clearLocalCache() {
 		this.localCache.clear();
 	}
 
@@ -145,12 +238,74 @@ public class CobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact
 		return enableCache;
 	}
 
+	/**
+	 * the rules are indexed here, so modifications to the rule sets after they
+	 * are set will not be seen by the router.
+	 */
 	public void setRuleSequences(List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequences) {
+		List<RuleIndex> indexes = new ArrayList<RuleIndex>();
+		if (!CollectionUtils.isEmpty(ruleSequences)) {
+			for (Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet : ruleSequences) {
+				indexes.add(new RuleIndex(ruleSet));
+			}
+		}
 		this.ruleSequences = ruleSequences;
+		this.ruleIndexes = indexes;
+		this.shardKeysByAction = new ConcurrentHashMap<String, String[]>();
 	}
 
 	public List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> getRuleSequences() {
 		return ruleSequences;
 	}
 
+	/**
+	 * @param mergers,
+	 *            the mergers keyed by the sql action ids or the namespaces
+	 *            they are bound to.
+	 */
+	public void setMergers(Map<String, IMerger<Object, Object>> mergers) {
+		Validate.notNull(mergers);
+		this.mergers = mergers;
+	}
+
+	public Map<String, IMerger<Object, Object>> getMergers() {
+		return mergers;
+	}
+
+	/**
+	 * rules of one set indexed by the exact sql action id or by the namespace
+	 * they match against, rules that we don't know how to index will be
+	 * evaluated against every routing fact.
+	 */
+	private static class RuleIndex {
+		private final Map<String, List<IRoutingRule<IBatisRoutingFact, List<String>>>> rulesByAction = new HashMap<String, List<IRoutingRule<IBatisRoutingFact, List<String>>>>();
+		private final Map<String, List<IRoutingRule<IBatisRoutingFact, List<String>>>> rulesByNamespace = new HashMap<String, List<IRoutingRule<IBatisRoutingFact, List<String>>>>();
+		private final List<IRoutingRule<IBatisRoutingFact, List<String>>> unindexedRules = new ArrayList<IRoutingRule<IBatisRoutingFact, List<String>>>();
+
+		RuleIndex(Set<IRoutingRule<IBatisRoutingFact, List<String>>> rules) {
+			if (CollectionUtils.isEmpty(rules)) {
+				return;
+			}
+			for (IRoutingRule<IBatisRoutingFact, List<String>> rule : rules) {
+				if (rule instanceof AbstractIBatisOrientedRule) {
+					AbstractIBatisOrientedRule ibatisRule = (AbstractIBatisOrientedRule) rule;
+					index(ibatisRule.isNamespaceOriented() ? rulesByNamespace : rulesByAction,
+							ibatisRule.getTypePattern(), rule);
+				} else {
+					unindexedRules.add(rule);
+				}
+			}
+		}
+
+		private static void index(Map<String, List<IRoutingRule<IBatisRoutingFact, List<String>>>> indexes,
+				String key, IRoutingRule<IBatisRoutingFact, List<String>> rule) {
+			List<IRoutingRule<IBatisRoutingFact, List<String>>> rules = indexes.get(key);
+			if (rules == null) {
+				rules = new ArrayList<IRoutingRule<IBatisRoutingFact, List<String>>>(1);
+				indexes.put(key, rules);
+			}
+			rules.add(rule);
+		}
+	}
+
 }
@@ -20,14 +20,18 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import cn.yy.cobar.client.merger.IMerger;
 import cn.yy.cobar.client.router.config.DefaultCobarClientInternalRouterXmlFactoryBean;
 import cn.yy.cobar.client.router.rules.IRoutingRule;
+import cn.yy.cobar.client.router.rules.ibatis.AbstractIBatisOrientedRule;
 import cn.yy.cobar.client.router.support.IBatisRoutingFact;
 import cn.yy.cobar.client.router.support.RoutingResult;
 import cn.yy.cobar.client.support.utils.CollectionUtils;
@@ -45,12 +49,21 @@ import cn.yy.cobar.client.support.utils.CollectionUtils;
  * @since 1.0
  * @see DefaultCobarClientInternalRouterXmlFactoryBean
  */
-public class DefaultCobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact> {
+public class DefaultCobarClientInternalRouter implements ICobarRouter<IBatisRoutingFact>, IShardKeyAwareRouter, IMergerAwareRouter {
+
+	/**
+	 * stands for unknown shard keys in {@link #shardKeysByAction}.
+	 */
+	private static final String[] UNKNOWN_SHARD_KEYS = new String[0];
 
 	private transient final Logger logger = LoggerFactory.getLogger(DefaultCobarClientInternalRouter.class);
 
 	private Map<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces = new HashMap<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>>();
 
+	private ConcurrentMap<String, String[]> shardKeysByAction = new ConcurrentHashMap<String, String[]>();
+
+	private Map<String, IMerger<Object, Object>> mergers = new HashMap<String, IMerger<Object, Object>>();
+
 	public RoutingResult doRoute(IBatisRoutingFact routingFact) throws RoutingException {
 		Validate.notNull(routingFact);
 		String action = routingFact.getAction();
@@ -64,7 +77,7 @@ public class DefaultCobarClientInternalRouter implements ICobarRouter<IBatisRout
 		if (!CollectionUtils.isEmpty(rules)) {
 			IRoutingRule<IBatisRoutingFact, List<String>> ruleToUse = null;
 			for (Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet : rules) {
-				ruleToUse = searchMatchedRuleAgainst(ruleSet, routingFact);
+				ruleToUse = searchMatchedRuleAgainst(ruleSet, routingFact, result);
 				if (ruleToUse != null) {
 					break;
 				}
@@ -72,7 +85,6 @@ public class DefaultCobarClientInternalRouter implements ICobarRouter<IBatisRout
 
 			if (ruleToUse != null) {
 				logger.info("matched with rule:{} with fact:{}", ruleToUse, routingFact);
-				result.getResourceIdentities().addAll(ruleToUse.action());
 			} else {
 				logger.info("No matched rule found for routing fact:{}", routingFact);
 			}
@@ -81,13 +93,78 @@ public class DefaultCobarClientInternalRouter implements ICobarRouter<IBatisRout
 		return result;
 	}
 
+	/**
+	 * the shard keys are collected from the rules of the sql action's namespace
+	 * when they are asked for the first time, so the rules should be in place
+	 * before routing starts.
+	 */
+	public String[] getShardKeys(String action) {
+		if (action == null) {
+			return null;
+		}
+		String[] shardKeys = shardKeysByAction.get(action);
+		if (shardKeys == null) {
+			ShardKeys keys = new ShardKeys();
+			List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> rules = getRulesGroupByNamespaces()
+					.get(StringUtils.substringBeforeLast(action, "."));
+			if (!CollectionUtils.isEmpty(rules)) {
+				for (Set<IRoutingRule<IBatisRoutingFact, List<String>>> ruleSet : rules) {
+					for (IRoutingRule<IBatisRoutingFact, List<String>> rule : ruleSet) {
+						if (rule instanceof AbstractIBatisOrientedRule
+								&& !((AbstractIBatisOrientedRule) rule).isNamespaceOriented()
+								&& !action.equals(((AbstractIBatisOrientedRule) rule).getTypePattern())) {
+							continue;
+						}
+						keys.add(rule);
+					}
+				}
+			}
+			shardKeys = keys.toArray();
+			shardKeysByAction.put(action, (shardKeys == null) ? UNKNOWN_SHARD_KEYS : shardKeys);
+		}
+		return (shardKeys == UNKNOWN_SHARD_KEYS) ? null : shardKeys;
+	}
+
+	/**
+	 * the merger bound to the sql action wins over the one bound to its
+	 * namespace.
+	 */
+	public IMerger<Object, Object> getMerger(String action) {
+		if (action == null || mergers.isEmpty()) {
+			return null;
+		}
+		IMerger<Object, Object> merger = mergers.get(action);
+		if (merger == null) {
+			merger = mergers.get(StringUtils.substringBeforeLast(action, "."));
+		}
+		return merger;
+	}
+
+	/**
+	 * @return the data sources of the rule for the routing fact, null if the
+	 *         rule is not defined at it.
+	 */
+	private List<String> actionIfDefinedAt(IRoutingRule<IBatisRoutingFact, List<String>> rule,
+			IBatisRoutingFact routingFact) {
+		if (rule instanceof AbstractIBatisOrientedRule) {
+			return ((AbstractIBatisOrientedRule) rule).actionIfDefinedAt(routingFact);
+		}
+		return rule.isDefinedAt(routingFact) ? rule.action() : null;
+	}
+
+	/**
+	 * adds the data sources of the matched rule to the result.
+	 */
 	private IRoutingRule<IBatisRoutingFact, List<String>> searchMatchedRuleAgainst(
-			Set<IRoutingRule<IBatisRoutingFact, List<String>>> rules, IBatisRoutingFact routingFact) {
+			Set<IRoutingRule<IBatisRoutingFact, List<String>>> rules, IBatisRoutingFact routingFact,
+			RoutingResult result) {
 		if (CollectionUtils.isEmpty(rules)) {
 			return null;
 		}
 		for (IRoutingRule<IBatisRoutingFact, List<String>> rule : rules) {
-			if (rule.isDefinedAt(routingFact)) {
+			List<String> action = actionIfDefinedAt(rule, routingFact);
+			if (action != null) {
+				result.getResourceIdentities().addAll(action);
 				return rule;
 			}
 		}
@@ -97,10 +174,25 @@ public class DefaultCobarClientInternalRouter implements ICobarRouter<IBatisRout
 	public void setRulesGroupByNamespaces(
 			Map<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> rulesGroupByNamespaces) {
 		this.rulesGroupByNamespaces = rulesGroupByNamespaces;
+		this.shardKeysByAction = new ConcurrentHashMap<String, String[]>();
 	}
 
 	public Map<String, List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>>> getRulesGroupByNamespaces() {
 		return rulesGroupByNamespaces;
 	}
 
+	/**
+	 * @param mergers,
+	 *            the mergers keyed by the sql action ids or the namespaces
+	 *            they are bound to.
+	 */
+	public void setMergers(Map<String, IMerger<Object, Object>> mergers) {
+		Validate.notNull(mergers);
+		this.mergers = mergers;
+	}
+
+	public Map<String, IMerger<Object, Object>> getMergers() {
+		return mergers;
+	}
+
 }
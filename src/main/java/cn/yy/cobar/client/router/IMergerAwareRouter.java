@@ -0,0 +1,38 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router;
+
+import cn.yy.cobar.client.merger.IMerger;
+import cn.yy.cobar.client.router.config.vo.InternalRule;
+
+/**
+ * a router that knows how the results of a sql action routed to several
+ * shards are merged into one result, like adding up the counts of an
+ * aggregate query.<br>
+ * the mergers are bound to the sql actions or the namespaces by the same rule
+ * definitions that route them.<br>
+ * 
+ * @see InternalRule#getMerger()
+ */
+public interface IMergerAwareRouter {
+	/**
+	 * @param action,
+	 *            the sql action id
+	 * @return the merger bound to the sql action, or else the one bound to its
+	 *         namespace, null if there is none.
+	 */
+	IMerger<Object, Object> getMerger(String action);
+}
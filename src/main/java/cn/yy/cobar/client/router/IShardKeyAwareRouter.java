@@ -0,0 +1,38 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router;
+
+import cn.yy.cobar.client.router.rules.ibatis.AbstractIBatisOrientedRule;
+
+/**
+ * a router that knows which attributes of the sql action's argument decide the
+ * routing result of the sql action.<br>
+ * the routing results can then be cached by the values of these attributes
+ * instead of the whole argument.<br>
+ * 
+ * @see AbstractIBatisOrientedRule#getShardKeys()
+ */
+public interface IShardKeyAwareRouter {
+	/**
+	 * @param action,
+	 *            the sql action id
+	 * @return the attributes of the argument that decide the routing result of
+	 *         the sql action, "$ROOT" stands for the argument itself; an empty
+	 *         array if the argument doesn't matter at all, null if it can't be
+	 *         figured out.
+	 */
+	String[] getShardKeys(String action);
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import cn.yy.cobar.client.router.rules.IRoutingRule;
+import cn.yy.cobar.client.router.rules.ibatis.AbstractIBatisOrientedRule;
+import cn.yy.cobar.client.router.support.IBatisRoutingFact;
+
+/**
+ * collects the shard keys of the rules that may match a sql action for
+ * {@link IShardKeyAwareRouter} implementations.
+ */
+class ShardKeys {
+
+	private final Set<String> keys = new LinkedHashSet<String>();
+	private boolean unknown = false;
+
+	void addAll(Collection<? extends IRoutingRule<IBatisRoutingFact, List<String>>> rules) {
+		if (rules == null) {
+			return;
+		}
+		for (IRoutingRule<IBatisRoutingFact, List<String>> rule : rules) {
+			add(rule);
+		}
+	}
+
+	void add(IRoutingRule<IBatisRoutingFact, List<String>> rule) {
+		List<String> ruleKeys = (rule instanceof AbstractIBatisOrientedRule)
+				? ((AbstractIBatisOrientedRule) rule).getShardKeys() : null;
+		if (ruleKeys == null) {
+			unknown = true;
+		} else {
+			keys.addAll(ruleKeys);
+		}
+	}
+
+	/**
+	 * @return null if any of the rules can't tell its shard keys.
+	 */
+	String[] toArray() {
+		return unknown ? null : keys.toArray(new String[keys.size()]);
+	}
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.springframework.beans.factory.InitializingBean;
+
+import cn.yy.cobar.client.router.rules.ShardKeyExtractor;
+import cn.yy.cobar.client.router.support.IBatisRoutingFact;
+import cn.yy.cobar.client.router.support.RoutingResult;
+import cn.yy.cobar.client.sessionfactory.CobarSessionFactoryDescriptor;
+import cn.yy.cobar.client.support.utils.CollectionUtils;
+
+/**
+ * a router that hashes the shard keys of the argument into a fixed space of
+ * virtual buckets, and maps the buckets onto the shards with jump consistent
+ * hashing.<br>
+ * the shards are the identities of {@link CobarSessionFactoryDescriptor}s in a
+ * fixed order, new shards must be appended to the end of the list. when the
+ * number of shards grows from n to m, only (m-n)/m of the buckets, and so of
+ * the keys, move to the new shards, the others stay where they were.<br>
+ * the bucket to shard table is built once when the properties are set, so a
+ * routing costs reading the shard keys, one hash and one array lookup, and the
+ * routing results are shared instances which must not be modified.<br>
+ * sql actions out of {@link #namespaces}, or whose argument doesn't carry all
+ * of the shard keys, are routed by {@link #fallbackRouter} if there is one,
+ * otherwise they are not routed at all.<br>
+ * keys should be of the same type in all of the sql actions, since a number and
+ * its string form hash to different buckets.
+ */
+public class VirtualBucketCobarRouter implements ICobarRouter<IBatisRoutingFact>, IShardKeyAwareRouter,
+		InitializingBean {
+
+	public static final int DEFAULT_BUCKET_COUNT = 1024;
+
+	private static final RoutingResult EMPTY_RESULT = createResult(Collections.<String> emptyList());
+
+	/**
+	 * attributes of the argument to hash, "$ROOT" stands for the argument itself.
+	 */
+	private List<String> shardKeys;
+	/**
+	 * identities of the shards, in the order they are added.
+	 */
+	private List<String> shards;
+	private int bucketCount = DEFAULT_BUCKET_COUNT;
+	/**
+	 * namespaces this router applies to, all of them if it's empty.
+	 */
+	private Set<String> namespaces = new HashSet<String>();
+	private ICobarRouter<IBatisRoutingFact> fallbackRouter;
+
+	private String[] shardKeyArray;
+	/**
+	 * routing result of each bucket, buckets of the same shard share the same
+	 * result.
+	 */
+	private RoutingResult[] bucketTable;
+
+	public void afterPropertiesSet() throws Exception {
+		Validate.notEmpty(shardKeys, "at least one shard key must be given.");
+		Validate.notEmpty(shards, "at least one shard must be given.");
+		Validate.isTrue(bucketCount >= shards.size(), "there must be at least one bucket for each shard.");
+		Validate.isTrue(new HashSet<String>(shards).size() == shards.size(), "duplicate shards:" + shards);
+
+		RoutingResult[] shardResults = new RoutingResult[shards.size()];
+		for (int i = 0; i < shardResults.length; i++) {
+			shardResults[i] = createResult(Collections.singletonList(StringUtils.trim(shards.get(i))));
+		}
+		RoutingResult[] table = new RoutingResult[bucketCount];
+		for (int bucket = 0; bucket < bucketCount; bucket++) {
+			table[bucket] = shardResults[jumpConsistentHash(bucket, shardResults.length)];
+		}
+		this.bucketTable = table;
+		this.shardKeyArray = shardKeys.toArray(new String[shardKeys.size()]);
+	}
+
+	public RoutingResult doRoute(IBatisRoutingFact routingFact) throws RoutingException {
+		Validate.notNull(routingFact);
+		if (bucketTable == null) {
+			throw new RoutingException("the router must be initialized before routing.");
+		}
+		if (isApplicableTo(routingFact.getAction())) {
+			int bucket = bucketOf(routingFact.getArgument());
+			if (bucket >= 0) {
+				return bucketTable[bucket];
+			}
+		}
+		if (fallbackRouter != null) {
+			return fallbackRouter.doRoute(routingFact);
+		}
+		return EMPTY_RESULT;
+	}
+
+	/**
+	 * @return the bucket of the argument, -1 if any of the shard keys is
+	 *         missing.
+	 */
+	public int bucketOf(Object argument) {
+		long hash = 17;
+		for (String shardKey : shardKeyArray) {
+			Object value = ShardKeyExtractor.extract(argument, shardKey);
+			if (value == null || value == ShardKeyExtractor.UNRESOLVED) {
+				return -1;
+			}
+			hash = hash * 31 + hashOf(value);
+		}
+		long bucket = mix(hash) % bucketCount;
+		return (int) ((bucket < 0) ? bucket + bucketCount : bucket);
+	}
+
+	private boolean isApplicableTo(String action) {
+		return CollectionUtils.isEmpty(namespaces)
+				|| (action != null && namespaces.contains(StringUtils.substringBeforeLast(action, ".")));
+	}
+
+	private static long hashOf(Object value) {
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			return ((Number) value).longValue();
+		}
+		return value.hashCode();
+	}
+
+	/**
+	 * the finalizer of murmur3 for 64 bits.
+	 */
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * "A Fast, Minimal Memory, Consistent Hash Algorithm" by John Lamping and
+	 * Eric Veach.
+	 * 
+	 * @return the shard in [0, shardCount) of the key.
+	 */
+	static int jumpConsistentHash(long key, int shardCount) {
+		long b = -1;
+		long j = 0;
+		while (j < shardCount) {
+			b = j;
+			key = key * 2862933555777941757L + 1;
+			j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+		}
+		return (int) b;
+	}
+
+	private static RoutingResult createResult(List<String> identities) {
+		RoutingResult result = new RoutingResult();
+		result.setResourceIdentities(Collections.unmodifiableList(identities));
+		return result;
+	}
+
+	public String[] getShardKeys(String action) {
+		if (!isApplicableTo(action)) {
+			return shardKeysOfFallback(action);
+		}
+		if (fallbackRouter == null) {
+			return shardKeyArray;
+		}
+		// the fallback router takes over when the keys are missing.
+		String[] fallbackKeys = shardKeysOfFallback(action);
+		if (fallbackKeys == null) {
+			return null;
+		}
+		Set<String> keys = new LinkedHashSet<String>(shardKeys);
+		Collections.addAll(keys, fallbackKeys);
+		return keys.toArray(new String[keys.size()]);
+	}
+
+	private String[] shardKeysOfFallback(String action) {
+		if (fallbackRouter == null) {
+			return new String[0];
+		}
+		if (fallbackRouter instanceof IShardKeyAwareRouter) {
+			return ((IShardKeyAwareRouter) fallbackRouter).getShardKeys(action);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the shard of each bucket, for inspecting how the buckets are
+	 *         distributed.
+	 */
+	public List<String> getBucketTable() {
+		List<String> table = new ArrayList<String>(bucketTable.length);
+		for (RoutingResult result : bucketTable) {
+			table.add(result.getResourceIdentities().get(0));
+		}
+		return table;
+	}
+
+	public List<String> getShardKeys() {
+		return shardKeys;
+	}
+
+	public void setShardKeys(List<String> shardKeys) {
+		this.shardKeys = shardKeys;
+	}
+
+	public List<String> getShards() {
+		return shards;
+	}
+
+	public void setShards(List<String> shards) {
+		this.shards = shards;
+	}
+
+	public int getBucketCount() {
+		return bucketCount;
+	}
+
+	/**
+	 * the number of buckets can't be changed once there is data, since keys
+	 * would move between buckets.
+	 */
+	public void setBucketCount(int bucketCount) {
+		this.bucketCount = bucketCount;
+	}
+
+	public Set<String> getNamespaces() {
+		return namespaces;
+	}
+
+	public void setNamespaces(Set<String> namespaces) {
+		this.namespaces = namespaces;
+	}
+
+	public ICobarRouter<IBatisRoutingFact> getFallbackRouter() {
+		return fallbackRouter;
+	}
+
+	public void setFallbackRouter(ICobarRouter<IBatisRoutingFact> fallbackRouter) {
+		this.fallbackRouter = fallbackRouter;
+	}
+
+}
@@ -22,13 +22,21 @@ import org.aopalliance.intercept.MethodInvocation;
 
 import cn.yy.cobar.client.router.DefaultCobarClientInternalRouter;
 import cn.yy.cobar.client.router.ICobarRouter;
+import cn.yy.cobar.client.router.IShardKeyAwareRouter;
 import cn.yy.cobar.client.router.config.AbstractCobarClientInternalRouterFactoryBean;
 import cn.yy.cobar.client.router.config.StaticCobarClientInternalRouterFactoryBean;
-import cn.yy.cobar.client.support.LRUMap;
+import cn.yy.cobar.client.router.support.IBatisRoutingFact;
+import cn.yy.cobar.client.router.support.RoutingCacheKey;
+import cn.yy.cobar.client.support.ConcurrentLRUCache;
 
 /**
  * An advice that will provide cache service for {@link ICobarRouter} to improve
  * the routing performance if necessary.<br>
+ * only successful routing results are cached, and cache reads don't block each
+ * other.<br>
+ * if the advised router is a {@link IShardKeyAwareRouter}, the results are
+ * cached by the values of the shard keys instead of the whole routing fact.
+ * <br>
  * 
  * @author fujohnwang
  * @since 1.0
@@ -39,7 +47,7 @@ import cn.yy.cobar.client.support.LRUMap;
  */
 public class RoutingResultCacheAspect implements MethodInterceptor {
 
-	private LRUMap internalCache = new LRUMap(1000);
+	private ConcurrentLRUCache<Object, Object> internalCache = new ConcurrentLRUCache<Object, Object>(1000);
 
 	public Object invoke(MethodInvocation invocation) throws Throwable {
 		Object[] args = invocation.getArguments();
@@ -48,32 +56,33 @@ public class RoutingResultCacheAspect implements MethodInterceptor {
 					+ ", args:" + Arrays.toString(args));
 		}
 
-		synchronized (internalCache) {
-			if (internalCache.containsKey(args[0])) {
-				return internalCache.get(args[0]);
-			}
+		Object cacheKey = args[0];
+		if ((invocation.getThis() instanceof IShardKeyAwareRouter) && (cacheKey instanceof IBatisRoutingFact)) {
+			IBatisRoutingFact routingFact = (IBatisRoutingFact) cacheKey;
+			cacheKey = RoutingCacheKey.of(routingFact,
+					((IShardKeyAwareRouter) invocation.getThis()).getShardKeys(routingFact.getAction()));
 		}
 
-		Object result = null;
-		try {
-			result = invocation.proceed();
-		} finally {
-			synchronized (internalCache) {
-				internalCache.put(args[0], result);
-			}
+		Object result = internalCache.get(cacheKey);
+		if (result != null) {
+			return result;
 		}
 
+		result = invocation.proceed();
+		if (result != null) {
+			internalCache.put(cacheKey, result);
+		}
 		return result;
 	}
 
-	public void setInternalCache(LRUMap internalCache) {
+	public void setInternalCache(ConcurrentLRUCache<Object, Object> internalCache) {
 		if (internalCache == null) {
 			throw new IllegalArgumentException("Null Cache Map is not allowed.");
 		}
 		this.internalCache = internalCache;
 	}
 
-	public LRUMap getInternalCache() {
+	public ConcurrentLRUCache<Object, Object> getInternalCache() {
 		return internalCache;
 	}
 
@@ -20,27 +20,36 @@ import java.util.List;
 import java.util.Map;
 
 import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.aop.support.NameMatchMethodPointcutAdvisor;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 
 import cn.yy.cobar.client.router.DefaultCobarClientInternalRouter;
 import cn.yy.cobar.client.router.ICobarRouter;
+import cn.yy.cobar.client.router.IMergerAwareRouter;
+import cn.yy.cobar.client.router.IShardKeyAwareRouter;
 import cn.yy.cobar.client.router.aspects.RoutingResultCacheAspect;
 import cn.yy.cobar.client.router.config.support.InternalRuleLoader4DefaultInternalRouter;
+import cn.yy.cobar.client.router.config.support.MergerBindings;
 import cn.yy.cobar.client.router.config.vo.InternalRule;
 import cn.yy.cobar.client.router.support.IBatisRoutingFact;
-import cn.yy.cobar.client.support.LRUMap;
+import cn.yy.cobar.client.support.ConcurrentLRUCache;
 
 /**
  * Top super class used to configure DefaultCobarClientInternalRouter instances.
  * <br>
+ * the merger of a rule is looked up in the container by its bean name, see
+ * {@link InternalRule#getMerger()}.<br>
  * 
  * @author fujohnwang
  * @see DefaultCobarClientInternalRouter
  * @see DefaultCobarClientInternalRouterXmlFactoryBean
  * @see StaticCobarClientInternalRouterFactoryBean
  */
-public abstract class AbstractCobarClientInternalRouterFactoryBean implements FactoryBean, InitializingBean {
+public abstract class AbstractCobarClientInternalRouterFactoryBean implements FactoryBean, InitializingBean, BeanFactoryAware {
 	private ICobarRouter<IBatisRoutingFact> router;
 
 	private Map<String, Object> functionsMap = new HashMap<String, Object>();
@@ -50,6 +59,8 @@ public abstract class AbstractCobarClientInternalRouterFactoryBean implements Fa
 	private boolean enableCache;
 	private int cacheSize = -1;
 
+	private BeanFactory beanFactory;
+
 	public Object getObject() throws Exception {
 		return router;
 	}
@@ -72,14 +83,26 @@ public abstract class AbstractCobarClientInternalRouterFactoryBean implements Fa
 
 		getRuleLoader().loadRulesAndEquipRouter(rules, routerToUse, getFunctionsMap());
 
+		MergerBindings mergerBindings = new MergerBindings();
+		if (rules != null) {
+			for (InternalRule rule : rules) {
+				mergerBindings.bind(rule);
+			}
+		}
+		routerToUse.setMergers(mergerBindings.resolve(beanFactory));
+
 		if (isEnableCache()) {
 			ProxyFactory proxyFactory = new ProxyFactory(routerToUse);
-			proxyFactory.setInterfaces(new Class[] { ICobarRouter.class });
+			proxyFactory.setInterfaces(new Class[] { ICobarRouter.class, IShardKeyAwareRouter.class, IMergerAwareRouter.class });
 			RoutingResultCacheAspect advice = new RoutingResultCacheAspect();
 			if (cacheSize > 0) {
-				advice.setInternalCache(new LRUMap(cacheSize));
+				advice.setInternalCache(new ConcurrentLRUCache<Object, Object>(cacheSize));
 			}
-			proxyFactory.addAdvice(advice);
+			// only doRoute is cached, the shard key and merger lookups take
+			// the same sql action argument and must not share its entries.
+			NameMatchMethodPointcutAdvisor advisor = new NameMatchMethodPointcutAdvisor(advice);
+			advisor.setMappedName("doRoute");
+			proxyFactory.addAdvisor(advisor);
 			this.router = (ICobarRouter<IBatisRoutingFact>) proxyFactory.getProxy();
 		} else {
 			this.router = routerToUse;
@@ -88,6 +111,10 @@ public abstract class AbstractCobarClientInternalRouterFactoryBean implements Fa
 
 	protected abstract List<InternalRule> loadRulesFromExternal() throws Exception;
 
+	public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+		this.beanFactory = beanFactory;
+	}
+
 	public ICobarRouter<IBatisRoutingFact> getRouter() {
 		return router;
 	}
@@ -23,16 +23,22 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
 import org.springframework.beans.factory.FactoryBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.core.io.Resource;
 import org.springframework.util.ObjectUtils;
 
 import cn.yy.cobar.client.router.CobarClientInternalRouter;
+import cn.yy.cobar.client.router.config.support.MergerBindings;
+import cn.yy.cobar.client.router.config.vo.InternalRule;
 import cn.yy.cobar.client.router.rules.IRoutingRule;
 import cn.yy.cobar.client.router.support.IBatisRoutingFact;
 
-public abstract class AbstractCobarInternalRouterConfigurationFactoryBean implements FactoryBean, InitializingBean {
+public abstract class AbstractCobarInternalRouterConfigurationFactoryBean
+		implements FactoryBean, InitializingBean, BeanFactoryAware {
 	private CobarClientInternalRouter router;
 
 	private boolean enableCache;
@@ -43,6 +49,10 @@ public abstract class AbstractCobarInternalRouterConfigurationFactoryBean implem
 
 	private Map<String, Object> functionsMap = new HashMap<String, Object>();
 
+	private BeanFactory beanFactory;
+
+	private MergerBindings mergerBindings;
+
 	public Object getObject() throws Exception {
 		return this.router;
 	}
@@ -63,6 +73,7 @@ public abstract class AbstractCobarInternalRouterConfigurationFactoryBean implem
 			}
 		}
 		this.router = new CobarClientInternalRouter(enableCache, cacheSize);
+		this.mergerBindings = new MergerBindings();
 
 		final Set<IRoutingRule<IBatisRoutingFact, List<String>>> sqlActionShardingRules = new HashSet<IRoutingRule<IBatisRoutingFact, List<String>>>();
 		final Set<IRoutingRule<IBatisRoutingFact, List<String>>> sqlActionRules = new HashSet<IRoutingRule<IBatisRoutingFact, List<String>>>();
@@ -93,6 +104,16 @@ public abstract class AbstractCobarInternalRouterConfigurationFactoryBean implem
 		};
 
 		router.setRuleSequences(ruleSequences);
+		router.setMergers(mergerBindings.resolve(beanFactory));
+		this.mergerBindings = null;
+	}
+
+	/**
+	 * subclasses call this for each of the rules they read, so that the merger
+	 * named by the rule is bound to its sql action or namespace.
+	 */
+	protected void bindMerger(InternalRule rule) {
+		mergerBindings.bind(rule);
 	}
 
 	/**
@@ -154,4 +175,8 @@ public abstract class AbstractCobarInternalRouterConfigurationFactoryBean implem
 		return functionsMap;
 	}
 
+	public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+		this.beanFactory = beanFactory;
+	}
+
 }
@@ -29,6 +29,7 @@ import cn.yy.cobar.client.router.CobarClientInternalRouter;
 import cn.yy.cobar.client.router.config.vo.InternalRule;
 import cn.yy.cobar.client.router.config.vo.InternalRules;
 import cn.yy.cobar.client.router.rules.IRoutingRule;
+import cn.yy.cobar.client.router.rules.ibatis.AbstractIBatisShardingFunctionRule;
 import cn.yy.cobar.client.router.rules.ibatis.IBatisNamespaceRule;
 import cn.yy.cobar.client.router.rules.ibatis.IBatisNamespaceShardingRule;
 import cn.yy.cobar.client.router.rules.ibatis.IBatisSqlActionRule;
@@ -61,10 +62,16 @@ public class CobarInteralRouterXmlFactoryBean extends AbstractCobarInternalRoute
 			String namespace = StringUtils.trimToEmpty(rule.getNamespace());
 			String sqlAction = StringUtils.trimToEmpty(rule.getSqlmap());
 			String shardingExpression = StringUtils.trimToEmpty(rule.getShardingExpression());
+			String shardingFunction = StringUtils.trimToEmpty(rule.getShardingFunction());
 			String destinations = StringUtils.trimToEmpty(rule.getShards());
 
 			Validate.notEmpty(destinations, "destination shards must be given explicitly.");
 
+			if (StringUtils.isNotEmpty(shardingExpression) && StringUtils.isNotEmpty(shardingFunction)) {
+				throw new IllegalArgumentException(
+						"'shardingExpression' and 'shardingFunction' are alternatives, can't guess which one to use if both of them are provided.");
+			}
+
 			if (StringUtils.isEmpty(namespace) && StringUtils.isEmpty(sqlAction)) {
 				throw new IllegalArgumentException("at least one of 'namespace' or 'sqlAction' must be given.");
 			}
@@ -73,8 +80,13 @@ public class CobarInteralRouterXmlFactoryBean extends AbstractCobarInternalRoute
 						"'namespace' and 'sqlAction' are alternatives, can't guess which one to use if both of them are provided.");
 			}
 
+			bindMerger(rule);
+
 			if (StringUtils.isNotEmpty(namespace)) {
-				if (StringUtils.isEmpty(shardingExpression)) {
+				if (StringUtils.isNotEmpty(shardingFunction)) {
+					namespaceShardingRules.add(AbstractIBatisShardingFunctionRule.create(shardingFunction, namespace, destinations,
+							rule.getShardingKey(), rule.getShardingArguments(), true));
+				} else if (StringUtils.isEmpty(shardingExpression)) {
 					namespaceRules.add(new IBatisNamespaceRule(namespace, destinations));
 				} else {
 					IBatisNamespaceShardingRule insr = new IBatisNamespaceShardingRule(namespace, destinations,
@@ -86,7 +98,10 @@ public class CobarInteralRouterXmlFactoryBean extends AbstractCobarInternalRoute
 				}
 			}
 			if (StringUtils.isNotEmpty(sqlAction)) {
-				if (StringUtils.isEmpty(shardingExpression)) {
+				if (StringUtils.isNotEmpty(shardingFunction)) {
+					sqlActionShardingRules.add(AbstractIBatisShardingFunctionRule.create(shardingFunction, sqlAction, destinations,
+							rule.getShardingKey(), rule.getShardingArguments(), false));
+				} else if (StringUtils.isEmpty(shardingExpression)) {
 					sqlActionRules.add(new IBatisSqlActionRule(sqlAction, destinations));
 				} else {
 					IBatisSqlActionShardingRule issr = new IBatisSqlActionShardingRule(sqlAction, destinations,
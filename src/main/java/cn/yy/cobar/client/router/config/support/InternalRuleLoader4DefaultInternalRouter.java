@@ -27,6 +27,7 @@ import org.apache.commons.lang.Validate;
 import cn.yy.cobar.client.router.DefaultCobarClientInternalRouter;
 import cn.yy.cobar.client.router.config.vo.InternalRule;
 import cn.yy.cobar.client.router.rules.IRoutingRule;
+import cn.yy.cobar.client.router.rules.ibatis.AbstractIBatisShardingFunctionRule;
 import cn.yy.cobar.client.router.rules.ibatis.IBatisNamespaceRule;
 import cn.yy.cobar.client.router.rules.ibatis.IBatisNamespaceShardingRule;
 import cn.yy.cobar.client.router.rules.ibatis.IBatisSqlActionRule;
@@ -47,10 +48,16 @@ public class InternalRuleLoader4DefaultInternalRouter {
 			String namespace = StringUtils.trimToEmpty(rule.getNamespace());
 			String sqlAction = StringUtils.trimToEmpty(rule.getSqlmap());
 			String shardingExpression = StringUtils.trimToEmpty(rule.getShardingExpression());
+			String shardingFunction = StringUtils.trimToEmpty(rule.getShardingFunction());
 			String destinations = StringUtils.trimToEmpty(rule.getShards());
 
 			Validate.notEmpty(destinations, "destination shards must be given explicitly.");
 
+			if (StringUtils.isNotEmpty(shardingExpression) && StringUtils.isNotEmpty(shardingFunction)) {
+				throw new IllegalArgumentException(
+						"'shardingExpression' and 'shardingFunction' are alternatives, can't guess which one to use if both of them are provided.");
+			}
+
 			if (StringUtils.isEmpty(namespace) && StringUtils.isEmpty(sqlAction)) {
 				throw new IllegalArgumentException("at least one of 'namespace' or 'sqlAction' must be given.");
 			}
@@ -63,8 +70,10 @@ public class InternalRuleLoader4DefaultInternalRouter {
 				List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequence = setUpRuleSequenceContainerIfNecessary(
 						router, namespace);
 
-				if (StringUtils.isEmpty(shardingExpression)) {
-
+				if (StringUtils.isNotEmpty(shardingFunction)) {
+					ruleSequence.get(2).add(AbstractIBatisShardingFunctionRule.create(shardingFunction, namespace,
+							destinations, rule.getShardingKey(), rule.getShardingArguments(), true));
+				} else if (StringUtils.isEmpty(shardingExpression)) {
 					ruleSequence.get(3).add(new IBatisNamespaceRule(namespace, destinations));
 				} else {
 					IBatisNamespaceShardingRule insr = new IBatisNamespaceShardingRule(namespace, destinations,
@@ -79,7 +88,10 @@ public class InternalRuleLoader4DefaultInternalRouter {
 				List<Set<IRoutingRule<IBatisRoutingFact, List<String>>>> ruleSequence = setUpRuleSequenceContainerIfNecessary(
 						router, StringUtils.substringBeforeLast(sqlAction, "."));
 
-				if (StringUtils.isEmpty(shardingExpression)) {
+				if (StringUtils.isNotEmpty(shardingFunction)) {
+					ruleSequence.get(0).add(AbstractIBatisShardingFunctionRule.create(shardingFunction, sqlAction,
+							destinations, rule.getShardingKey(), rule.getShardingArguments(), false));
+				} else if (StringUtils.isEmpty(shardingExpression)) {
 					ruleSequence.get(1).add(new IBatisSqlActionRule(sqlAction, destinations));
 				} else {
 					IBatisSqlActionShardingRule issr = new IBatisSqlActionShardingRule(sqlAction, destinations,
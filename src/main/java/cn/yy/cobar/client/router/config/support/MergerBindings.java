@@ -0,0 +1,75 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router.config.support;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.BeanFactory;
+
+import cn.yy.cobar.client.merger.IMerger;
+import cn.yy.cobar.client.router.IMergerAwareRouter;
+import cn.yy.cobar.client.router.config.vo.InternalRule;
+
+/**
+ * collects the merger bean names of the rule definitions by the sql action or
+ * the namespace they are bound to, and resolves them against the container
+ * once all of the rules are read.<br>
+ * 
+ * @see IMergerAwareRouter
+ */
+public class MergerBindings {
+
+	private final Map<String, String> mergerNames = new HashMap<String, String>();
+
+	public void bind(InternalRule rule) {
+		String merger = StringUtils.trimToEmpty(rule.getMerger());
+		if (StringUtils.isEmpty(merger)) {
+			return;
+		}
+		String sqlAction = StringUtils.trimToEmpty(rule.getSqlmap());
+		bind(StringUtils.isEmpty(sqlAction) ? StringUtils.trimToEmpty(rule.getNamespace()) : sqlAction, merger);
+	}
+
+	public void bind(String actionOrNamespace, String merger) {
+		String bound = mergerNames.put(actionOrNamespace, merger);
+		if (bound != null && !bound.equals(merger)) {
+			throw new IllegalArgumentException("both merger '" + bound + "' and merger '" + merger
+					+ "' are bound to '" + actionOrNamespace + "', can't guess which one to use.");
+		}
+	}
+
+	public boolean isEmpty() {
+		return mergerNames.isEmpty();
+	}
+
+	@SuppressWarnings("unchecked")
+	public Map<String, IMerger<Object, Object>> resolve(BeanFactory beanFactory) {
+		Map<String, IMerger<Object, Object>> mergers = new HashMap<String, IMerger<Object, Object>>();
+		if (mergerNames.isEmpty()) {
+			return mergers;
+		}
+		if (beanFactory == null) {
+			throw new IllegalStateException("mergers " + mergerNames.values()
+					+ " are given by bean names, but there is no container to look them up in.");
+		}
+		for (Map.Entry<String, String> binding : mergerNames.entrySet()) {
+			mergers.put(binding.getKey(), beanFactory.getBean(binding.getValue(), IMerger.class));
+		}
+		return mergers;
+	}
+}
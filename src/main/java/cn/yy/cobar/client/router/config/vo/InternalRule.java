@@ -20,10 +20,25 @@ public class InternalRule {
 	private String namespace;
 	private String sqlmap;
 	private String shardingExpression;
+	/**
+	 * name of a built-in sharding function, "modulo", "range" or "hash", it's
+	 * an alternative to {@link #shardingExpression}.
+	 */
+	private String shardingFunction;
+	/**
+	 * the attribute of the argument the sharding function is applied to.
+	 */
+	private String shardingKey;
+	/**
+	 * arguments of the sharding function, like the bounds of a range table.
+	 */
+	private String shardingArguments;
 	private String shards;
 	/**
-	 * this field is not used for now, because it's still in leverage whether
-	 * it's proper to bind merging information into a routing concern.
+	 * bean name of the merger which merges the results of the sql actions this
+	 * rule routes to several shards, like the aggregate mergers for count or
+	 * sum queries. the merger is bound to the sqlmap or namespace of the rule,
+	 * whatever its sharding expression is.
 	 */
 	private String merger;
 
@@ -51,6 +66,30 @@ public class InternalRule {
 		this.shardingExpression = shardingExpression;
 	}
 
+	public String getShardingFunction() {
+		return shardingFunction;
+	}
+
+	public void setShardingFunction(String shardingFunction) {
+		this.shardingFunction = shardingFunction;
+	}
+
+	public String getShardingKey() {
+		return shardingKey;
+	}
+
+	public void setShardingKey(String shardingKey) {
+		this.shardingKey = shardingKey;
+	}
+
+	public String getShardingArguments() {
+		return shardingArguments;
+	}
+
+	public void setShardingArguments(String shardingArguments) {
+		this.shardingArguments = shardingArguments;
+	}
+
 	public String getShards() {
 		return shards;
 	}
@@ -82,6 +121,9 @@ public class InternalRule {
 		int result = 1;
 		result = prime * result + ((namespace == null) ? 0 : namespace.hashCode());
 		result = prime * result + ((shardingExpression == null) ? 0 : shardingExpression.hashCode());
+		result = prime * result + ((shardingFunction == null) ? 0 : shardingFunction.hashCode());
+		result = prime * result + ((shardingKey == null) ? 0 : shardingKey.hashCode());
+		result = prime * result + ((shardingArguments == null) ? 0 : shardingArguments.hashCode());
 		result = prime * result + ((shards == null) ? 0 : shards.hashCode());
 		result = prime * result + ((sqlmap == null) ? 0 : sqlmap.hashCode());
 		return result;
@@ -106,6 +148,21 @@ public class InternalRule {
 				return false;
 		} else if (!shardingExpression.equals(other.shardingExpression))
 			return false;
+		if (shardingFunction == null) {
+			if (other.shardingFunction != null)
+				return false;
+		} else if (!shardingFunction.equals(other.shardingFunction))
+			return false;
+		if (shardingKey == null) {
+			if (other.shardingKey != null)
+				return false;
+		} else if (!shardingKey.equals(other.shardingKey))
+			return false;
+		if (shardingArguments == null) {
+			if (other.shardingArguments != null)
+				return false;
+		} else if (!shardingArguments.equals(other.shardingArguments))
+			return false;
 		if (shards == null) {
 			if (other.shards != null)
 				return false;
@@ -121,7 +178,8 @@ public class InternalRule {
 
 	@Override
 	public String toString() {
-		return "InternalRule [namespace=" + namespace + ", shardingExpression=" + shardingExpression + ", shards="
-				+ shards + ", sqlmap=" + sqlmap + "]";
+		return "InternalRule [namespace=" + namespace + ", shardingExpression=" + shardingExpression
+				+ ", shardingFunction=" + shardingFunction + ", shardingKey=" + shardingKey + ", shardingArguments="
+				+ shardingArguments + ", shards=" + shards + ", sqlmap=" + sqlmap + "]";
 	}
 }
@@ -0,0 +1,206 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router.rules;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * reads shard key values, like "userId" or "user.id", out of the argument of a
+ * sql action.<br>
+ * for each (argument class, attribute) pair, the getter or public field is
+ * looked up only once and turned into a {@link MethodHandle}, which is cached
+ * per class, so later reads cost about the same as a direct getter call instead
+ * of a reflective property resolution. {@link Map} arguments are read with
+ * {@link Map#get(Object)}.<br>
+ * "$ROOT" stands for the argument itself.<br>
+ * 
+ * @see AbstractEntityAttributeRule
+ */
+public final class ShardKeyExtractor {
+
+	public static final String ROOT = "$ROOT";
+
+	/**
+	 * returned when the attribute can't be read from the argument, for example,
+	 * a map without the key, or a bean without the property.
+	 */
+	public static final Object UNRESOLVED = new Object() {
+		@Override
+		public String toString() {
+			return "UNRESOLVED";
+		}
+	};
+
+	private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	private static final ClassValue<ConcurrentMap<String, Accessor>> ACCESSORS = new ClassValue<ConcurrentMap<String, Accessor>>() {
+		@Override
+		protected ConcurrentMap<String, Accessor> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, Accessor>(4);
+		}
+	};
+
+	private ShardKeyExtractor() {
+	}
+
+	/**
+	 * @param argument,
+	 *            the argument of the sql action
+	 * @param attributePath,
+	 *            attribute names separated by "."
+	 * @return the value, or {@link #UNRESOLVED} if any attribute on the path
+	 *         can't be read.
+	 */
+	public static Object extract(Object argument, String attributePath) {
+		if (ROOT.equals(attributePath)) {
+			return argument;
+		}
+		if (attributePath.indexOf('.') < 0) {
+			return read(argument, attributePath);
+		}
+		Object value = argument;
+		for (String attribute : StringUtils.split(attributePath, '.')) {
+			if (value == null) {
+				return null;
+			}
+			value = read(value, attribute);
+			if (value == UNRESOLVED) {
+				return UNRESOLVED;
+			}
+		}
+		return value;
+	}
+
+	private static Object read(Object target, String attribute) {
+		if (target == null) {
+			return UNRESOLVED;
+		}
+		ConcurrentMap<String, Accessor> accessors = ACCESSORS.get(target.getClass());
+		Accessor accessor = accessors.get(attribute);
+		if (accessor == null) {
+			accessor = createAccessor(target.getClass(), attribute);
+			accessors.putIfAbsent(attribute, accessor);
+		}
+		try {
+			return accessor.read(target);
+		} catch (Throwable t) {
+			return UNRESOLVED;
+		}
+	}
+
+	private static Accessor createAccessor(Class<?> type, String attribute) {
+		if (Map.class.isAssignableFrom(type)) {
+			return new MapAccessor(attribute);
+		}
+		MethodHandle handle = null;
+		try {
+			handle = findGetter(type, attribute);
+			if (handle == null) {
+				handle = findPublicField(type, attribute);
+			}
+		} catch (IntrospectionException e) {
+			// take it as unresolved
+		} catch (IllegalAccessException e) {
+			// take it as unresolved
+		} catch (RuntimeException e) {
+			// the member may not be accessible, take it as unresolved
+		}
+		return (handle == null) ? UnresolvedAccessor.INSTANCE : new MethodHandleAccessor(handle);
+	}
+
+	private static MethodHandle findGetter(Class<?> type, String attribute)
+			throws IntrospectionException, IllegalAccessException {
+		BeanInfo beanInfo = Introspector.getBeanInfo(type);
+		for (PropertyDescriptor descriptor : beanInfo.getPropertyDescriptors()) {
+			Method getter = descriptor.getReadMethod();
+			if (getter != null && attribute.equals(descriptor.getName())) {
+				if (!Modifier.isPublic(getter.getDeclaringClass().getModifiers())) {
+					getter.setAccessible(true);
+				}
+				return MethodHandles.lookup().unreflect(getter).asType(ACCESSOR_TYPE);
+			}
+		}
+		return null;
+	}
+
+	private static MethodHandle findPublicField(Class<?> type, String attribute) throws IllegalAccessException {
+		for (Field field : type.getFields()) {
+			if (attribute.equals(field.getName()) && !Modifier.isStatic(field.getModifiers())) {
+				if (!Modifier.isPublic(field.getDeclaringClass().getModifiers())) {
+					field.setAccessible(true);
+				}
+				return MethodHandles.lookup().unreflectGetter(field).asType(ACCESSOR_TYPE);
+			}
+		}
+		return null;
+	}
+
+	private interface Accessor {
+		Object read(Object target) throws Throwable;
+	}
+
+	private static final class MethodHandleAccessor implements Accessor {
+		private final MethodHandle handle;
+
+		MethodHandleAccessor(MethodHandle handle) {
+			this.handle = handle;
+		}
+
+		public Object read(Object target) throws Throwable {
+			return (Object) handle.invokeExact(target);
+		}
+	}
+
+	private static final class MapAccessor implements Accessor {
+		private final String key;
+
+		MapAccessor(String key) {
+			this.key = key;
+		}
+
+		@SuppressWarnings("rawtypes")
+		public Object read(Object target) {
+			Map map = (Map) target;
+			Object value = map.get(key);
+			if (value == null && !map.containsKey(key)) {
+				return UNRESOLVED;
+			}
+			return value;
+		}
+	}
+
+	private static final class UnresolvedAccessor implements Accessor {
+		static final UnresolvedAccessor INSTANCE = new UnresolvedAccessor();
+
+		public Object read(Object target) {
+			return UNRESOLVED;
+		}
+	}
+}
@@ -15,22 +15,56 @@
  */
 package cn.yy.cobar.client.router.rules.ibatis;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
+import org.mvel2.MVEL;
+import org.mvel2.ParserContext;
+import org.mvel2.ast.ASTNode;
+import org.mvel2.ast.BooleanNode;
+import org.mvel2.ast.Contains;
+import org.mvel2.ast.LiteralNode;
+import org.mvel2.ast.Negation;
+import org.mvel2.ast.OperatorNode;
+import org.mvel2.ast.RegExMatch;
+import org.mvel2.ast.Sign;
+import org.mvel2.ast.Substatement;
+import org.mvel2.compiler.CompiledExpression;
+import org.mvel2.compiler.ExecutableAccessor;
+import org.mvel2.compiler.ExecutableLiteral;
+import org.mvel2.compiler.ExecutableStatement;
+import org.mvel2.compiler.ExpressionCompiler;
+import org.mvel2.integration.VariableResolverFactory;
+import org.mvel2.integration.impl.MapVariableResolverFactory;
+import org.mvel2.optimizers.AccessorOptimizer;
+import org.mvel2.optimizers.OptimizerFactory;
+import org.mvel2.util.ParseTools;
 
 import cn.yy.cobar.client.router.rules.AbstractEntityAttributeRule;
 import cn.yy.cobar.client.router.rules.IRoutingRule;
+import cn.yy.cobar.client.router.rules.ShardKeyExtractor;
 import cn.yy.cobar.client.router.support.IBatisRoutingFact;
 import cn.yy.cobar.client.support.utils.CollectionUtils;
 
 /**
  * super class for all of the {@link IRoutingRule} implementations that is
- * oriented to be used to do routing with iBatis sqlmap.
+ * oriented to be used to do routing with iBatis sqlmap.<br>
+ * the attribute pattern(sharding expression) is compiled only once when it's
+ * set, and the function map is wrapped by a shared resolver factory, so that
+ * evaluating the expression against a routing fact doesn't need to parse the
+ * expression or copy the function map again.<br>
+ * the attributes of the argument that the expression reads are figured out
+ * when the expression is compiled, see {@link #getShardKeys()}, and are read
+ * with {@link ShardKeyExtractor} before the expression is evaluated, so that
+ * the expression doesn't have to resolve them on the argument by itself.<br>
  * 
  * @author fujohnwang
  * @since 1.0
@@ -38,8 +72,53 @@ import cn.yy.cobar.client.support.utils.CollectionUtils;
 public abstract class AbstractIBatisOrientedRule extends AbstractEntityAttributeRule<IBatisRoutingFact, List<String>> {
 	public static final String DEFAULT_DATASOURCE_IDENTITY_SEPARATOR = ",";
 
+	/**
+	 * once a compiled expression gets hot, the default dynamic optimizer of
+	 * mvel2 switches to its ASM accessor JIT whose byte code is rejected by the
+	 * verifier of newer JVMs, so the attribute pattern is evaluated with the
+	 * reflective optimizer. it's installed for the evaluating thread only and
+	 * the thread's previous optimizer is restored afterwards, leaving the
+	 * optimizers of other mvel2 users alone.
+	 */
+	private static final Class<? extends AccessorOptimizer> ACCESSOR_OPTIMIZER = OptimizerFactory
+			.getAccessorCompiler(OptimizerFactory.SAFE_REFLECTIVE).getClass();
+
 	private Map<String, Object> functionMap = new HashMap<String, Object>();
 
+	/**
+	 * compiled form of {@link #getAttributePattern()}, null if the rule has no
+	 * attribute pattern.
+	 */
+	private Serializable compiledAttributePattern;
+
+	/**
+	 * syntax tree of {@link #getAttributePattern()} the shard keys are derived
+	 * from, null if the rule has no attribute pattern or it can't be compiled
+	 * for analysis.
+	 */
+	private CompiledExpression analyzedAttributePattern;
+
+	/**
+	 * input variables of the attribute pattern, null if the pattern can't be
+	 * analyzed.
+	 */
+	private Set<String> attributePatternInputs = Collections.emptySet();
+
+	private List<String> shardKeys = Collections.emptyList();
+	private boolean shardKeysDeclared = false;
+
+	/**
+	 * attributes of the argument which are extracted into variables before
+	 * evaluating the attribute pattern.
+	 */
+	private String[] extractedAttributes = new String[0];
+
+	/**
+	 * read-only resolver factory over {@link #functionMap}, it's shared by all
+	 * of the evaluations and chained after the per-evaluation variables.
+	 */
+	private VariableResolverFactory functionResolverFactory = createFunctionResolverFactory(functionMap);
+
 	private String actionPatternSeparator = DEFAULT_DATASOURCE_IDENTITY_SEPARATOR;
 
 	private List<String> dataSourceIds = new ArrayList<String>();
@@ -50,6 +129,276 @@ public abstract class AbstractIBatisOrientedRule extends AbstractEntityAttribute
 
 	public AbstractIBatisOrientedRule(String pattern, String action, String attributePattern) {
 		super(pattern, action, attributePattern);
+		compileAttributePattern(attributePattern);
+	}
+
+	@Override
+	public void setAttributePattern(String attributePattern) {
+		super.setAttributePattern(attributePattern);
+		compileAttributePattern(attributePattern);
+	}
+
+	private void compileAttributePattern(String attributePattern) {
+		this.compiledAttributePattern = MVEL.compileExpression(attributePattern);
+		try {
+			this.analyzedAttributePattern = compile(attributePattern);
+		} catch (Throwable t) {
+			this.analyzedAttributePattern = null;
+		}
+		try {
+			ParserContext context = new ParserContext();
+			MVEL.analysisCompile(attributePattern, context);
+			Set<String> inputs = new LinkedHashSet<String>();
+			for (String input : context.getInputs().keySet()) {
+				if (isIdentifier(input)) {
+					inputs.add(input);
+				}
+			}
+			this.attributePatternInputs = inputs;
+		} catch (Throwable t) {
+			this.attributePatternInputs = null;
+		}
+		this.shardKeys = deriveShardKeys();
+		this.extractedAttributes = deriveExtractedAttributes();
+	}
+
+	private static boolean isIdentifier(String name) {
+		if (StringUtils.isEmpty(name) || !Character.isJavaIdentifierStart(name.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < name.length(); i++) {
+			if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private List<String> deriveShardKeys() {
+		if (shardKeysDeclared) {
+			return shardKeys;
+		}
+		if (analyzedAttributePattern == null) {
+			return (getAttributePattern() == null) ? Collections.<String> emptyList() : null;
+		}
+		Set<String> keys = new LinkedHashSet<String>();
+		if (!collectPropertyPaths(analyzedAttributePattern, keys)) {
+			return null;
+		}
+		return Collections.unmodifiableList(new ArrayList<String>(keys));
+	}
+
+	/**
+	 * the shard keys are the property paths the compiled expression reads,
+	 * they are figured out from its syntax tree, which only reads the
+	 * properties of the argument if it consists of literals, operators,
+	 * property paths like "userId" or "user.id", and calls of the functions of
+	 * {@link #functionMap} with such arguments. anything else, such as method
+	 * calls on the argument, "this", indexes, assignments, declarations or
+	 * multiple statements, can't be taken apart, so no shard keys are derived.<br>
+	 * 
+	 * @return false if the statement reads anything but property paths.
+	 */
+	private boolean collectPropertyPaths(ExecutableStatement statement, Set<String> paths) {
+		if (statement instanceof ExecutableLiteral) {
+			return true;
+		}
+		if (statement instanceof ExecutableAccessor) {
+			return collectPropertyPaths(((ExecutableAccessor) statement).getNode(), paths);
+		}
+		if (!(statement instanceof CompiledExpression)) {
+			return false;
+		}
+		for (ASTNode node = ((CompiledExpression) statement).getFirstNode(); node != null; node = node.nextASTNode) {
+			if (!collectPropertyPaths(node, paths)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean collectPropertyPaths(ASTNode node, Set<String> paths) {
+		if (node instanceof LiteralNode || node instanceof OperatorNode) {
+			return true;
+		}
+		if (node instanceof BooleanNode) {
+			// binary operations and logical ands and ors.
+			return collectPropertyPaths(((BooleanNode) node).getLeft(), paths)
+					&& collectPropertyPaths(((BooleanNode) node).getRight(), paths);
+		}
+		if (node instanceof Substatement) {
+			return collectPropertyPaths(((Substatement) node).getStatement(), paths);
+		}
+		if (node instanceof Negation) {
+			return collectPropertyPaths(((Negation) node).getStatement(), paths);
+		}
+		if (node instanceof Sign) {
+			return collectPropertyPaths(((Sign) node).getStatement(), paths);
+		}
+		if (node instanceof Contains) {
+			return collectPropertyPaths(((Contains) node).getFirstStatement(), paths)
+					&& collectPropertyPaths(((Contains) node).getSecondStatement(), paths);
+		}
+		if (node instanceof RegExMatch) {
+			// the pattern statement is null if the pattern is a literal.
+			RegExMatch match = (RegExMatch) node;
+			return collectPropertyPaths(match.getStatement(), paths)
+					&& (match.getPatternStatement() == null || collectPropertyPaths(match.getPatternStatement(), paths));
+		}
+		if (node == null || node.getClass() != ASTNode.class || !node.isIdentifier()) {
+			return false;
+		}
+		String name = node.getName();
+		if (isPropertyPath(name)) {
+			String root = node.getAbsoluteName();
+			if ("this".equals(root)) {
+				return false;
+			}
+			if (!functionMap.containsKey(root)) {
+				paths.add(ShardKeyExtractor.ROOT.equals(root) && name.length() > root.length()
+						? name.substring(root.length() + 1) : name);
+			}
+			return true;
+		}
+		return collectFunctionArgumentPaths(name, paths);
+	}
+
+	/**
+	 * a call of a function, like "mod.apply(id)", is kept as one node by
+	 * mvel2, its arguments are compiled and analyzed one by one.
+	 */
+	private boolean collectFunctionArgumentPaths(String call, Set<String> paths) {
+		char[] chars = call.toCharArray();
+		int open = call.indexOf('(');
+		if (open < 0 || !isPropertyPath(call.substring(0, open).trim())
+				|| !functionMap.containsKey(StringUtils.substringBefore(call, "."))
+				|| ParseTools.balancedCapture(chars, open, '(') != chars.length - 1) {
+			return false;
+		}
+		for (char[] argument : ParseTools.parseParameterList(chars, open + 1, chars.length - open - 2)) {
+			if (!collectPropertyPaths(compile(new String(argument)), paths)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isPropertyPath(String name) {
+		for (String part : StringUtils.splitPreserveAllTokens(name, '.')) {
+			if (!isIdentifier(part)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static CompiledExpression compile(String expression) {
+		return new ExpressionCompiler(expression, new ParserContext()).compile();
+	}
+
+	private String[] deriveExtractedAttributes() {
+		if (attributePatternInputs == null) {
+			return new String[0];
+		}
+		List<String> attributes = new ArrayList<String>(attributePatternInputs.size());
+		for (String input : attributePatternInputs) {
+			if (!functionMap.containsKey(input) && !ShardKeyExtractor.ROOT.equals(input)) {
+				attributes.add(input);
+			}
+		}
+		return attributes.toArray(new String[attributes.size()]);
+	}
+
+	/**
+	 * the attributes of the routing fact's argument this rule reads to decide
+	 * whether it matches, nested ones as paths like "user.id", "$ROOT" stands
+	 * for the argument itself.<br>
+	 * the routing result of a sql action only depends on these attributes of
+	 * the argument, so routers can cache routing results by their values
+	 * instead of the whole argument.<br>
+	 * 
+	 * @return an empty list if the rule doesn't look into the argument, null if
+	 *         it can't be figured out, say, the attribute pattern calls methods
+	 *         of the argument or declares variables, in which case the shard
+	 *         keys should be declared with {@link #setShardKeys(List)}.
+	 */
+	public List<String> getShardKeys() {
+		return shardKeys;
+	}
+
+	/**
+	 * declare the shard keys explicitly in case the ones derived from the
+	 * attribute pattern are not precise enough.
+	 */
+	public void setShardKeys(List<String> shardKeys) {
+		Validate.notNull(shardKeys);
+		this.shardKeys = Collections.unmodifiableList(new ArrayList<String>(shardKeys));
+		this.shardKeysDeclared = true;
+	}
+
+	/**
+	 * evaluate the compiled attribute pattern against the argument of the
+	 * routing fact, the argument is the context object of the expression and
+	 * can be referenced as "$ROOT" too.<br>
+	 * the attributes the expression reads are extracted up front and bound as
+	 * variables, which take precedence over the properties of the context
+	 * object, the ones that can't be extracted are left to the expression.
+	 * 
+	 * @param routingFact
+	 * @return true if the expression evaluates to true.
+	 */
+	protected boolean evaluateAttributePattern(IBatisRoutingFact routingFact) {
+		Object argument = routingFact.getArgument();
+		String[] attributes = extractedAttributes;
+		Map<String, Object> vrs = new HashMap<String, Object>((attributes.length + 1) * 2);
+		vrs.put(ShardKeyExtractor.ROOT, argument); // add top object reference
+													// for expression
+		for (String attribute : attributes) {
+			Object value = ShardKeyExtractor.extract(argument, attribute);
+			if (value != ShardKeyExtractor.UNRESOLVED) {
+				vrs.put(attribute, value);
+			}
+		}
+		VariableResolverFactory vrfactory = new MapVariableResolverFactory(vrs, functionResolverFactory);
+		// the optimizer a caller installed for this thread is put back
+		// afterwards, only a thread without one is cleared.
+		Class<? extends AccessorOptimizer> previousOptimizer = OptimizerFactory
+				.isThreadAccessorOptimizerInitialized() ? OptimizerFactory.getThreadAccessorOptimizer().getClass()
+				: null;
+		OptimizerFactory.setThreadAccessorOptimizer(ACCESSOR_OPTIMIZER);
+		try {
+			return Boolean.TRUE
+					.equals(MVEL.executeExpression(compiledAttributePattern, argument, vrfactory, Boolean.class));
+		} finally {
+			if (previousOptimizer == null) {
+				OptimizerFactory.clearThreadAccessorOptimizer();
+			} else {
+				OptimizerFactory.setThreadAccessorOptimizer(previousOptimizer);
+			}
+		}
+	}
+
+	private static VariableResolverFactory createFunctionResolverFactory(Map<String, Object> functionMap) {
+		MapVariableResolverFactory factory = new MapVariableResolverFactory(
+				new HashMap<String, Object>(functionMap));
+		// MapVariableResolverFactory caches resolvers lazily, warm them up here
+		// so that concurrent evaluations only read from the factory.
+		for (String name : functionMap.keySet()) {
+			factory.getVariableResolver(name);
+		}
+		return factory;
+	}
+
+	/**
+	 * routers index rules by the key they match on, so that only the rules
+	 * that may match a sql action will be evaluated.<br>
+	 * 
+	 * @return true if {@link #getTypePattern()} is matched against the
+	 *         namespace part of the sql action id, false if it's matched
+	 *         against the whole sql action id.
+	 */
+	public boolean isNamespaceOriented() {
+		return false;
 	}
 
 	public synchronized List<String> action() {
@@ -63,6 +412,31 @@ public abstract class AbstractIBatisOrientedRule extends AbstractEntityAttribute
 		return dataSourceIds;
 	}
 
+	/**
+	 * the data sources to use for the routing fact this rule is defined at,
+	 * routers should prefer this one to {@link #action()}.<br>
+	 * the default implementation returns {@link #action()}, rules that compute
+	 * the shard from the argument return the computed one only.
+	 *
+	 * @param routingFact,
+	 *            a fact which {@link #isDefinedAt(Object)} returns true for.
+	 */
+	public List<String> action(IBatisRoutingFact routingFact) {
+		return action();
+	}
+
+	/**
+	 * match the routing fact and compute the data sources for it in one go,
+	 * routers should prefer this one to {@link #isDefinedAt(Object)} followed
+	 * by {@link #action(IBatisRoutingFact)}, so that rules that compute the
+	 * shard from the argument compute it only once.
+	 * 
+	 * @return null if the rule is not defined at the routing fact.
+	 */
+	public List<String> actionIfDefinedAt(IBatisRoutingFact routingFact) {
+		return isDefinedAt(routingFact) ? action(routingFact) : null;
+	}
+
 	public void setDataSourceIds(List<String> dataSourceIds) {
 		this.dataSourceIds = dataSourceIds;
 	}
@@ -81,7 +455,11 @@ public abstract class AbstractIBatisOrientedRule extends AbstractEntityAttribute
 	}
 
 	public void setFunctionMap(Map<String, Object> functionMap) {
+		Validate.notNull(functionMap);
 		this.functionMap = functionMap;
+		this.functionResolverFactory = createFunctionResolverFactory(functionMap);
+		this.shardKeys = deriveShardKeys();
+		this.extractedAttributes = deriveExtractedAttributes();
 	}
 
 	public Map<String, Object> getFunctionMap() {
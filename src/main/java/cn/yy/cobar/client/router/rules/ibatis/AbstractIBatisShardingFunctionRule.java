@@ -0,0 +1,284 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router.rules.ibatis;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cn.yy.cobar.client.router.rules.ShardKeyExtractor;
+import cn.yy.cobar.client.router.support.IBatisRoutingFact;
+
+/**
+ * super class of the rules that compute the target shard from the value of a
+ * shard key directly, instead of evaluating a sharding expression for each of
+ * the shards.<br>
+ * one rule covers all of the shards of a sql action or namespace, its action is
+ * the list of the shards, and {@link #action(IBatisRoutingFact)} returns the
+ * one that the shard key value maps to. so routing with these rules costs one
+ * attribute read and one computation no matter how many shards there are.<br>
+ * the rule is defined at a routing fact when its type pattern matches and the
+ * shard key value can be mapped to a shard.<br>
+ * 
+ * @see IBatisModuloShardingRule
+ * @see IBatisRangeShardingRule
+ * @see IBatisHashShardingRule
+ */
+public abstract class AbstractIBatisShardingFunctionRule extends AbstractIBatisOrientedRule {
+
+	public static final String MODULO = "modulo";
+	public static final String RANGE = "range";
+	public static final String HASH = "hash";
+
+	private transient final Logger logger = LoggerFactory.getLogger(AbstractIBatisShardingFunctionRule.class);
+
+	private final String shardingKey;
+	private final boolean namespaceOriented;
+	private final List<String> shardingKeys;
+
+	/**
+	 * one single element list for each of the shards, so that no list is
+	 * created per routing.
+	 */
+	private final List<List<String>> shardActions;
+
+	/**
+	 * @param pattern,
+	 *            the namespace or the sql action id to match against.
+	 * @param action,
+	 *            the shards, separated by
+	 *            {@link #getActionPatternSeparator()}
+	 * @param shardingKey,
+	 *            the attribute of the argument to compute the shard from.
+	 * @param namespaceOriented,
+	 *            whether the pattern is a namespace.
+	 */
+	public AbstractIBatisShardingFunctionRule(String pattern, String action, String shardingKey,
+			boolean namespaceOriented) {
+		super(pattern, action);
+		Validate.notEmpty(StringUtils.trimToEmpty(shardingKey), "sharding key must be given.");
+		this.shardingKey = StringUtils.trim(shardingKey);
+		this.namespaceOriented = namespaceOriented;
+		this.shardingKeys = Collections.singletonList(this.shardingKey);
+
+		List<String> shards = action();
+		List<List<String>> actions = new ArrayList<List<String>>(shards.size());
+		for (String shard : shards) {
+			actions.add(Collections.singletonList(shard));
+		}
+		this.shardActions = Collections.unmodifiableList(actions);
+	}
+
+	public boolean isDefinedAt(IBatisRoutingFact routingFact) {
+		return actionIfDefinedAt(routingFact) != null;
+	}
+
+	/**
+	 * the shard is computed only once, for both the match and the action.
+	 */
+	@Override
+	public List<String> actionIfDefinedAt(IBatisRoutingFact routingFact) {
+		Validate.notNull(routingFact);
+		if (!matchesTypePattern(routingFact)) {
+			return null;
+		}
+		int index = shardIndexOf(routingFact);
+		return (index < 0) ? null : shardActions.get(index);
+	}
+
+	@Override
+	public List<String> action(IBatisRoutingFact routingFact) {
+		int index = shardIndexOf(routingFact);
+		if (index < 0) {
+			return Collections.emptyList();
+		}
+		return shardActions.get(index);
+	}
+
+	private boolean matchesTypePattern(IBatisRoutingFact routingFact) {
+		if (namespaceOriented) {
+			return StringUtils.equals(StringUtils.substringBeforeLast(routingFact.getAction(), "."),
+					getTypePattern());
+		}
+		return StringUtils.equals(getTypePattern(), routingFact.getAction());
+	}
+
+	private int shardIndexOf(IBatisRoutingFact routingFact) {
+		Object value = ShardKeyExtractor.extract(routingFact.getArgument(), shardingKey);
+		if (value == null || value == ShardKeyExtractor.UNRESOLVED) {
+			return -1;
+		}
+		try {
+			int index = shardIndexOf(value, shardActions.size());
+			return (index < shardActions.size()) ? index : -1;
+		} catch (Throwable t) {
+			logger.info("failed to compute shard with sharding key:'{}' and value:'{}'\n{}",
+					new Object[] { shardingKey, value, t });
+			return -1;
+		}
+	}
+
+	/**
+	 * @param value,
+	 *            the non-null value of the sharding key.
+	 * @param shardCount,
+	 *            the number of shards in the action.
+	 * @return the index of the shard in the action, a negative value if the
+	 *         value doesn't map to any shard.
+	 */
+	protected abstract int shardIndexOf(Object value, int shardCount);
+
+	/**
+	 * the value of an integral sharding key as long, numbers in strings are
+	 * accepted too. a decimal or floating point number is accepted only if it
+	 * has no fraction, it's not truncated, so that 1.5 doesn't go with 1.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the value is not an integral number in the range of long.
+	 */
+	protected static long longValueOf(Object value) {
+		Long integral = integralValueOf(value);
+		if (integral != null) {
+			return integral;
+		}
+		if (value instanceof BigDecimal) {
+			try {
+				return ((BigDecimal) value).longValueExact();
+			} catch (ArithmeticException e) {
+				// not integral, or out of the range of long
+			}
+		} else if (value instanceof Double || value instanceof Float) {
+			double number = ((Number) value).doubleValue();
+			if (number == Math.rint(number) && number >= Long.MIN_VALUE && number < Long.MAX_VALUE) {
+				return (long) number;
+			}
+		} else if (value instanceof String) {
+			return Long.parseLong(StringUtils.trim((String) value));
+		}
+		throw new IllegalArgumentException("sharding key value must be an integral number, but was:" + value);
+	}
+
+	/**
+	 * the value of the sharding key as long if it's an integral number or a
+	 * string of one, so that the same key maps to the same shard no matter
+	 * how it's boxed, say, as Integer, Long or String.
+	 * 
+	 * @return null if the value is not integral.
+	 */
+	protected static Long integralValueOf(Object value) {
+		if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+				|| value instanceof AtomicLong || value instanceof AtomicInteger) {
+			return ((Number) value).longValue();
+		}
+		if (value instanceof BigInteger) {
+			return (((BigInteger) value).bitLength() < Long.SIZE) ? ((BigInteger) value).longValue() : null;
+		}
+		if (value instanceof String) {
+			String text = StringUtils.trim((String) value);
+			String digits = text.startsWith("-") ? text.substring(1) : text;
+			if (digits.length() > 0 && digits.length() <= 19 && StringUtils.isNumeric(digits)) {
+				try {
+					return Long.parseLong(text);
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param arguments,
+	 *            numbers separated by ",".
+	 */
+	protected static long[] parseLongs(String arguments) {
+		String[] parts = StringUtils.split(StringUtils.trimToEmpty(arguments), ',');
+		long[] values = new long[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			values[i] = Long.parseLong(StringUtils.trim(parts[i]));
+		}
+		return values;
+	}
+
+	/**
+	 * the rule computes the shard from {@link #getShardingKey()} only.
+	 */
+	@Override
+	public List<String> getShardKeys() {
+		return shardingKeys;
+	}
+
+	@Override
+	public boolean isNamespaceOriented() {
+		return namespaceOriented;
+	}
+
+	public String getShardingKey() {
+		return shardingKey;
+	}
+
+	/**
+	 * create the rule of a sharding function.
+	 * 
+	 * @param shardingFunction,
+	 *            one of {@link #MODULO}, {@link #RANGE} and {@link #HASH}.
+	 * @param shardingArguments,
+	 *            arguments of the sharding function, see the rule classes.
+	 */
+	public static AbstractIBatisShardingFunctionRule create(String shardingFunction, String pattern, String action,
+			String shardingKey, String shardingArguments, boolean namespaceOriented) {
+		String function = StringUtils.trimToEmpty(shardingFunction).toLowerCase();
+		if (MODULO.equals(function)) {
+			return new IBatisModuloShardingRule(pattern, action, shardingKey, namespaceOriented);
+		}
+		if (RANGE.equals(function)) {
+			return new IBatisRangeShardingRule(pattern, action, shardingKey, shardingArguments, namespaceOriented);
+		}
+		if (HASH.equals(function)) {
+			return new IBatisHashShardingRule(pattern, action, shardingKey, shardingArguments, namespaceOriented);
+		}
+		throw new IllegalArgumentException("unknown sharding function:" + shardingFunction);
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = super.hashCode();
+		result = prime * result + (namespaceOriented ? 1231 : 1237);
+		result = prime * result + shardingKey.hashCode();
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!super.equals(obj))
+			return false;
+		AbstractIBatisShardingFunctionRule other = (AbstractIBatisShardingFunctionRule) obj;
+		return namespaceOriented == other.namespaceOriented && shardingKey.equals(other.shardingKey);
+	}
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router.rules.ibatis;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.Validate;
+
+/**
+ * hashes the value of the sharding key into a fixed number of buckets, and the
+ * buckets are assigned to the shards in contiguous blocks of the same size.<br>
+ * the argument is the number of buckets, which is the number of shards if it's
+ * not given. a bucket count which is a multiple of the shards allows moving
+ * whole buckets to new shards later.<br>
+ * the sharding key can be of any type whose hash code is stable across JVMs,
+ * like numbers and strings. integral numbers, and strings of them, are hashed
+ * by their long values, so a key goes to the same shard whether it's an
+ * Integer, a Long or a String.
+ */
+public class IBatisHashShardingRule extends AbstractIBatisShardingFunctionRule {
+
+	private final int bucketCount;
+
+	public IBatisHashShardingRule(String pattern, String action, String shardingKey, String shardingArguments,
+			boolean namespaceOriented) {
+		super(pattern, action, shardingKey, namespaceOriented);
+		this.bucketCount = StringUtils.isBlank(shardingArguments) ? action().size()
+				: Integer.parseInt(StringUtils.trim(shardingArguments));
+		Validate.isTrue(bucketCount >= action().size(),
+				"there must be at least one bucket for each shard, but bucket count was:" + bucketCount);
+	}
+
+	@Override
+	protected int shardIndexOf(Object value, int shardCount) {
+		Long integral = integralValueOf(value);
+		int hash = (integral == null) ? value.hashCode() : integral.hashCode();
+		int bucket = (mix(hash) & Integer.MAX_VALUE) % bucketCount;
+		return (int) ((long) bucket * shardCount / bucketCount);
+	}
+
+	/**
+	 * spread the bits of the hash code, the finalizer of murmur3.
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	public int getBucketCount() {
+		return bucketCount;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * super.hashCode() + bucketCount;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!super.equals(obj))
+			return false;
+		return bucketCount == ((IBatisHashShardingRule) obj).bucketCount;
+	}
+
+	@Override
+	public String toString() {
+		return "IBatisHashShardingRule [getShardingKey()=" + getShardingKey() + ", bucketCount=" + bucketCount
+				+ ", getAction()=" + getAction() + ", getTypePattern()=" + getTypePattern() + "]";
+	}
+
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router.rules.ibatis;
+
+/**
+ * maps the value of the sharding key to the shard at index
+ * "value mod number-of-shards", that's, the same as declaring
+ * "key % n == i" for the i-th of n shards with sharding expressions.<br>
+ * the sharding key must be an integral number.
+ */
+public class IBatisModuloShardingRule extends AbstractIBatisShardingFunctionRule {
+
+	public IBatisModuloShardingRule(String pattern, String action, String shardingKey, boolean namespaceOriented) {
+		super(pattern, action, shardingKey, namespaceOriented);
+	}
+
+	@Override
+	protected int shardIndexOf(Object value, int shardCount) {
+		long remainder = longValueOf(value) % shardCount;
+		return (int) ((remainder < 0) ? remainder + shardCount : remainder);
+	}
+
+	@Override
+	public String toString() {
+		return "IBatisModuloShardingRule [getShardingKey()=" + getShardingKey() + ", getAction()=" + getAction()
+				+ ", getTypePattern()=" + getTypePattern() + "]";
+	}
+
+}
@@ -39,6 +39,11 @@ public class IBatisNamespaceRule extends AbstractIBatisOrientedRule {
 		return StringUtils.equals(namespace, getTypePattern());
 	}
 
+	@Override
+	public boolean isNamespaceOriented() {
+		return true;
+	}
+
 	@Override
 	public String toString() {
 		return "IBatisNamespaceRule [getAction()=" + getAction() + ", getTypePattern()=" + getTypePattern() + "]";
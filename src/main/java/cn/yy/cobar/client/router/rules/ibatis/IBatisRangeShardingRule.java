@@ -0,0 +1,73 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router.rules.ibatis;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * maps the value of the sharding key to a shard with a range table.<br>
+ * the arguments are the ascending lower bounds of the shards except the first
+ * one, so n shards need n-1 bounds, for example, with shards "p0,p1,p2" and
+ * arguments "1000,2000", values below 1000 go to p0, values in [1000, 2000) go
+ * to p1, and the others go to p2.<br>
+ * the shard is found with a binary search over the bounds.<br>
+ * the sharding key must be an integral number.
+ */
+public class IBatisRangeShardingRule extends AbstractIBatisShardingFunctionRule {
+
+	private final long[] bounds;
+
+	public IBatisRangeShardingRule(String pattern, String action, String shardingKey, String shardingArguments,
+			boolean namespaceOriented) {
+		super(pattern, action, shardingKey, namespaceOriented);
+		this.bounds = parseLongs(shardingArguments);
+		Validate.isTrue(bounds.length == action().size() - 1,
+				"a range table of n shards must have n-1 bounds, shards:" + action() + ", bounds:" + shardingArguments);
+		for (int i = 1; i < bounds.length; i++) {
+			Validate.isTrue(bounds[i - 1] < bounds[i], "bounds of range table must be ascending:" + shardingArguments);
+		}
+	}
+
+	@Override
+	protected int shardIndexOf(Object value, int shardCount) {
+		int index = Arrays.binarySearch(bounds, longValueOf(value));
+		// a value equals to a bound belongs to the range the bound starts.
+		return (index >= 0) ? index + 1 : -(index + 1);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * super.hashCode() + Arrays.hashCode(bounds);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!super.equals(obj))
+			return false;
+		return Arrays.equals(bounds, ((IBatisRangeShardingRule) obj).bounds);
+	}
+
+	@Override
+	public String toString() {
+		return "IBatisRangeShardingRule [getShardingKey()=" + getShardingKey() + ", bounds=" + Arrays.toString(bounds)
+				+ ", getAction()=" + getAction() + ", getTypePattern()=" + getTypePattern() + "]";
+	}
+
+}
@@ -15,14 +15,8 @@
  */
 package cn.yy.cobar.client.router.rules.ibatis;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
-import org.mvel2.MVEL;
-import org.mvel2.integration.VariableResolverFactory;
-import org.mvel2.integration.impl.MapVariableResolverFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,13 +35,7 @@ public class IBatisSqlActionShardingRule extends AbstractIBatisOrientedRule {
 		boolean matches = StringUtils.equals(getTypePattern(), routingFact.getAction());
 		if (matches) {
 			try {
-				Map<String, Object> vrs = new HashMap<String, Object>();
-				vrs.putAll(getFunctionMap());
-				vrs.put("$ROOT", routingFact.getArgument()); // add top object
-																// reference for
-																// expression
-				VariableResolverFactory vrfactory = new MapVariableResolverFactory(vrs);
-				if (MVEL.evalToBoolean(getAttributePattern(), routingFact.getArgument(), vrfactory)) {
+				if (evaluateAttributePattern(routingFact)) {
 					return true;
 				}
 			} catch (Throwable t) {
@@ -0,0 +1,113 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router.support;
+
+import java.util.Arrays;
+
+import cn.yy.cobar.client.router.IShardKeyAwareRouter;
+import cn.yy.cobar.client.router.rules.ShardKeyExtractor;
+
+/**
+ * cache key of a routing result which is made of the sql action id and the
+ * values of the shard keys in the argument, instead of the whole argument like
+ * {@link IBatisRoutingFact}.<br>
+ * the hash code is computed once, so hashing costs the same no matter how big
+ * the argument is, and arguments that only differ in attributes that don't
+ * decide the routing share the same cache entry.<br>
+ * 
+ * @see IShardKeyAwareRouter
+ */
+public final class RoutingCacheKey {
+
+	public static final String ROOT = ShardKeyExtractor.ROOT;
+
+	private final String action;
+	/**
+	 * rules may behave differently on different argument types even if the
+	 * shard key values are the same, say, a property is missing.
+	 */
+	private final Class<?> argumentType;
+	private final Object[] shardKeyValues;
+	private final int hash;
+
+	private RoutingCacheKey(String action, Class<?> argumentType, Object[] shardKeyValues) {
+		this.action = action;
+		this.argumentType = argumentType;
+		this.shardKeyValues = shardKeyValues;
+
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((action == null) ? 0 : action.hashCode());
+		result = prime * result + ((argumentType == null) ? 0 : argumentType.hashCode());
+		result = prime * result + Arrays.hashCode(shardKeyValues);
+		this.hash = result;
+	}
+
+	/**
+	 * @param routingFact
+	 * @param shardKeys,
+	 *            see {@link IShardKeyAwareRouter#getShardKeys(String)}
+	 * @return the routing fact itself if the shard keys are unknown.
+	 */
+	public static Object of(IBatisRoutingFact routingFact, String[] shardKeys) {
+		if (shardKeys == null) {
+			return routingFact;
+		}
+		Object argument = routingFact.getArgument();
+		Object[] values = new Object[shardKeys.length];
+		for (int i = 0; i < shardKeys.length; i++) {
+			values[i] = ShardKeyExtractor.extract(argument, shardKeys[i]);
+		}
+		return new RoutingCacheKey(routingFact.getAction(), (argument == null) ? null : argument.getClass(),
+				values);
+	}
+
+	public String getAction() {
+		return action;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		RoutingCacheKey other = (RoutingCacheKey) obj;
+		if (hash != other.hash)
+			return false;
+		if (action == null) {
+			if (other.action != null)
+				return false;
+		} else if (!action.equals(other.action))
+			return false;
+		if (argumentType != other.argumentType)
+			return false;
+		return Arrays.equals(shardKeyValues, other.shardKeyValues);
+	}
+
+	@Override
+	public String toString() {
+		return "RoutingCacheKey [action=" + action + ", shardKeyValues=" + Arrays.toString(shardKeyValues) + "]";
+	}
+
+}
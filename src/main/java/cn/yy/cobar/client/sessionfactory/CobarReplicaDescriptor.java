@@ -0,0 +1,84 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.sessionfactory;
+
+import org.apache.commons.lang.Validate;
+import org.apache.ibatis.session.SqlSessionFactory;
+
+/**
+ * a read replica of the database described by a
+ * {@link CobarSessionFactoryDescriptor}.<br>
+ * read requests against the data source may be sent to its replicas as well,
+ * see {@link CobarSessionFactoryDescriptor#getReplicas()}.<br>
+ * the identity of a replica must be unique among all of the data sources and
+ * replicas, since the executor and the latency statistics of the replica are
+ * kept by it.
+ * 
+ * @since 1.0
+ */
+public class CobarReplicaDescriptor {
+	private String identity;
+	private SqlSessionFactory targetSqlSessionFactory;
+	/**
+	 * size of the thread pool in front of the replica, see
+	 * {@link CobarSessionFactoryDescriptor#getPoolSize()}.
+	 */
+	private int poolSize = Runtime.getRuntime().availableProcessors() * 5;
+	/**
+	 * share of the reads the replica takes relative to the other replicas of
+	 * the same data source, a replica with weight 0 takes no reads.
+	 */
+	private int weight = 1;
+
+	public String getIdentity() {
+		return identity;
+	}
+
+	public void setIdentity(String identity) {
+		this.identity = identity;
+	}
+
+	public SqlSessionFactory getTargetSqlSessionFactory() {
+		return targetSqlSessionFactory;
+	}
+
+	public void setTargetSqlSessionFactory(SqlSessionFactory targetSqlSessionFactory) {
+		this.targetSqlSessionFactory = targetSqlSessionFactory;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public int getWeight() {
+		return weight;
+	}
+
+	public void setWeight(int weight) {
+		Validate.isTrue(weight >= 0, "weight of replica must not be negative.");
+		this.weight = weight;
+	}
+
+	@Override
+	public String toString() {
+		return "CobarReplicaDescriptor [identity=" + identity + ", poolSize=" + poolSize + ", weight=" + weight + "]";
+	}
+
+}
@@ -15,6 +15,10 @@
  */
 package cn.yy.cobar.client.sessionfactory;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
 import org.apache.ibatis.session.SqlSessionFactory;
 
 /**
@@ -47,6 +51,7 @@ import org.apache.ibatis.session.SqlSessionFactory;
  * they are fetched from JNDI, we can't, so explicitly declaring sibling data
  * sources is necessary in this situation.</li>
  * </ol>
+ * the database may have read replicas too, see {@link #replicas}.<br>
  * 
  * @author fujohnwang
  * @since 1.0
@@ -69,6 +74,10 @@ public class CobarSessionFactoryDescriptor {
 	 * "number of CPU" * 5.
 	 */
 	private int poolSize = Runtime.getRuntime().availableProcessors() * 5;
+	/**
+	 * read replicas of the database, read requests may be hedged with them.
+	 */
+	private List<CobarReplicaDescriptor> replicas = new ArrayList<CobarReplicaDescriptor>();
 
 	public String getIdentity() {
 		return identity;
@@ -94,6 +103,15 @@ public class CobarSessionFactoryDescriptor {
 		return poolSize;
 	}
 
+	public List<CobarReplicaDescriptor> getReplicas() {
+		return replicas;
+	}
+
+	public void setReplicas(List<CobarReplicaDescriptor> replicas) {
+		Validate.notNull(replicas);
+		this.replicas = replicas;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -121,7 +139,8 @@ public class CobarSessionFactoryDescriptor {
 
 	@Override
 	public String toString() {
-		return "CobarSqlSessionFactoryDescriptor [identity=" + identity + ", poolSize=" + poolSize + "]";
+		return "CobarSqlSessionFactoryDescriptor [identity=" + identity + ", poolSize=" + poolSize + ", replicas="
+				+ replicas + "]";
 	}
 
 }
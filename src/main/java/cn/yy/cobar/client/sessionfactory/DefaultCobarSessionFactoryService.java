@@ -14,6 +14,7 @@ import cn.yy.cobar.client.support.utils.CollectionUtils;
 public class DefaultCobarSessionFactoryService implements ICobarSessionFactoryService, InitializingBean {
 	private Set<CobarSessionFactoryDescriptor> sessionFactoryDescriptors = new HashSet<CobarSessionFactoryDescriptor>();
 	private Map<String, SqlSessionFactory> sessionFactorys = new HashMap<String, SqlSessionFactory>();
+	private Map<String, CobarSessionFactoryDescriptor> descriptors = new HashMap<String, CobarSessionFactoryDescriptor>();
 
 	public void afterPropertiesSet() throws Exception {
 		if (CollectionUtils.isEmpty(sessionFactoryDescriptors)) {
@@ -25,6 +26,16 @@ public class DefaultCobarSessionFactoryService implements ICobarSessionFactorySe
 			Validate.notNull(descriptor.getTargetSqlSessionFactory());
 			SqlSessionFactory dataSourceToUse = descriptor.getTargetSqlSessionFactory();
 			sessionFactorys.put(descriptor.getIdentity(), dataSourceToUse);
+			descriptors.put(descriptor.getIdentity(), descriptor);
+		}
+		for (CobarSessionFactoryDescriptor descriptor : getSessionFactoryDescriptors()) {
+			for (CobarReplicaDescriptor replica : descriptor.getReplicas()) {
+				Validate.notEmpty(replica.getIdentity());
+				Validate.notNull(replica.getTargetSqlSessionFactory());
+				Validate.isTrue(!descriptors.containsKey(replica.getIdentity()),
+						"duplicated identity of data source or replica:" + replica.getIdentity());
+				descriptors.put(replica.getIdentity(), descriptor);
+			}
 		}
 	}
 
@@ -32,6 +43,10 @@ public class DefaultCobarSessionFactoryService implements ICobarSessionFactorySe
 		return sessionFactoryDescriptors;
 	}
 
+	public CobarSessionFactoryDescriptor getSessionFactoryDescriptor(String identity) {
+		return descriptors.get(identity);
+	}
+
 	public Map<String, SqlSessionFactory> getSessionFactorys() {
 		return sessionFactorys;
 	}
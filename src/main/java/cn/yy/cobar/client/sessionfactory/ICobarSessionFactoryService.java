@@ -9,4 +9,11 @@ public interface ICobarSessionFactoryService {
 	Map<String, SqlSessionFactory> getSessionFactorys();
 
 	Set<CobarSessionFactoryDescriptor> getSessionFactoryDescriptors();
+
+	/**
+	 * @return the descriptor of the data source with the identity, or of the
+	 *         data source the replica with the identity belongs to, null if
+	 *         there is no such data source or replica.
+	 */
+	CobarSessionFactoryDescriptor getSessionFactoryDescriptor(String identity);
 }
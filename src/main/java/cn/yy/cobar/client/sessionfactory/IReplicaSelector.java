@@ -0,0 +1,23 @@
+package cn.yy.cobar.client.sessionfactory;
+
+/**
+ * picks the replica of a data source to send a read to.<br>
+ * every replica returned by {@link #select(CobarSessionFactoryDescriptor)} is
+ * handed back with {@link #release(String)} once the read is done, so that
+ * selectors can keep track of the outstanding reads.
+ * 
+ * @since 1.0
+ */
+public interface IReplicaSelector {
+	/**
+	 * @return the replica to read from, null if the read should go to the data
+	 *         source itself.
+	 */
+	CobarReplicaDescriptor select(CobarSessionFactoryDescriptor descriptor);
+
+	/**
+	 * @param identity
+	 *            identity of the replica the read was sent to.
+	 */
+	void release(String identity);
+}
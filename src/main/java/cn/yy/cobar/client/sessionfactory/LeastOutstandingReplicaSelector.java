@@ -0,0 +1,71 @@
+package cn.yy.cobar.client.sessionfactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * sends a read to the replica with the fewest outstanding reads relative to
+ * its weight, so that a replica which slows down gets fewer new reads.<br>
+ * ties are broken by starting the scan at a random position, otherwise the
+ * first replica would take all of the reads while the load is light.
+ * 
+ * @since 1.0
+ */
+public class LeastOutstandingReplicaSelector implements IReplicaSelector {
+
+	private final ConcurrentMap<String, AtomicInteger> outstanding = new ConcurrentHashMap<String, AtomicInteger>();
+
+	public CobarReplicaDescriptor select(CobarSessionFactoryDescriptor descriptor) {
+		List<CobarReplicaDescriptor> replicas = descriptor.getReplicas();
+		if (replicas.isEmpty()) {
+			return null;
+		}
+		int start = ThreadLocalRandom.current().nextInt(replicas.size());
+		CobarReplicaDescriptor best = null;
+		AtomicInteger bestCount = null;
+		for (int n = 0; n < replicas.size(); n++) {
+			CobarReplicaDescriptor replica = replicas.get((start + n) % replicas.size());
+			if (replica.getWeight() <= 0) {
+				continue;
+			}
+			AtomicInteger count = outstandingOf(replica.getIdentity());
+			// count / weight < bestCount / bestWeight
+			if (best == null || (long) count.get() * best.getWeight() < (long) bestCount.get() * replica.getWeight()) {
+				best = replica;
+				bestCount = count;
+			}
+		}
+		if (best != null) {
+			bestCount.incrementAndGet();
+		}
+		return best;
+	}
+
+	public void release(String identity) {
+		AtomicInteger count = outstanding.get(identity);
+		if (count != null) {
+			count.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the number of reads sent to the replica which are not released
+	 *         yet.
+	 */
+	public int getOutstanding(String identity) {
+		AtomicInteger count = outstanding.get(identity);
+		return (count == null) ? 0 : count.get();
+	}
+
+	private AtomicInteger outstandingOf(String identity) {
+		AtomicInteger count = outstanding.get(identity);
+		if (count == null) {
+			outstanding.putIfAbsent(identity, new AtomicInteger());
+			count = outstanding.get(identity);
+		}
+		return count;
+	}
+}
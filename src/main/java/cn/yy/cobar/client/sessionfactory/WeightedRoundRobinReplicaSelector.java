@@ -0,0 +1,90 @@
+package cn.yy.cobar.client.sessionfactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * spreads the reads over the replicas in proportion to their weights.<br>
+ * the order of the replicas is computed once per data source with the smooth
+ * weighted round-robin algorithm, so that a heavy replica doesn't get its reads
+ * in bursts, and selecting is only an increment of a cursor afterwards.
+ * 
+ * @since 1.0
+ */
+public class WeightedRoundRobinReplicaSelector implements IReplicaSelector {
+
+	private final ConcurrentMap<String, Schedule> schedules = new ConcurrentHashMap<String, Schedule>();
+
+	public CobarReplicaDescriptor select(CobarSessionFactoryDescriptor descriptor) {
+		List<CobarReplicaDescriptor> replicas = descriptor.getReplicas();
+		if (replicas.isEmpty()) {
+			return null;
+		}
+		Schedule schedule = schedules.get(descriptor.getIdentity());
+		if (schedule == null || schedule.replicas != replicas) {
+			schedule = new Schedule(replicas);
+			schedules.put(descriptor.getIdentity(), schedule);
+		}
+		return schedule.next();
+	}
+
+	public void release(String identity) {
+		// nothing to track.
+	}
+
+	private static final class Schedule {
+		private final List<CobarReplicaDescriptor> replicas;
+		private final CobarReplicaDescriptor[] sequence;
+		private final AtomicInteger cursor = new AtomicInteger();
+
+		Schedule(List<CobarReplicaDescriptor> replicas) {
+			this.replicas = replicas;
+
+			int divisor = 0;
+			for (CobarReplicaDescriptor replica : replicas) {
+				divisor = gcd(divisor, replica.getWeight());
+			}
+			List<CobarReplicaDescriptor> order = new ArrayList<CobarReplicaDescriptor>();
+			if (divisor > 0) {
+				int[] weights = new int[replicas.size()];
+				int total = 0;
+				for (int i = 0; i < weights.length; i++) {
+					weights[i] = replicas.get(i).getWeight() / divisor;
+					total += weights[i];
+				}
+				int[] current = new int[weights.length];
+				for (int n = 0; n < total; n++) {
+					int best = -1;
+					for (int i = 0; i < weights.length; i++) {
+						current[i] += weights[i];
+						if (weights[i] > 0 && (best < 0 || current[i] > current[best])) {
+							best = i;
+						}
+					}
+					current[best] -= total;
+					order.add(replicas.get(best));
+				}
+			}
+			this.sequence = order.toArray(new CobarReplicaDescriptor[order.size()]);
+		}
+
+		CobarReplicaDescriptor next() {
+			if (sequence.length == 0) {
+				return null;
+			}
+			return sequence[(cursor.getAndIncrement() & Integer.MAX_VALUE) % sequence.length];
+		}
+
+		private static int gcd(int a, int b) {
+			while (b != 0) {
+				int t = a % b;
+				a = b;
+				b = t;
+			}
+			return a;
+		}
+	}
+}
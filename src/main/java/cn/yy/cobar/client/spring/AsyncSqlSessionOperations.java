@@ -0,0 +1,68 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.spring;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.apache.ibatis.session.RowBounds;
+
+/**
+ * the asynchronous counterpart of {@link SqlSessionOperations}.<br>
+ * an operation that is routed to shards runs on the executors of the shards and
+ * completes when all of the shards answer, the calling thread is not held in
+ * the meantime, so several independent operations can be fanned out at once.
+ * <br>
+ * operations that are not routed to any shard run with the default session
+ * factory in the calling thread, so that they take part in the transaction of
+ * the calling thread, and the returned future is already completed.<br>
+ * failures complete the future exceptionally with the same exceptions the
+ * synchronous operations throw.<br>
+ * unlike the synchronous fan-outs, the asynchronous ones don't go through the
+ * {@link cn.yy.cobar.client.support.execution.IConcurrentRequestProcessor},
+ * since it waits for the requests in the calling thread. so the request and
+ * shard timeouts, the hedged reads and the partial results of the processor
+ * don't apply to them, the future completes when every shard answers or one of
+ * them fails, and a caller that needs a deadline has to bound its own wait on
+ * the future.<br>
+ * the requests are submitted to the executors of the shards, unless virtual
+ * threads are enabled, the default ones reject with
+ * {@link java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy} when they
+ * are saturated, so under such load a request is executed by the calling
+ * thread and the call returns only after it's done, and a shard without an
+ * executor is always executed in the calling thread. enable virtual threads or
+ * inject executors with another rejection policy if the calling thread must
+ * never be held.
+ * 
+ * @see SqlSessionOperations
+ */
+public interface AsyncSqlSessionOperations {
+
+	<T> CompletableFuture<T> selectOneAsync(String statement, Object parameter);
+
+	<E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter);
+
+	<E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter, RowBounds rowBounds);
+
+	<K, V> CompletableFuture<Map<K, V>> selectMapAsync(String statement, Object parameter, String mapKey);
+
+	CompletableFuture<Integer> insertAsync(String statement, Object parameter);
+
+	CompletableFuture<Integer> updateAsync(String statement, Object parameter);
+
+	CompletableFuture<Integer> deleteAsync(String statement, Object parameter);
+}
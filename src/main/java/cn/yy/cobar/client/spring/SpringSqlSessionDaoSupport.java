@@ -2,12 +2,16 @@ package cn.yy.cobar.client.spring;
 
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.springframework.beans.factory.annotation.Autowired;
 
-public class SpringSqlSessionDaoSupport implements SqlSessionOperations {
+import cn.yy.cobar.client.support.vo.BatchInsertTask;
+
+public class SpringSqlSessionDaoSupport implements SqlSessionOperations, AsyncSqlSessionOperations {
 
 	@Autowired
 	private SpringSqlSessionTemplate springSqlSessionTemplate;
@@ -81,6 +85,11 @@ public class SpringSqlSessionDaoSupport implements SqlSessionOperations {
 		return getSpringSqlSessionTemplate().insert(statement, parameter);
 	}
 
+	@Override
+	public SortedMap<String, Integer> batchInsert(String statement, BatchInsertTask task) {
+		return getSpringSqlSessionTemplate().batchInsert(statement, task);
+	}
+
 	@Override
 	public int update(String statement) {
 		return getSpringSqlSessionTemplate().update(statement);
@@ -101,6 +110,41 @@ public class SpringSqlSessionDaoSupport implements SqlSessionOperations {
 		return getSpringSqlSessionTemplate().delete(statement, parameter);
 	}
 
+	@Override
+	public <T> CompletableFuture<T> selectOneAsync(String statement, Object parameter) {
+		return getSpringSqlSessionTemplate().selectOneAsync(statement, parameter);
+	}
+
+	@Override
+	public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter) {
+		return getSpringSqlSessionTemplate().selectListAsync(statement, parameter);
+	}
+
+	@Override
+	public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter, RowBounds rowBounds) {
+		return getSpringSqlSessionTemplate().selectListAsync(statement, parameter, rowBounds);
+	}
+
+	@Override
+	public <K, V> CompletableFuture<Map<K, V>> selectMapAsync(String statement, Object parameter, String mapKey) {
+		return getSpringSqlSessionTemplate().selectMapAsync(statement, parameter, mapKey);
+	}
+
+	@Override
+	public CompletableFuture<Integer> insertAsync(String statement, Object parameter) {
+		return getSpringSqlSessionTemplate().insertAsync(statement, parameter);
+	}
+
+	@Override
+	public CompletableFuture<Integer> updateAsync(String statement, Object parameter) {
+		return getSpringSqlSessionTemplate().updateAsync(statement, parameter);
+	}
+
+	@Override
+	public CompletableFuture<Integer> deleteAsync(String statement, Object parameter) {
+		return getSpringSqlSessionTemplate().deleteAsync(statement, parameter);
+	}
+
 	public SpringSqlSessionTemplate getSpringSqlSessionTemplate() {
 		return springSqlSessionTemplate;
 	}
@@ -2,26 +2,41 @@ package cn.yy.cobar.client.spring;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.sql.DataSource;
 
-import org.apache.ibatis.builder.StaticSqlSource;
-import org.apache.ibatis.mapping.SqlSource;
+import org.apache.commons.lang.Validate;
+import org.apache.ibatis.executor.BatchResult;
+import org.apache.ibatis.executor.result.DefaultResultContext;
 import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.ResultContext;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 import org.apache.ibatis.session.SqlSession;
@@ -36,20 +51,48 @@ import org.springframework.jdbc.CannotGetJdbcConnectionException;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import cn.yy.cobar.client.audit.ISqlAuditor;
+import cn.yy.cobar.client.audit.ISqlExecutionAuditor;
+import cn.yy.cobar.client.audit.INonBlockingSqlAuditor;
 import cn.yy.cobar.client.exception.UncategorizedCobarClientException;
+import cn.yy.cobar.client.merger.CompositeList;
+import cn.yy.cobar.client.merger.IMerger;
 import cn.yy.cobar.client.router.ICobarRouter;
+import cn.yy.cobar.client.router.IMergerAwareRouter;
+import cn.yy.cobar.client.router.IShardKeyAwareRouter;
+import cn.yy.cobar.client.router.rules.ShardKeyExtractor;
 import cn.yy.cobar.client.router.support.IBatisRoutingFact;
+import cn.yy.cobar.client.sessionfactory.CobarReplicaDescriptor;
 import cn.yy.cobar.client.sessionfactory.CobarSessionFactoryDescriptor;
 import cn.yy.cobar.client.sessionfactory.ICobarSessionFactoryService;
+import cn.yy.cobar.client.sessionfactory.IReplicaSelector;
+import cn.yy.cobar.client.sessionfactory.WeightedRoundRobinReplicaSelector;
+import cn.yy.cobar.client.spring.StatementMetadataCache.StatementMetadata;
 import cn.yy.cobar.client.support.execution.ConcurrentRequest;
 import cn.yy.cobar.client.support.execution.DefaultConcurrentRequestProcessor;
 import cn.yy.cobar.client.support.execution.IConcurrentRequestProcessor;
+import cn.yy.cobar.client.support.execution.SemaphoreBoundedExecutorService;
+import cn.yy.cobar.client.support.execution.StreamingSelectProcessor;
 import cn.yy.cobar.client.support.utils.CollectionUtils;
 import cn.yy.cobar.client.support.utils.MapUtils;
+import cn.yy.cobar.client.support.vo.BatchInsertTask;
 
-public class SpringSqlSessionTemplate extends SqlSessionTemplate implements DisposableBean, InitializingBean {
+public class SpringSqlSessionTemplate extends SqlSessionTemplate
+		implements AsyncSqlSessionOperations, DisposableBean, InitializingBean {
+
+	/**
+	 * the key of the entities that are not routed to any shard in the result
+	 * of {@link #batchInsert(String, BatchInsertTask)}.
+	 */
+	public static final String DEFAULT_SHARD_IDENTITY = "$DEFAULT";
+
+	/**
+	 * how long a streamed select waits for a thread when all of the streaming
+	 * threads are busy.
+	 */
+	private static final long STREAMING_HAND_OFF_TIMEOUT_MILLIS = 1000;
 
 	private transient Logger logger = LoggerFactory.getLogger(SpringSqlSessionTemplate.class);
 
@@ -76,8 +119,82 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 	 * execute {@link ISqlAuditor} asynchronously.
 	 */
 	private ISqlAuditor sqlAuditor;
+	/**
+	 * if it's given, each execution of a statement on a shard is timed and
+	 * reported to it, see {@link #timed(String, SqlSessionCallback)}.
+	 */
+	private ISqlExecutionAuditor sqlExecutionAuditor;
+	private final StatementMetadataCache statementMetadataCache = new StatementMetadataCache(getConfiguration());
 	private ExecutorService sqlAuditorExecutor;
 
+	/**
+	 * if it's true, a selectList whose shard key is given as a collection, like
+	 * the ids of "where id in (...)", will send each shard only the elements
+	 * that are routed to it, instead of the whole collection, see
+	 * {@link #scatterByShardKey(String, Object)}.
+	 */
+	private boolean inListScatterEnabled = false;
+
+	/**
+	 * the number of statements a batch session of
+	 * {@link #batchInsert(String, BatchInsertTask)} sends to the database at
+	 * once.
+	 */
+	private int batchFlushSize = 1000;
+
+	/**
+	 * if it's true, the default executor of each data source runs every request
+	 * on a virtual thread of its own, and a semaphore sized to the pool size of
+	 * the data source takes the place of the thread pool, so that a burst of
+	 * requests waits for connections instead of being run by the callers.<br>
+	 * virtual threads need java 21 or later, the template fails to start on
+	 * older runtimes if it's true, rather than running the requests on
+	 * platform threads without a bound on their number.
+	 */
+	private boolean virtualThreadsEnabled = false;
+
+	/**
+	 * if it's true, select* go to the replicas of the data sources picked by
+	 * {@link #replicaSelector}, while insert/update/delete and the reads in a
+	 * transaction go to the data sources themselves.
+	 */
+	private boolean readWriteSplittingEnabled = false;
+
+	/**
+	 * if it's true, a paged selectList against several shards returns the page
+	 * of the merged results instead of the pages of the shards, see
+	 * {@link #selectPage(String, Object, RowBounds, SortedMap)}.
+	 */
+	private boolean shardedPaginationEnabled = false;
+
+	/**
+	 * if it's true, selectList against several shards returns a read-only
+	 * {@link CompositeList} view over the shard results instead of copying
+	 * them into a new list, for the callers that only read the results.
+	 */
+	private boolean compositeListResultsEnabled = false;
+
+	/**
+	 * at most how many rows of each shard are buffered when the rows of
+	 * several shards are streamed to a ResultHandler.
+	 */
+	private int streamingQueueCapacity = 1024;
+	/**
+	 * at most how many threads stream rows at the same time, each of them
+	 * holds a connection of a shard, so by default it's the sum of the pool
+	 * sizes of the shards and their replicas, see
+	 * {@link #createStreamingExecutor()}.
+	 */
+	private int streamingPoolSize = 0;
+	private StreamingSelectProcessor streamingSelectProcessor;
+	/**
+	 * comparators of the rows of the ordered statements, keyed by the statement
+	 * ids, they are used to merge the shard results of paged selectList and
+	 * streamed select in order.
+	 */
+	private Map<String, Comparator<?>> orderComparators = new HashMap<String, Comparator<?>>();
+	private IReplicaSelector replicaSelector = new WeightedRoundRobinReplicaSelector();
+
 	public SpringSqlSessionTemplate(SqlSessionFactory sqlSessionFactory) {
 		super(sqlSessionFactory);
 	}
@@ -93,12 +210,12 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 
 	protected SortedMap<String, SqlSessionFactory> lookupDataSourcesByRouter(final String statementName,
 			final Object parameterObject) {
+		auditSqlIfNecessary(statementName, parameterObject);
 		SortedMap<String, SqlSessionFactory> resultMap = new TreeMap<String, SqlSessionFactory>();
 		if (getRouter() != null && getCobarDataSourceService() != null) {
 			List<String> dsSet = getRouter().doRoute(new IBatisRoutingFact(statementName, parameterObject))
 					.getResourceIdentities();
 			if (CollectionUtils.isNotEmpty(dsSet)) {
-				Collections.sort(dsSet);
 				for (String dsName : dsSet) {
 					resultMap.put(dsName, getCobarDataSourceService().getSessionFactorys().get(dsName));
 				}
@@ -116,18 +233,29 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 	@Override
 	public <T> T selectOne(final String statement, final Object parameter) {
 		if (isPartitioningBehaviorEnabled()) {
-			SortedMap<String, SqlSessionFactory> dsMap = lookupDataSourcesByRouter(statement, parameter);
-			if (!MapUtils.isEmpty(dsMap)) {
-				SqlSessionCallback<T> action = new SqlSessionCallback<T>() {
-					public T doInSqlSession(SqlSession executor) throws SQLException {
-						return executor.selectOne(statement, parameter);
+			Map<String, SqlSessionFactory> dsMap = lookupReadDataSourcesByRouter(statement, parameter);
+			try {
+				if (!MapUtils.isEmpty(dsMap)) {
+					SqlSessionCallback<T> action = new SqlSessionCallback<T>() {
+						public T doInSqlSession(SqlSession executor) throws SQLException {
+							return executor.selectOne(statement, parameter);
+						}
+					};
+					if (dsMap.size() == 1) {
+						return executeWith(dsMap.get(firstIdentityOf(dsMap)),
+								timed(statement, firstIdentityOf(dsMap), action));
+					} else {
+						IMerger<Object, Object> merger = mergerOf(statement);
+						List<Object> shardResults = presentResultsOf(
+								executeReadInConcurrency(timed(statement, action), dsMap, merger == null));
+						if (merger != null) {
+							return (T) merger.merge(shardResults);
+						}
+						return shardResults.isEmpty() ? null : (T) shardResults.get(0);
 					}
-				};
-				if (dsMap.size() == 1) {
-					return executeWith(dsMap.get(dsMap.firstKey()), action);
-				} else {
-					return ((T) executeInConcurrency2(action, dsMap).iterator().next());
 				}
+			} finally {
+				releaseReadDataSources(dsMap);
 			}
 		}
 		return super.selectOne(statement, parameter);
@@ -148,33 +276,35 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 	public <K, V> Map<K, V> selectMap(final String statement, final Object parameter, final String mapKey,
 			final RowBounds rowBounds) {
 		if (isPartitioningBehaviorEnabled()) {
-			SortedMap<String, SqlSessionFactory> dsMap = lookupDataSourcesByRouter(statement, parameter);
-			if (!MapUtils.isEmpty(dsMap)) {
-				SqlSessionCallback<Map> action = null;
-				if (rowBounds == null) {
-					action = new SqlSessionCallback<Map>() {
-						public Map doInSqlSession(SqlSession executor) throws SQLException {
-							return executor.selectMap(statement, parameter, mapKey);
-						}
-					};
-				} else {
-					action = new SqlSessionCallback<Map>() {
-						public Map doInSqlSession(SqlSession executor) throws SQLException {
-							return executor.selectMap(statement, parameter, mapKey, rowBounds);
-						}
-					};
-				}
+			Map<String, SqlSessionFactory> dsMap = lookupReadDataSourcesByRouter(statement, parameter);
+			try {
+				if (!MapUtils.isEmpty(dsMap)) {
+					SqlSessionCallback<Map> action = null;
+					if (rowBounds == null) {
+						action = new SqlSessionCallback<Map>() {
+							public Map doInSqlSession(SqlSession executor) throws SQLException {
+								return executor.selectMap(statement, parameter, mapKey);
+							}
+						};
+					} else {
+						action = new SqlSessionCallback<Map>() {
+							public Map doInSqlSession(SqlSession executor) throws SQLException {
+								return executor.selectMap(statement, parameter, mapKey, rowBounds);
+							}
+						};
+					}
 
-				if (dsMap.size() == 1) {
-					return executeWith(dsMap.get(dsMap.firstKey()), action);
-				} else {
-					Map result = new HashMap();
-					for (Object count : executeInConcurrency(action, dsMap)) {
-						result.putAll((Map) count);
+					if (dsMap.size() == 1) {
+						return executeWith(dsMap.get(firstIdentityOf(dsMap)),
+								timed(statement, firstIdentityOf(dsMap), action));
+					} else {
+						return mergeMaps(
+								(List) presentResultsOf(executeReadInConcurrency(timed(statement, action), dsMap)));
 					}
-					return result;
-				}
 
+				}
+			} finally {
+				releaseReadDataSources(dsMap);
 			}
 		}
 		return super.selectMap(statement, parameter, mapKey, rowBounds);
@@ -194,35 +324,52 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 	@Override
 	public <E> List<E> selectList(final String statement, final Object parameter, final RowBounds rowBounds) {
 		if (isPartitioningBehaviorEnabled()) {
-			SortedMap<String, SqlSessionFactory> dsMap = lookupDataSourcesByRouter(statement, parameter);
-			if (!MapUtils.isEmpty(dsMap)) {
-				SqlSessionCallback<List<E>> action = null;
-				if (rowBounds == null) {
-					action = new SqlSessionCallback<List<E>>() {
-						public List<E> doInSqlSession(SqlSession executor) throws SQLException {
-							return executor.selectList(statement, parameter);
-						}
-					};
-				} else {
-					action = new SqlSessionCallback<List<E>>() {
-
-						public List<E> doInSqlSession(SqlSession executor) throws SQLException {
-							return executor.selectList(statement, parameter, rowBounds);
-						}
-					};
+			if (isInListScatterEnabled() && (rowBounds == null || rowBounds == RowBounds.DEFAULT)) {
+				SortedMap<String, Object> shardParameters = scatterByShardKey(statement, parameter);
+				if (shardParameters != null) {
+					auditSqlIfNecessary(statement, parameter);
+					return selectListScattered(statement, shardParameters);
 				}
+			}
+			Map<String, SqlSessionFactory> dsMap = lookupReadDataSourcesByRouter(statement, parameter);
+			try {
+				if (!MapUtils.isEmpty(dsMap)) {
+					if (dsMap.size() > 1 && isShardedPaginationEnabled() && isPaged(rowBounds)) {
+						return selectPage(statement, parameter, rowBounds, dsMap);
+					}
+					SqlSessionCallback<List<E>> action = null;
+					if (rowBounds == null) {
+						action = new SqlSessionCallback<List<E>>() {
+							public List<E> doInSqlSession(SqlSession executor) throws SQLException {
+								return executor.selectList(statement, parameter);
+							}
+						};
+					} else {
+						action = new SqlSessionCallback<List<E>>() {
+
+							public List<E> doInSqlSession(SqlSession executor) throws SQLException {
+								return executor.selectList(statement, parameter, rowBounds);
+							}
+						};
+					}
 
-				if (dsMap.size() == 1) {
-					return executeWith(dsMap.get(dsMap.firstKey()), action);
-				} else {
+					if (dsMap.size() == 1) {
+						return executeWith(dsMap.get(firstIdentityOf(dsMap)),
+								timed(statement, firstIdentityOf(dsMap), action));
+					} else {
+						IMerger<Object, Object> merger = mergerOf(statement);
+						List<Object> shardResults = presentResultsOf(
+								executeReadInConcurrency(timed(statement, action), dsMap, merger == null));
+						if (merger != null) {
+							return (List<E>) merger.merge(shardResults);
+						}
 
-					List<E> result = new ArrayList<E>();
-					for (Object count : executeInConcurrency(action, dsMap)) {
-						result.addAll((List<E>) count);
+						return concatenate(shardResults);
 					}
-					return result;
-				}
 
+				}
+			} finally {
+				releaseReadDataSources(dsMap);
 			}
 		}
 		if (rowBounds != null) {
@@ -232,6 +379,222 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 		}
 	}
 
+	/**
+	 * the merger the router binds to the statement, which merges the results
+	 * of the shards instead of taking the first one for selectOne or
+	 * concatenating them for selectList.
+	 */
+	private IMerger<Object, Object> mergerOf(String statement) {
+		if (getRouter() instanceof IMergerAwareRouter) {
+			return ((IMergerAwareRouter) getRouter()).getMerger(statement);
+		}
+		return null;
+	}
+
+	private static boolean isPaged(RowBounds rowBounds) {
+		return rowBounds != null
+				&& (rowBounds.getOffset() != RowBounds.NO_ROW_OFFSET || rowBounds.getLimit() != RowBounds.NO_ROW_LIMIT);
+	}
+
+	/**
+	 * each of the shards is asked for the first offset+limit rows, which
+	 * contain its part of the page, and the rows are streamed through
+	 * {@link #streamingSelectProcessor}, merged with the comparator configured
+	 * for the statement in {@link #orderComparators}, which must be consistent
+	 * with the order by clause of the statement. the rows before the page are
+	 * skipped and the shards stop fetching once the page is filled, so at most
+	 * {@link #streamingQueueCapacity} rows per shard are buffered besides the
+	 * page, however deep the page is.<br>
+	 * without a comparator, the rows are taken shard by shard in the order of
+	 * the shards, so the size of the page is right, but the rows may not be
+	 * the ones of a global order.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private <E> List<E> selectPage(final String statement, final Object parameter, RowBounds rowBounds,
+			Map<String, SqlSessionFactory> dsMap) {
+		int offset = rowBounds.getOffset();
+		int limit = rowBounds.getLimit();
+		RowBounds shardRowBounds = new RowBounds(RowBounds.NO_ROW_OFFSET,
+				(limit > RowBounds.NO_ROW_LIMIT - offset) ? RowBounds.NO_ROW_LIMIT : offset + limit);
+		final List<E> page = new ArrayList<E>((limit == RowBounds.NO_ROW_LIMIT) ? 10 : Math.min(limit, 1024));
+		getStreamingSelectProcessor().selectInOrder(dsMap.values(), statement, parameter, shardRowBounds,
+				getOrderComparators().get(statement), new PagingResultHandler(new ResultHandler() {
+					public void handleResult(ResultContext context) {
+						page.add((E) context.getResultObject());
+					}
+				}, offset, limit));
+		return page;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <E> List<E> selectListScattered(final String statement, SortedMap<String, Object> shardParameters) {
+		Map<String, SqlSessionFactory> dsMap = new LinkedHashMap<String, SqlSessionFactory>(shardParameters.size() * 2);
+		for (String identity : shardParameters.keySet()) {
+			dsMap.put(identity, getCobarDataSourceService().getSessionFactorys().get(identity));
+		}
+		if (isReadingFromReplicas()) {
+			dsMap = readDataSourcesOf(dsMap);
+		}
+		try {
+			return selectListScattered(statement, shardParameters, dsMap);
+		} finally {
+			releaseReadDataSources(dsMap);
+		}
+	}
+
+	/**
+	 * @param dsMap
+	 *            the data sources to read from, in the order of the shards.
+	 */
+	@SuppressWarnings("unchecked")
+	private <E> List<E> selectListScattered(final String statement, SortedMap<String, Object> shardParameters,
+			Map<String, SqlSessionFactory> dsMap) {
+		Iterator<String> targets = dsMap.keySet().iterator();
+		if (shardParameters.size() == 1) {
+			final Object shardParameter = shardParameters.get(shardParameters.firstKey());
+			String target = targets.next();
+			return executeWith(dsMap.get(target), timed(statement, target, new SqlSessionCallback<List<E>>() {
+				public List<E> doInSqlSession(SqlSession executor) throws SQLException {
+					return executor.selectList(statement, shardParameter);
+				}
+			}));
+		}
+
+		IMerger<Object, Object> merger = mergerOf(statement);
+		List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>(shardParameters.size());
+		for (Map.Entry<String, Object> entry : shardParameters.entrySet()) {
+			final Object shardParameter = entry.getValue();
+			String target = targets.next();
+			ConcurrentRequest request = new ConcurrentRequest();
+			request.setAction(timed(statement, target, new SqlSessionCallback<List<E>>() {
+				public List<E> doInSqlSession(SqlSession executor) throws SQLException {
+					return executor.selectList(statement, shardParameter);
+				}
+			}));
+			request.setSessionFactory(dsMap.get(target));
+			request.setExecutor(executorOf(target));
+			request.setIdentity(target);
+			request.setRead(true);
+			request.setPartialResultAcceptable(merger == null);
+			request.setReplicaRequests(replicaRequestsOf(request));
+			requests.add(request);
+		}
+
+		List<Object> shardResults = presentResultsOf(getConcurrentRequestProcessor().process(requests));
+		if (merger != null) {
+			return (List<E>) merger.merge(shardResults);
+		}
+		return concatenate(shardResults);
+	}
+
+	/**
+	 * the results of the shards which are present, the processor leaves null
+	 * in place of the ones missing from partial results.
+	 */
+	private static List<Object> presentResultsOf(List<Object> shardResults) {
+		if (!shardResults.contains(null)) {
+			return shardResults;
+		}
+		List<Object> present = new ArrayList<Object>(shardResults.size());
+		for (Object shardResult : shardResults) {
+			if (shardResult != null) {
+				present.add(shardResult);
+			}
+		}
+		return present;
+	}
+
+	/**
+	 * the shard results of selectList as one list, sized for all of them up
+	 * front, or viewed as one if {@link #compositeListResultsEnabled}.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private <E> List<E> concatenate(List<?> shardResults) {
+		if (isCompositeListResultsEnabled()) {
+			return new CompositeList<E>((List) shardResults);
+		}
+		int size = 0;
+		for (Object shardResult : shardResults) {
+			size += ((List<E>) shardResult).size();
+		}
+		List<E> result = new ArrayList<E>(size);
+		for (Object shardResult : shardResults) {
+			result.addAll((List<E>) shardResult);
+		}
+		return result;
+	}
+
+	/**
+	 * the shard results of selectMap as one map, sized for all of them up
+	 * front so that it's not rehashed while they are put.
+	 */
+	private static <K, V> Map<K, V> mergeMaps(List<Map<K, V>> shardResults) {
+		int size = 0;
+		for (Map<K, V> shardResult : shardResults) {
+			size += shardResult.size();
+		}
+		Map<K, V> result = new HashMap<K, V>((int) Math.min(Integer.MAX_VALUE >> 1, size / 0.75f + 1));
+		for (Map<K, V> shardResult : shardResults) {
+			result.putAll(shardResult);
+		}
+		return result;
+	}
+
+	/**
+	 * split a map parameter whose only shard key is a collection into one
+	 * parameter for each shard, which carries only the elements of the
+	 * collection that are routed to the shard.<br>
+	 * each element is routed as if it were the value of the shard key alone,
+	 * the other entries of the parameter are kept as they are.
+	 * 
+	 * @return the parameters keyed by the shard identity, null if the
+	 *         parameter can't be split, for example, the router can't tell the
+	 *         shard key, or an element is routed to more than one shard.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	protected SortedMap<String, Object> scatterByShardKey(String statement, Object parameter) {
+		if (!(parameter instanceof Map) || !(getRouter() instanceof IShardKeyAwareRouter)) {
+			return null;
+		}
+		String[] shardKeys = ((IShardKeyAwareRouter) getRouter()).getShardKeys(statement);
+		if (shardKeys == null || shardKeys.length != 1 || ShardKeyExtractor.ROOT.equals(shardKeys[0])) {
+			return null;
+		}
+		String shardKey = shardKeys[0];
+		Map parameterMap = (Map) parameter;
+		// some of the map parameters of mybatis throw on missing keys.
+		Object value = parameterMap.containsKey(shardKey) ? parameterMap.get(shardKey) : null;
+		if (!(value instanceof Collection) || ((Collection) value).isEmpty()) {
+			return null;
+		}
+
+		// the probe is reused for all of the elements, it's safe since routers
+		// cache the results of a shard key aware routing by the key values.
+		Map<String, Object> probe = new HashMap<String, Object>(parameterMap);
+		SortedMap<String, List<Object>> elementsByShard = new TreeMap<String, List<Object>>();
+		for (Object element : (Collection) value) {
+			probe.put(shardKey, element);
+			List<String> shards = getRouter().doRoute(new IBatisRoutingFact(statement, probe)).getResourceIdentities();
+			if (shards == null || shards.size() != 1) {
+				return null;
+			}
+			List<Object> elements = elementsByShard.get(shards.get(0));
+			if (elements == null) {
+				elements = new ArrayList<Object>();
+				elementsByShard.put(shards.get(0), elements);
+			}
+			elements.add(element);
+		}
+
+		SortedMap<String, Object> shardParameters = new TreeMap<String, Object>();
+		for (Map.Entry<String, List<Object>> entry : elementsByShard.entrySet()) {
+			Map<String, Object> shardParameter = new HashMap<String, Object>(parameterMap);
+			shardParameter.put(shardKey, entry.getValue());
+			shardParameters.put(entry.getKey(), shardParameter);
+		}
+		return shardParameters;
+	}
+
 	@SuppressWarnings("rawtypes")
 	@Override
 	public void select(String statement, ResultHandler handler) {
@@ -249,36 +612,94 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 	public void select(final String statement, final Object parameter, final RowBounds rowBounds,
 			final ResultHandler handler) {
 		if (isPartitioningBehaviorEnabled()) {
-			SortedMap<String, SqlSessionFactory> dsMap = lookupDataSourcesByRouter(statement, parameter);
-			if (!MapUtils.isEmpty(dsMap)) {
-				SqlSessionCallback action = null;
-				if (rowBounds == null) {
-					action = new SqlSessionCallback() {
-						public Object doInSqlSession(SqlSession executor) throws SQLException {
-							executor.select(statement, parameter, handler);
-							return null;
-						}
-					};
-				} else {
-					action = new SqlSessionCallback() {
+			Map<String, SqlSessionFactory> dsMap = lookupReadDataSourcesByRouter(statement, parameter);
+			try {
+				if (!MapUtils.isEmpty(dsMap)) {
+					SqlSessionCallback action = null;
+					if (rowBounds == null) {
+						action = new SqlSessionCallback() {
+							public Object doInSqlSession(SqlSession executor) throws SQLException {
+								executor.select(statement, parameter, handler);
+								return null;
+							}
+						};
+					} else {
+						action = new SqlSessionCallback() {
+
+							public Object doInSqlSession(SqlSession executor) throws SQLException {
+								executor.select(statement, parameter, rowBounds, handler);
+								return null;
+							}
+						};
+					}
 
-						public Object doInSqlSession(SqlSession executor) throws SQLException {
-							executor.select(statement, parameter, rowBounds, handler);
-							return null;
-						}
-					};
+					if (dsMap.size() == 1) {
+						executeWith(dsMap.get(firstIdentityOf(dsMap)),
+								timed(statement, firstIdentityOf(dsMap), action));
+					} else {
+						selectStreaming(statement, parameter, rowBounds, handler, dsMap);
+					}
+					return;
 				}
+			} finally {
+				releaseReadDataSources(dsMap);
+			}
+		}
+		super.select(statement, parameter, rowBounds, handler);
+	}
 
-				if (dsMap.size() == 1) {
-					executeWith(dsMap.get(dsMap.firstKey()), action);
-				} else {
+	/**
+	 * stream the rows of all of the shards to the handler in the calling
+	 * thread, in the order of the comparator configured for the statement in
+	 * {@link #orderComparators}, or in the order they arrive if there is none.
+	 * see {@link StreamingSelectProcessor}.
+	 */
+	@SuppressWarnings("rawtypes")
+	private void selectStreaming(String statement, Object parameter, RowBounds rowBounds, ResultHandler handler,
+			Map<String, SqlSessionFactory> dsMap) {
+		RowBounds shardRowBounds = rowBounds;
+		ResultHandler handlerToUse = handler;
+		if (isShardedPaginationEnabled() && isPaged(rowBounds)) {
+			int offset = rowBounds.getOffset();
+			int limit = rowBounds.getLimit();
+			shardRowBounds = new RowBounds(RowBounds.NO_ROW_OFFSET,
+					(limit > RowBounds.NO_ROW_LIMIT - offset) ? RowBounds.NO_ROW_LIMIT : offset + limit);
+			handlerToUse = new PagingResultHandler(handler, offset, limit);
+		}
+		getStreamingSelectProcessor().select(dsMap.values(), statement, parameter, shardRowBounds,
+				getOrderComparators().get(statement), handlerToUse);
+	}
 
-					executeInConcurrency(action, dsMap);
-				}
+	/**
+	 * skips the rows before the page and stops after the page.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static class PagingResultHandler implements ResultHandler {
+		private final ResultHandler delegate;
+		private final int offset;
+		private final int limit;
+		private final DefaultResultContext<Object> pageContext = new DefaultResultContext<Object>();
+		private int skipped;
+
+		PagingResultHandler(ResultHandler delegate, int offset, int limit) {
+			this.delegate = delegate;
+			this.offset = offset;
+			this.limit = limit;
+		}
 
+		public void handleResult(ResultContext context) {
+			if (skipped < offset) {
+				skipped++;
+				return;
+			}
+			if (pageContext.getResultCount() < limit) {
+				pageContext.nextResultObject(context.getResultObject());
+				delegate.handleResult(pageContext);
+			}
+			if (pageContext.isStopped() || pageContext.getResultCount() >= limit) {
+				context.stop();
 			}
 		}
-		super.select(statement, parameter, rowBounds, handler);
 	}
 
 	@Override
@@ -298,10 +719,10 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 				};
 
 				if (dsMap.size() == 1) {
-					return (Integer) executeWith(dsMap.get(dsMap.firstKey()), action);
+					return (Integer) executeWith(dsMap.get(dsMap.firstKey()), timed(statement, dsMap.firstKey(), action));
 				} else {
 					int result = 0;
-					for (Object count : executeInConcurrency(action, dsMap)) {
+					for (Object count : executeInConcurrency(timed(statement, action), dsMap)) {
 						result += (Integer) count;
 					}
 					return result;
@@ -327,10 +748,11 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 					}
 				};
 				if (resultDataSources.size() == 1) {
-					return (Integer) executeWith(resultDataSources.values().iterator().next(), action);
+					return (Integer) executeWith(resultDataSources.get(resultDataSources.firstKey()),
+							timed(statement, resultDataSources.firstKey(), action));
 				} else {
 					int result = 0;
-					for (Object count : executeInConcurrency(action, resultDataSources)) {
+					for (Object count : executeInConcurrency(timed(statement, action), resultDataSources)) {
 						result += (Integer) count;
 					}
 					return result;
@@ -356,10 +778,11 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 					}
 				};
 				if (resultDataSources.size() == 1) {
-					return (Integer) executeWith(resultDataSources.values().iterator().next(), action);
+					return (Integer) executeWith(resultDataSources.get(resultDataSources.firstKey()),
+							timed(statement, resultDataSources.firstKey(), action));
 				} else {
 					int result = 0;
-					for (Object count : executeInConcurrency(action, resultDataSources)) {
+					for (Object count : executeInConcurrency(timed(statement, action), resultDataSources)) {
 						result += (Integer) count;
 					}
 					return result;
@@ -373,6 +796,322 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 		return super.insert(statement, parameter);
 	}
 
+	/**
+	 * insert the entities of the task with the statement.<br>
+	 * the entities are routed one by one and grouped by shard, each group is
+	 * inserted in a session of {@link ExecutorType#BATCH} on the executor of
+	 * its shard, all of the groups are inserted in parallel. an entity that is
+	 * routed to more than one shard is inserted into each of them, the ones
+	 * that are not routed are inserted one by one with the default session
+	 * factory.<br>
+	 * each shard commits its own group, so the insertion is not atomic across
+	 * shards.
+	 * 
+	 * @return the number of inserted rows keyed by the shard identity, rows
+	 *         inserted with the default session factory are keyed by
+	 *         {@link #DEFAULT_SHARD_IDENTITY}.
+	 */
+	public SortedMap<String, Integer> batchInsert(final String statement, BatchInsertTask task) {
+		SortedMap<String, Integer> counts = new TreeMap<String, Integer>();
+		if (task == null || CollectionUtils.isEmpty(task.getEntities())) {
+			return counts;
+		}
+
+		SortedMap<String, List<Object>> entitiesByShard = new TreeMap<String, List<Object>>();
+		List<Object> unroutedEntities = new ArrayList<Object>();
+		for (Object entity : task.getEntities()) {
+			Set<String> shards = isPartitioningBehaviorEnabled() ? lookupDataSourcesByRouter(statement, entity).keySet()
+					: null;
+			if (CollectionUtils.isEmpty(shards)) {
+				unroutedEntities.add(entity);
+				continue;
+			}
+			for (String shard : shards) {
+				List<Object> entities = entitiesByShard.get(shard);
+				if (entities == null) {
+					entities = new ArrayList<Object>();
+					entitiesByShard.put(shard, entities);
+				}
+				entities.add(entity);
+			}
+		}
+
+		if (!entitiesByShard.isEmpty()) {
+			List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>(entitiesByShard.size());
+			for (Map.Entry<String, List<Object>> entry : entitiesByShard.entrySet()) {
+				final List<Object> entities = entry.getValue();
+				ConcurrentRequest request = new ConcurrentRequest();
+				request.setAction(timed(statement, entry.getKey(), new SqlSessionCallback<Integer>() {
+					public Integer doInSqlSession(SqlSession executor) throws SQLException {
+						return insertInBatch(executor, statement, entities);
+					}
+				}));
+				request.setSessionFactory(getCobarDataSourceService().getSessionFactorys().get(entry.getKey()));
+				request.setExecutor(executorOf(entry.getKey()));
+				request.setIdentity(entry.getKey());
+				request.setExecutorType(ExecutorType.BATCH);
+				requests.add(request);
+			}
+			List<Object> results = getConcurrentRequestProcessor().process(requests);
+			int i = 0;
+			for (String shard : entitiesByShard.keySet()) {
+				counts.put(shard, (Integer) results.get(i++));
+			}
+		}
+
+		if (!unroutedEntities.isEmpty()) {
+			int count = 0;
+			for (Object entity : unroutedEntities) {
+				count += super.insert(statement, entity);
+			}
+			counts.put(DEFAULT_SHARD_IDENTITY, count);
+		}
+		return counts;
+	}
+
+	private int insertInBatch(SqlSession session, String statement, List<Object> entities) {
+		int count = 0;
+		int pending = 0;
+		for (Object entity : entities) {
+			session.insert(statement, entity);
+			if (++pending >= getBatchFlushSize()) {
+				count += countUpdates(session.flushStatements());
+				pending = 0;
+			}
+		}
+		count += countUpdates(session.flushStatements());
+		session.commit();
+		return count;
+	}
+
+	private int countUpdates(List<BatchResult> batchResults) {
+		int count = 0;
+		for (BatchResult batchResult : batchResults) {
+			for (int updateCount : batchResult.getUpdateCounts()) {
+				if (updateCount == Statement.SUCCESS_NO_INFO) {
+					// the driver doesn't tell, but the statement succeeded.
+					count++;
+				} else if (updateCount > 0) {
+					count += updateCount;
+				}
+			}
+		}
+		return count;
+	}
+
+	public <T> CompletableFuture<T> selectOneAsync(final String statement, final Object parameter) {
+		Map<String, SqlSessionFactory> dsMap = lookupReadDataSourcesAsync(statement, parameter);
+		if (MapUtils.isEmpty(dsMap)) {
+			return completeInCallerThread(new Supplier<T>() {
+				public T get() {
+					return SpringSqlSessionTemplate.super.selectOne(statement, parameter);
+				}
+			});
+		}
+		SqlSessionCallback<T> action = timed(statement, new SqlSessionCallback<T>() {
+			public T doInSqlSession(SqlSession executor) throws SQLException {
+				return executor.selectOne(statement, parameter);
+			}
+		});
+		// executeAsync never completes with partial results, a failed shard
+		// fails the future, so the merger always sees every shard.
+		final IMerger<Object, Object> merger = (dsMap.size() > 1) ? mergerOf(statement) : null;
+		return releaseWhenDone(executeAsync(action, dsMap).thenApply(new Function<List<T>, T>() {
+			@SuppressWarnings("unchecked")
+			public T apply(List<T> results) {
+				return (merger == null) ? results.get(0) : (T) merger.merge((List<Object>) results);
+			}
+		}), dsMap);
+	}
+
+	public <E> CompletableFuture<List<E>> selectListAsync(String statement, Object parameter) {
+		return selectListAsync(statement, parameter, null);
+	}
+
+	public <E> CompletableFuture<List<E>> selectListAsync(final String statement, final Object parameter,
+			final RowBounds rowBounds) {
+		Map<String, SqlSessionFactory> dsMap = lookupReadDataSourcesAsync(statement, parameter);
+		if (MapUtils.isEmpty(dsMap)) {
+			return completeInCallerThread(new Supplier<List<E>>() {
+				public List<E> get() {
+					return (rowBounds == null) ? SpringSqlSessionTemplate.super.<E> selectList(statement, parameter)
+							: SpringSqlSessionTemplate.super.<E> selectList(statement, parameter, rowBounds);
+				}
+			});
+		}
+		SqlSessionCallback<List<E>> action = timed(statement, new SqlSessionCallback<List<E>>() {
+			public List<E> doInSqlSession(SqlSession executor) throws SQLException {
+				return (rowBounds == null) ? executor.<E> selectList(statement, parameter)
+						: executor.<E> selectList(statement, parameter, rowBounds);
+			}
+		});
+		final IMerger<Object, Object> merger = (dsMap.size() > 1) ? mergerOf(statement) : null;
+		return releaseWhenDone(executeAsync(action, dsMap).thenApply(new Function<List<List<E>>, List<E>>() {
+			@SuppressWarnings("unchecked")
+			public List<E> apply(List<List<E>> results) {
+				if (results.size() == 1) {
+					return results.get(0);
+				}
+				if (merger != null) {
+					return (List<E>) merger.merge((List<Object>) (List<?>) results);
+				}
+				return concatenate(results);
+			}
+		}), dsMap);
+	}
+
+	public <K, V> CompletableFuture<Map<K, V>> selectMapAsync(final String statement, final Object parameter,
+			final String mapKey) {
+		Map<String, SqlSessionFactory> dsMap = lookupReadDataSourcesAsync(statement, parameter);
+		if (MapUtils.isEmpty(dsMap)) {
+			return completeInCallerThread(new Supplier<Map<K, V>>() {
+				public Map<K, V> get() {
+					return SpringSqlSessionTemplate.super.selectMap(statement, parameter, mapKey);
+				}
+			});
+		}
+		SqlSessionCallback<Map<K, V>> action = timed(statement, new SqlSessionCallback<Map<K, V>>() {
+			public Map<K, V> doInSqlSession(SqlSession executor) throws SQLException {
+				return executor.selectMap(statement, parameter, mapKey);
+			}
+		});
+		return releaseWhenDone(executeAsync(action, dsMap).thenApply(new Function<List<Map<K, V>>, Map<K, V>>() {
+			public Map<K, V> apply(List<Map<K, V>> results) {
+				if (results.size() == 1) {
+					return results.get(0);
+				}
+				return mergeMaps(results);
+			}
+		}), dsMap);
+	}
+
+	public CompletableFuture<Integer> insertAsync(final String statement, final Object parameter) {
+		SortedMap<String, SqlSessionFactory> dsMap = lookupDataSourcesAsync(statement, parameter);
+		if (MapUtils.isEmpty(dsMap)) {
+			return completeInCallerThread(new Supplier<Integer>() {
+				public Integer get() {
+					return SpringSqlSessionTemplate.super.insert(statement, parameter);
+				}
+			});
+		}
+		return sumAsync(timed(statement, new SqlSessionCallback<Integer>() {
+			public Integer doInSqlSession(SqlSession executor) throws SQLException {
+				return executor.insert(statement, parameter);
+			}
+		}), dsMap);
+	}
+
+	public CompletableFuture<Integer> updateAsync(final String statement, final Object parameter) {
+		SortedMap<String, SqlSessionFactory> dsMap = lookupDataSourcesAsync(statement, parameter);
+		if (MapUtils.isEmpty(dsMap)) {
+			return completeInCallerThread(new Supplier<Integer>() {
+				public Integer get() {
+					return SpringSqlSessionTemplate.super.update(statement, parameter);
+				}
+			});
+		}
+		return sumAsync(timed(statement, new SqlSessionCallback<Integer>() {
+			public Integer doInSqlSession(SqlSession executor) throws SQLException {
+				return executor.update(statement, parameter);
+			}
+		}), dsMap);
+	}
+
+	public CompletableFuture<Integer> deleteAsync(final String statement, final Object parameter) {
+		SortedMap<String, SqlSessionFactory> dsMap = lookupDataSourcesAsync(statement, parameter);
+		if (MapUtils.isEmpty(dsMap)) {
+			return completeInCallerThread(new Supplier<Integer>() {
+				public Integer get() {
+					return SpringSqlSessionTemplate.super.delete(statement, parameter);
+				}
+			});
+		}
+		return sumAsync(timed(statement, new SqlSessionCallback<Integer>() {
+			public Integer doInSqlSession(SqlSession executor) throws SQLException {
+				return executor.delete(statement, parameter);
+			}
+		}), dsMap);
+	}
+
+	private SortedMap<String, SqlSessionFactory> lookupDataSourcesAsync(String statement, Object parameter) {
+		return isPartitioningBehaviorEnabled() ? lookupDataSourcesByRouter(statement, parameter) : null;
+	}
+
+	private Map<String, SqlSessionFactory> lookupReadDataSourcesAsync(String statement, Object parameter) {
+		return isPartitioningBehaviorEnabled() ? lookupReadDataSourcesByRouter(statement, parameter) : null;
+	}
+
+	private <T> CompletableFuture<T> releaseWhenDone(CompletableFuture<T> future,
+			final Map<String, SqlSessionFactory> dsMap) {
+		if (!isReadWriteSplittingEnabled()) {
+			return future;
+		}
+		return future.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T result, Throwable failure) {
+				releaseReadDataSources(dsMap);
+			}
+		});
+	}
+
+	private CompletableFuture<Integer> sumAsync(SqlSessionCallback<Integer> action,
+			SortedMap<String, SqlSessionFactory> dsMap) {
+		return executeAsync(action, dsMap).thenApply(new Function<List<Integer>, Integer>() {
+			public Integer apply(List<Integer> results) {
+				int sum = 0;
+				for (Integer result : results) {
+					sum += result;
+				}
+				return sum;
+			}
+		});
+	}
+
+	/**
+	 * execute the action on each of the data sources with the executor of the
+	 * data source, without the {@link IConcurrentRequestProcessor}, so its
+	 * timeouts, hedging and partial results don't apply, and a saturated
+	 * executor with {@link ThreadPoolExecutor.CallerRunsPolicy} runs the action
+	 * in the calling thread, see {@link AsyncSqlSessionOperations}.
+	 * 
+	 * @return a future of the results in the order of the data sources.
+	 */
+	protected <T> CompletableFuture<List<T>> executeAsync(final SqlSessionCallback<T> action,
+			Map<String, SqlSessionFactory> dsMap) {
+		final List<CompletableFuture<T>> futures = new ArrayList<CompletableFuture<T>>(dsMap.size());
+		for (Map.Entry<String, SqlSessionFactory> entry : dsMap.entrySet()) {
+			final SqlSessionFactory sessionFactory = entry.getValue();
+			final SqlSessionCallback<T> shardAction = onShard(action, entry.getKey());
+			Supplier<T> supplier = new Supplier<T>() {
+				public T get() {
+					return executeWith(sessionFactory, shardAction);
+				}
+			};
+			ExecutorService executor = executorOf(entry.getKey());
+			futures.add((executor == null) ? completeInCallerThread(supplier)
+					: CompletableFuture.supplyAsync(supplier, executor));
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+				.thenApply(new Function<Void, List<T>>() {
+					public List<T> apply(Void ignored) {
+						List<T> results = new ArrayList<T>(futures.size());
+						for (CompletableFuture<T> future : futures) {
+							results.add(future.join());
+						}
+						return results;
+					}
+				});
+	}
+
+	private static <T> CompletableFuture<T> completeInCallerThread(Supplier<T> supplier) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		try {
+			future.complete(supplier.get());
+		} catch (Throwable t) {
+			future.completeExceptionally(t);
+		}
+		return future;
+	}
+
 	protected <T> T executeWith(SqlSession session, SqlSessionCallback<T> action) {
 		try {
 			return action.doInSqlSession(session);
@@ -395,15 +1134,15 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 		}
 	}
 
-	@SuppressWarnings("rawtypes")
-	public List<Object> executeInConcurrency2(SqlSessionCallback action, SortedMap<String, SqlSessionFactory> dsMap) {
+	public List<Object> executeInConcurrency2(SqlSessionCallback<?> action, SortedMap<String, SqlSessionFactory> dsMap) {
 		List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
 
 		for (Map.Entry<String, SqlSessionFactory> entry : dsMap.entrySet()) {
 			ConcurrentRequest request = new ConcurrentRequest();
-			request.setAction(action);
+			request.setAction(onShard(action, entry.getKey()));
 			request.setSessionFactory(entry.getValue());
-			request.setExecutor(getDataSourceSpecificExecutors().get(entry.getKey()));
+			request.setExecutor(executorOf(entry.getKey()));
+			request.setIdentity(entry.getKey());
 			request.setSessionFactory(entry.getValue());
 			requests.add(request);
 		}
@@ -452,15 +1191,15 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 		}
 	}
 
-	@SuppressWarnings("rawtypes")
-	public List<Object> executeInConcurrency(SqlSessionCallback action, SortedMap<String, SqlSessionFactory> dsMap) {
+	public List<Object> executeInConcurrency(SqlSessionCallback<?> action, SortedMap<String, SqlSessionFactory> dsMap) {
 		List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
 
 		for (Map.Entry<String, SqlSessionFactory> entry : dsMap.entrySet()) {
 			ConcurrentRequest request = new ConcurrentRequest();
-			request.setAction(action);
+			request.setAction(onShard(action, entry.getKey()));
 			request.setSessionFactory(entry.getValue());
-			request.setExecutor(getDataSourceSpecificExecutors().get(entry.getKey()));
+			request.setExecutor(executorOf(entry.getKey()));
+			request.setIdentity(entry.getKey());
 			requests.add(request);
 		}
 
@@ -468,6 +1207,156 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 		return results;
 	}
 
+	private static String firstIdentityOf(Map<String, SqlSessionFactory> dsMap) {
+		return dsMap.keySet().iterator().next();
+	}
+
+	/**
+	 * the data sources to read from for the sql action, each data source is
+	 * replaced with one of its replicas if reads go to replicas, in the order
+	 * of the data sources, whatever the identities of the replicas.
+	 */
+	private Map<String, SqlSessionFactory> lookupReadDataSourcesByRouter(String statement, Object parameter) {
+		SortedMap<String, SqlSessionFactory> dsMap = lookupDataSourcesByRouter(statement, parameter);
+		if (MapUtils.isEmpty(dsMap) || !isReadingFromReplicas()) {
+			return dsMap;
+		}
+		return readDataSourcesOf(dsMap);
+	}
+
+	/**
+	 * reads go to replicas if read/write splitting is enabled, except the ones
+	 * in a transaction, which go to the data sources themselves so that they
+	 * see the writes of the transaction.
+	 */
+	private boolean isReadingFromReplicas() {
+		return isReadWriteSplittingEnabled() && !TransactionSynchronizationManager.isActualTransactionActive();
+	}
+
+	/**
+	 * @return the replicas selected to read from in place of the data sources,
+	 *         in the same order, a data source without replicas stays.
+	 */
+	private Map<String, SqlSessionFactory> readDataSourcesOf(Map<String, SqlSessionFactory> dsMap) {
+		Map<String, SqlSessionFactory> readMap = new LinkedHashMap<String, SqlSessionFactory>(dsMap.size() * 2);
+		for (Map.Entry<String, SqlSessionFactory> entry : dsMap.entrySet()) {
+			CobarSessionFactoryDescriptor descriptor = getCobarDataSourceService()
+					.getSessionFactoryDescriptor(entry.getKey());
+			CobarReplicaDescriptor replica = (descriptor == null || CollectionUtils.isEmpty(descriptor.getReplicas()))
+					? null : getReplicaSelector().select(descriptor);
+			if (replica == null) {
+				readMap.put(entry.getKey(), entry.getValue());
+			} else {
+				readMap.put(replica.getIdentity(), replica.getTargetSqlSessionFactory());
+			}
+		}
+		return readMap;
+	}
+
+	/**
+	 * hand the replicas read from back to the {@link IReplicaSelector}.
+	 */
+	private void releaseReadDataSources(Map<String, SqlSessionFactory> dsMap) {
+		if (!isReadWriteSplittingEnabled() || dsMap == null) {
+			return;
+		}
+		for (String identity : dsMap.keySet()) {
+			getReplicaSelector().release(identity);
+		}
+	}
+
+	/**
+	 * same as {@link #executeInConcurrency(SqlSessionCallback, SortedMap)},
+	 * except that the requests carry the replicas of their data sources, so
+	 * that the processor may hedge them or answer them with partial results,
+	 * in which case the missing results are null. only side-effect free
+	 * actions should go here.
+	 */
+	public List<Object> executeReadInConcurrency(SqlSessionCallback<?> action,
+			Map<String, SqlSessionFactory> dsMap) {
+		return executeReadInConcurrency(action, dsMap, true);
+	}
+
+	/**
+	 * same as {@link #executeReadInConcurrency(SqlSessionCallback, Map)},
+	 * except that the results are never partial if partialResultAcceptable is
+	 * false, e.g. when they are merged into an aggregate such as a COUNT or a
+	 * SUM: a missing shard fails the whole fan-out then.
+	 */
+	public List<Object> executeReadInConcurrency(SqlSessionCallback<?> action,
+			Map<String, SqlSessionFactory> dsMap, boolean partialResultAcceptable) {
+		List<ConcurrentRequest> requests = new ArrayList<ConcurrentRequest>();
+
+		for (Map.Entry<String, SqlSessionFactory> entry : dsMap.entrySet()) {
+			ConcurrentRequest request = new ConcurrentRequest();
+			request.setAction(onShard(action, entry.getKey()));
+			request.setSessionFactory(entry.getValue());
+			request.setExecutor(executorOf(entry.getKey()));
+			request.setIdentity(entry.getKey());
+			request.setRead(true);
+			request.setPartialResultAcceptable(partialResultAcceptable);
+			request.setReplicaRequests(replicaRequestsOf(request));
+			requests.add(request);
+		}
+
+		return getConcurrentRequestProcessor().process(requests);
+	}
+
+	/**
+	 * the requests the request may be hedged with: the same request against
+	 * the other replicas of the data source, or against the data source itself
+	 * if the request goes to its only replica.
+	 */
+	private List<ConcurrentRequest> replicaRequestsOf(ConcurrentRequest request) {
+		CobarSessionFactoryDescriptor descriptor = getCobarDataSourceService()
+				.getSessionFactoryDescriptor(request.getIdentity());
+		if (descriptor == null || CollectionUtils.isEmpty(descriptor.getReplicas())) {
+			return Collections.emptyList();
+		}
+		List<ConcurrentRequest> replicaRequests = new ArrayList<ConcurrentRequest>(descriptor.getReplicas().size());
+		for (CobarReplicaDescriptor replica : descriptor.getReplicas()) {
+			if (!replica.getIdentity().equals(request.getIdentity())) {
+				replicaRequests.add(
+						replicaRequestOf(request, replica.getIdentity(), replica.getTargetSqlSessionFactory()));
+			}
+		}
+		if (replicaRequests.isEmpty() && !descriptor.getIdentity().equals(request.getIdentity())) {
+			replicaRequests.add(
+					replicaRequestOf(request, descriptor.getIdentity(), descriptor.getTargetSqlSessionFactory()));
+		}
+		return replicaRequests;
+	}
+
+	/**
+	 * the executor of the data source or replica, a replica which has no
+	 * executor of its own, say, the executors are injected for the data
+	 * sources only, shares the one of its data source.
+	 */
+	private ExecutorService executorOf(String identity) {
+		ExecutorService executor = getDataSourceSpecificExecutors().get(identity);
+		if (executor == null && getCobarDataSourceService() != null) {
+			CobarSessionFactoryDescriptor descriptor = getCobarDataSourceService()
+					.getSessionFactoryDescriptor(identity);
+			if (descriptor != null) {
+				executor = getDataSourceSpecificExecutors().get(descriptor.getIdentity());
+			}
+		}
+		return executor;
+	}
+
+	private ConcurrentRequest replicaRequestOf(ConcurrentRequest request, String identity,
+			SqlSessionFactory sessionFactory) {
+		ConcurrentRequest replicaRequest = new ConcurrentRequest();
+		replicaRequest.setAction(onShard(request.getAction(), identity));
+		replicaRequest.setSessionFactory(sessionFactory);
+		ExecutorService executor = executorOf(identity);
+		replicaRequest.setExecutor((executor == null) ? request.getExecutor() : executor);
+		replicaRequest.setIdentity(identity);
+		replicaRequest.setRead(request.isRead());
+		replicaRequest.setPartialResultAcceptable(request.isPartialResultAcceptable());
+		return replicaRequest;
+	}
+
 	@Override
 	public void afterPropertiesSet() {
 		setupDefaultExecutorServicesIfNecessary();
@@ -475,6 +1364,10 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 		if (getConcurrentRequestProcessor() == null) {
 			setConcurrentRequestProcessor(new DefaultConcurrentRequestProcessor(getSqlSessionFactory()));
 		}
+		if (getStreamingSelectProcessor() == null && isPartitioningBehaviorEnabled()) {
+			setStreamingSelectProcessor(
+					new StreamingSelectProcessor(createStreamingExecutor(), getStreamingQueueCapacity()));
+		}
 	}
 
 	/**
@@ -486,9 +1379,11 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 	 * it's not so necessary.<br>
 	 * Most of the time, you should inject an proper {@link ISqlAuditor} which
 	 * will do SQL auditing in a asynchronous way.<br>
+	 * an {@link INonBlockingSqlAuditor} is such one, so no executor is set up for
+	 * it.<br>
 	 */
 	private void setUpDefaultSqlAuditorExecutorIfNecessary() {
-		if (sqlAuditor != null && sqlAuditorExecutor == null) {
+		if (sqlAuditor != null && !(sqlAuditor instanceof INonBlockingSqlAuditor) && sqlAuditorExecutor == null) {
 			sqlAuditorExecutor = createCustomExecutorService(1, "setUpDefaultSqlAuditorExecutorIfNecessary");
 			// 1. register executor for disposing later explicitly
 			internalExecutorServiceRegistry.add(sqlAuditorExecutor);
@@ -525,17 +1420,23 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 				Set<CobarSessionFactoryDescriptor> dataSourceDescriptors = getCobarDataSourceService()
 						.getSessionFactoryDescriptors();
 				for (CobarSessionFactoryDescriptor descriptor : dataSourceDescriptors) {
-					ExecutorService executor = createExecutorForSpecificDataSource(descriptor);
+					ExecutorService executor = createExecutorForSpecificDataSource(descriptor.getIdentity(),
+							descriptor.getPoolSize());
 					getDataSourceSpecificExecutors().put(descriptor.getIdentity(), executor);
+					for (CobarReplicaDescriptor replica : descriptor.getReplicas()) {
+						getDataSourceSpecificExecutors().put(replica.getIdentity(),
+								createExecutorForSpecificDataSource(replica.getIdentity(), replica.getPoolSize()));
+					}
 				}
 			}
 		}
 	}
 
-	private ExecutorService createExecutorForSpecificDataSource(CobarSessionFactoryDescriptor descriptor) {
-		final String identity = descriptor.getIdentity();
-		final ExecutorService executor = createCustomExecutorService(descriptor.getPoolSize(),
-				"createExecutorForSpecificDataSource-" + identity + " data source");
+	private ExecutorService createExecutorForSpecificDataSource(final String identity, int poolSize) {
+		final ExecutorService executor = isVirtualThreadsEnabled()
+				? new SemaphoreBoundedExecutorService(createThreadPerTaskExecutorService(identity), poolSize)
+				: createCustomExecutorService(poolSize,
+						"createExecutorForSpecificDataSource-" + identity + " data source");
 		// 1. register executor for disposing explicitly
 		internalExecutorServiceRegistry.add(executor);
 		// 2. dispose executor implicitly
@@ -557,6 +1458,64 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 		return executor;
 	}
 
+	/**
+	 * the producers of the streamed selects run as long as their selects, so
+	 * they get their own threads instead of the ones of the data sources.<br>
+	 * the threads are bounded by {@link #streamingPoolSize} and handed over
+	 * without a queue, a producer that finds no thread left waits a moment for
+	 * one to be given back and is rejected after that, which fails its select,
+	 * see {@link StreamingSelectProcessor}.
+	 */
+	private ExecutorService createStreamingExecutor() {
+		int poolSize = getStreamingPoolSize();
+		if (poolSize <= 0) {
+			for (CobarSessionFactoryDescriptor descriptor : getCobarDataSourceService().getSessionFactoryDescriptors()) {
+				poolSize += descriptor.getPoolSize();
+				for (CobarReplicaDescriptor replica : descriptor.getReplicas()) {
+					poolSize += replica.getPoolSize();
+				}
+			}
+		}
+		ExecutorService executor = new ThreadPoolExecutor(0, Math.max(1, poolSize), 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "streaming select thread created at CobarSqlMapClientTemplate");
+						t.setDaemon(true);
+						return t;
+					}
+				}, new RejectedExecutionHandler() {
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+						try {
+							if (!executor.isShutdown() && executor.getQueue().offer(r,
+									STREAMING_HAND_OFF_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+								return;
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						throw new RejectedExecutionException("no streaming select thread is available.");
+					}
+				});
+		internalExecutorServiceRegistry.add(executor);
+		return executor;
+	}
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively, so
+	 * that the code still compiles and runs against older runtimes as long as
+	 * {@link #virtualThreadsEnabled} is false.
+	 */
+	private ExecutorService createThreadPerTaskExecutorService(final String identity) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("virtual threads are enabled, but they are not available in java "
+					+ System.getProperty("java.version") + ", they need java 21 or later.", e);
+		} catch (Exception e) {
+			throw new IllegalStateException("failed to create virtual thread executor for data source:" + identity, e);
+		}
+	}
+
 	private ExecutorService createCustomExecutorService(int poolSize, final String method) {
 		int coreSize = Runtime.getRuntime().availableProcessors();
 		if (poolSize < coreSize) {
@@ -576,24 +1535,127 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 		return executor;
 	}
 
+	/**
+	 * wraps the action so that its execution is timed and reported to
+	 * {@link #sqlExecutionAuditor} with the statement and the shard it's
+	 * executed on, the action is returned as it is if there is no such
+	 * auditor.<br>
+	 * the action is executed on each of the shards when it's fanned out, so
+	 * the shard is told when the request of each shard is made, see
+	 * {@link #onShard(SqlSessionCallback, String)}.
+	 */
+	protected <T> SqlSessionCallback<T> timed(String statement, SqlSessionCallback<T> action) {
+		return timed(statement, null, action);
+	}
+
+	/**
+	 * @param shard,
+	 *            the identity of the data source the action is executed on.
+	 */
+	protected <T> SqlSessionCallback<T> timed(String statement, String shard, SqlSessionCallback<T> action) {
+		ISqlExecutionAuditor auditor = getSqlExecutionAuditor();
+		if (auditor == null) {
+			return action;
+		}
+		return new TimedSqlSessionCallback<T>(auditor, statement, shard, action);
+	}
+
+	/**
+	 * @return the action reporting its executions with the shard if it's timed,
+	 *         the action itself otherwise.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <T> SqlSessionCallback<T> onShard(SqlSessionCallback<T> action, String shard) {
+		if (action instanceof TimedSqlSessionCallback) {
+			return ((TimedSqlSessionCallback) action).onShard(shard);
+		}
+		return action;
+	}
+
+	private class TimedSqlSessionCallback<T> implements SqlSessionCallback<T> {
+		private final ISqlExecutionAuditor auditor;
+		private final String statement;
+		private final String shard;
+		private final SqlSessionCallback<T> action;
+
+		TimedSqlSessionCallback(ISqlExecutionAuditor auditor, String statement, String shard,
+				SqlSessionCallback<T> action) {
+			this.auditor = auditor;
+			this.statement = statement;
+			this.shard = shard;
+			this.action = action;
+		}
+
+		TimedSqlSessionCallback<T> onShard(String shard) {
+			return new TimedSqlSessionCallback<T>(auditor, statement, shard, action);
+		}
+
+		public T doInSqlSession(SqlSession session) throws SQLException {
+			long start = System.nanoTime();
+			Throwable failure = null;
+			try {
+				return action.doInSqlSession(session);
+			} catch (SQLException e) {
+				failure = e;
+				throw e;
+			} catch (RuntimeException e) {
+				failure = e;
+				throw e;
+			} catch (Error e) {
+				failure = e;
+				throw e;
+			} finally {
+				long elapsed = System.nanoTime() - start;
+				try {
+					auditor.auditExecution(statement, shard, elapsed, failure);
+				} catch (Throwable t) {
+					logger.warn("failed to audit the execution of " + statement, t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * audits each of the statements routed by the template.<br>
+	 * an {@link INonBlockingSqlAuditor} never blocks, so it's fed in the calling
+	 * thread, the other auditors are called on {@link #sqlAuditorExecutor}.
+	 */
 	protected void auditSqlIfNecessary(final String statementName, final Object parameterObject) {
-		if (getSqlAuditor() != null) {
+		if (getSqlAuditor() instanceof INonBlockingSqlAuditor) {
+			auditSql(statementName, parameterObject);
+		} else if (getSqlAuditor() != null) {
 			getSqlAuditorExecutor().execute(new Runnable() {
 				public void run() {
-					getSqlAuditor().audit(statementName, getSqlByStatementName(statementName, parameterObject),
-							parameterObject);
+					auditSql(statementName, parameterObject);
 				}
 			});
 		}
 	}
 
+	/**
+	 * auditing must not fail the data access, say, the statement is not known
+	 * to the default configuration, so the failures are logged only.
+	 */
+	private void auditSql(String statementName, Object parameterObject) {
+		try {
+			getSqlAuditor().audit(statementName, getSqlByStatementName(statementName, parameterObject),
+					parameterObject);
+		} catch (Throwable t) {
+			logger.warn("failed to audit sql statement:{}\n{}", statementName, t);
+		}
+	}
+
+	/**
+	 * the sql of a static statement is computed once and cached with the
+	 * other metadata of the statement, a dynamic statement only returns its
+	 * id.
+	 */
 	protected String getSqlByStatementName(String statementName, Object parameterObject) {
-		SqlSource sqlSource = getSqlSessionFactory().openSession().getConfiguration().getMappedStatement(statementName)
-				.getSqlSource();
-		if (sqlSource instanceof StaticSqlSource) {
-			return sqlSource.getBoundSql(statementName).getSql();
+		StatementMetadata metadata = statementMetadataCache.get(statementName);
+		if (metadata.isStaticSql()) {
+			return metadata.getSql();
 		} else {
-			logger.info("dynamic sql can only return sql id.");
+			logger.debug("dynamic sql can only return sql id.");
 			return statementName;
 		}
 	}
@@ -659,6 +1721,18 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 		this.dataSourceSpecificExecutors = dataSourceSpecificExecutors;
 	}
 
+	public ISqlExecutionAuditor getSqlExecutionAuditor() {
+		return sqlExecutionAuditor;
+	}
+
+	public void setSqlExecutionAuditor(ISqlExecutionAuditor sqlExecutionAuditor) {
+		this.sqlExecutionAuditor = sqlExecutionAuditor;
+	}
+
+	public void setSqlAuditor(ISqlAuditor sqlAuditor) {
+		this.sqlAuditor = sqlAuditor;
+	}
+
 	public ISqlAuditor getSqlAuditor() {
 		return sqlAuditor;
 	}
@@ -671,4 +1745,100 @@ public class SpringSqlSessionTemplate extends SqlSessionTemplate implements Disp
 		return sqlAuditorExecutor;
 	}
 
+	public boolean isInListScatterEnabled() {
+		return inListScatterEnabled;
+	}
+
+	public void setInListScatterEnabled(boolean inListScatterEnabled) {
+		this.inListScatterEnabled = inListScatterEnabled;
+	}
+
+	public int getStreamingQueueCapacity() {
+		return streamingQueueCapacity;
+	}
+
+	public void setStreamingQueueCapacity(int streamingQueueCapacity) {
+		Validate.isTrue(streamingQueueCapacity > 0, "streamingQueueCapacity must be positive.");
+		this.streamingQueueCapacity = streamingQueueCapacity;
+	}
+
+	public int getStreamingPoolSize() {
+		return streamingPoolSize;
+	}
+
+	/**
+	 * @param streamingPoolSize,
+	 *            0 or less for the sum of the pool sizes of the shards.
+	 */
+	public void setStreamingPoolSize(int streamingPoolSize) {
+		this.streamingPoolSize = streamingPoolSize;
+	}
+
+	public StreamingSelectProcessor getStreamingSelectProcessor() {
+		return streamingSelectProcessor;
+	}
+
+	public void setStreamingSelectProcessor(StreamingSelectProcessor streamingSelectProcessor) {
+		this.streamingSelectProcessor = streamingSelectProcessor;
+	}
+
+	public boolean isCompositeListResultsEnabled() {
+		return compositeListResultsEnabled;
+	}
+
+	public void setCompositeListResultsEnabled(boolean compositeListResultsEnabled) {
+		this.compositeListResultsEnabled = compositeListResultsEnabled;
+	}
+
+	public boolean isShardedPaginationEnabled() {
+		return shardedPaginationEnabled;
+	}
+
+	public void setShardedPaginationEnabled(boolean shardedPaginationEnabled) {
+		this.shardedPaginationEnabled = shardedPaginationEnabled;
+	}
+
+	public Map<String, Comparator<?>> getOrderComparators() {
+		return orderComparators;
+	}
+
+	public void setOrderComparators(Map<String, Comparator<?>> orderComparators) {
+		Validate.notNull(orderComparators);
+		this.orderComparators = orderComparators;
+	}
+
+	public boolean isReadWriteSplittingEnabled() {
+		return readWriteSplittingEnabled;
+	}
+
+	public void setReadWriteSplittingEnabled(boolean readWriteSplittingEnabled) {
+		this.readWriteSplittingEnabled = readWriteSplittingEnabled;
+	}
+
+	public IReplicaSelector getReplicaSelector() {
+		return replicaSelector;
+	}
+
+	public void setReplicaSelector(IReplicaSelector replicaSelector) {
+		Validate.notNull(replicaSelector);
+		this.replicaSelector = replicaSelector;
+	}
+
+	public boolean isVirtualThreadsEnabled() {
+		return virtualThreadsEnabled;
+	}
+
+	public void setVirtualThreadsEnabled(boolean virtualThreadsEnabled) {
+		this.virtualThreadsEnabled = virtualThreadsEnabled;
+	}
+
+	public int getBatchFlushSize() {
+		return batchFlushSize;
+	}
+
+	public void setBatchFlushSize(int batchFlushSize) {
+		Validate.isTrue(batchFlushSize > 0, "batch flush size must be positive.");
+		this.batchFlushSize = batchFlushSize;
+	}
+
 }
@@ -18,10 +18,13 @@ package cn.yy.cobar.client.spring;
 
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
 
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
 
+import cn.yy.cobar.client.support.vo.BatchInsertTask;
+
 public interface SqlSessionOperations {
 
 	/**
@@ -208,6 +211,18 @@ public interface SqlSessionOperations {
 	 */
 	int insert(String statement, Object parameter);
 
+	/**
+	 * Execute an insert statement for each of the entities of the task, the
+	 * entities are grouped by shard and inserted in batches.
+	 * 
+	 * @param statement
+	 *            Unique identifier matching the statement to execute.
+	 * @param task
+	 *            The entities to insert.
+	 * @return The number of rows affected of each shard.
+	 */
+	SortedMap<String, Integer> batchInsert(String statement, BatchInsertTask task);
+
 	/**
 	 * Execute an update statement. The number of rows affected will be
 	 * returned.
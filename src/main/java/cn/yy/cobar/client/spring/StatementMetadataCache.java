@@ -0,0 +1,73 @@
+package cn.yy.cobar.client.spring;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlSource;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
+import org.apache.ibatis.session.Configuration;
+
+/**
+ * metadata of the mapped statements keyed by the statement ids, looked up in
+ * the configuration once per statement, so that reading it on the data path
+ * takes neither a session nor an allocation.<br>
+ * the sql of a statement without dynamic elements doesn't depend on the
+ * parameter, so it's computed once as well, the sql of a dynamic statement is
+ * only known when it's bound to a parameter.<br>
+ */
+class StatementMetadataCache {
+
+	private final Configuration configuration;
+
+	private final ConcurrentMap<String, StatementMetadata> metadataByStatement = new ConcurrentHashMap<String, StatementMetadata>();
+
+	StatementMetadataCache(Configuration configuration) {
+		this.configuration = configuration;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if there is no mapped statement of the id.
+	 */
+	StatementMetadata get(String statement) {
+		StatementMetadata metadata = metadataByStatement.get(statement);
+		if (metadata == null) {
+			metadata = new StatementMetadata(configuration.getMappedStatement(statement));
+			StatementMetadata existing = metadataByStatement.putIfAbsent(statement, metadata);
+			if (existing != null) {
+				metadata = existing;
+			}
+		}
+		return metadata;
+	}
+
+	static class StatementMetadata {
+		private final MappedStatement mappedStatement;
+		private final boolean staticSql;
+		private final String sql;
+
+		StatementMetadata(MappedStatement mappedStatement) {
+			SqlSource sqlSource = mappedStatement.getSqlSource();
+			this.mappedStatement = mappedStatement;
+			this.staticSql = (sqlSource instanceof StaticSqlSource || sqlSource instanceof RawSqlSource);
+			this.sql = staticSql ? sqlSource.getBoundSql(null).getSql() : null;
+		}
+
+		MappedStatement getMappedStatement() {
+			return mappedStatement;
+		}
+
+		boolean isStaticSql() {
+			return staticSql;
+		}
+
+		/**
+		 * @return the sql of a static statement, null for a dynamic one.
+		 */
+		String getSql() {
+			return sql;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.support;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache for concurrent access which evicts entries in a near-LRU
+ * order.<br>
+ * unlike {@link LRUMap}, which has to re-order its entries on every read, reads
+ * here go to a {@link ConcurrentHashMap} without any lock and only mark the
+ * entry as referenced. entries are kept in a fixed-size ring, when a new entry
+ * needs a slot, a clock hand sweeps the ring, gives referenced entries a second
+ * chance and evicts the first one that has not been referenced since the last
+ * sweep (the CLOCK algorithm).<br>
+ * only insertions of new keys and removals are serialized, which is fine for
+ * caches that are read far more than they are written, like routing result
+ * caches. a removed entry gives its slot back right away, so it's taken by the
+ * next insertion before any entry is evicted.<br>
+ * null values are not cached, {@link #get(Object)} returns null for misses.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class ConcurrentLRUCache<K, V> {
+
+	private final int capacity;
+
+	private final ConcurrentHashMap<K, Node<K, V>> entries;
+
+	/**
+	 * guards {@link #ring}, {@link #hand}, {@link #occupied} and
+	 * {@link #freeSlots}.
+	 */
+	private final ReentrantLock insertionLock = new ReentrantLock();
+	private final Node<K, V>[] ring;
+	private int hand;
+	private int occupied;
+	/**
+	 * the slots below {@link #occupied} given back by removed entries, used as
+	 * a stack of {@link #freeCount} slots.
+	 */
+	private final int[] freeSlots;
+	private int freeCount;
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	@SuppressWarnings("unchecked")
+	public ConcurrentLRUCache(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity of cache must be positive, but was:" + capacity);
+		}
+		this.capacity = capacity;
+		this.entries = new ConcurrentHashMap<K, Node<K, V>>(capacity + (capacity >>> 1) + 1);
+		this.ring = (Node<K, V>[]) new Node<?, ?>[capacity];
+		this.freeSlots = new int[capacity];
+	}
+
+	public V get(Object key) {
+		Node<K, V> node = entries.get(key);
+		if (node == null) {
+			missCount.increment();
+			return null;
+		}
+		if (!node.referenced) {
+			node.referenced = true;
+		}
+		hitCount.increment();
+		return node.value;
+	}
+
+	public void put(K key, V value) {
+		if (key == null || value == null) {
+			throw new IllegalArgumentException("null key or value is not allowed in cache.");
+		}
+		Node<K, V> node = entries.get(key);
+		if (node != null) {
+			node.value = value;
+			return;
+		}
+
+		insertionLock.lock();
+		try {
+			node = entries.get(key);
+			if (node != null) {
+				node.value = value;
+				return;
+			}
+			node = new Node<K, V>(key, value);
+			node.slot = claimSlot();
+			ring[node.slot] = node;
+			entries.put(key, node);
+		} finally {
+			insertionLock.unlock();
+		}
+	}
+
+	public V remove(Object key) {
+		insertionLock.lock();
+		try {
+			Node<K, V> node = entries.remove(key);
+			if (node == null) {
+				return null;
+			}
+			if (ring[node.slot] == node) {
+				ring[node.slot] = null;
+				freeSlots[freeCount++] = node.slot;
+			}
+			return node.value;
+		} finally {
+			insertionLock.unlock();
+		}
+	}
+
+	public boolean containsKey(Object key) {
+		return entries.containsKey(key);
+	}
+
+	public void clear() {
+		insertionLock.lock();
+		try {
+			entries.clear();
+			Arrays.fill(ring, null);
+			hand = 0;
+			occupied = 0;
+			freeCount = 0;
+		} finally {
+			insertionLock.unlock();
+		}
+	}
+
+	/**
+	 * must be called with {@link #insertionLock} held.
+	 */
+	private int claimSlot() {
+		if (freeCount > 0) {
+			return freeSlots[--freeCount];
+		}
+		if (occupied < capacity) {
+			return occupied++;
+		}
+		// at most two rounds, the first round clears all of the reference bits.
+		while (true) {
+			int slot = hand;
+			hand = (hand + 1 == capacity) ? 0 : hand + 1;
+
+			Node<K, V> candidate = ring[slot];
+			if (candidate == null) {
+				return slot;
+			}
+			if (candidate.referenced) {
+				candidate.referenced = false;
+				continue;
+			}
+			if (entries.remove(candidate.key, candidate)) {
+				evictionCount.increment();
+			}
+			return slot;
+		}
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "ConcurrentLRUCache [capacity=" + capacity + ", size=" + size() + ", hitCount=" + getHitCount()
+				+ ", missCount=" + getMissCount() + ", evictionCount=" + getEvictionCount() + "]";
+	}
+
+	private static final class Node<K, V> {
+		private final K key;
+		private volatile V value;
+		private volatile boolean referenced;
+		/**
+		 * the slot of the entry in the ring, only accessed with the insertion
+		 * lock held.
+		 */
+		private int slot;
+
+		Node(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+}
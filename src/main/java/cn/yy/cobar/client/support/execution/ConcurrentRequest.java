@@ -15,8 +15,11 @@
  */
 package cn.yy.cobar.client.support.execution;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSessionFactory;
 
 import cn.yy.cobar.client.spring.SqlSessionCallback;
@@ -29,9 +32,42 @@ import cn.yy.cobar.client.spring.SqlSessionCallback;
  * @since 1.0
  */
 public class ConcurrentRequest {
+	/**
+	 * identity of the data source the request goes to.
+	 */
+	private String identity;
 	private SqlSessionCallback<?> action;
 	private ExecutorService executor;
 	private SqlSessionFactory sessionFactory;
+	/**
+	 * the executor type of the session to open, the default one of
+	 * {@link #sessionFactory} if it's null.
+	 */
+	private ExecutorType executorType;
+	/**
+	 * the same request against the read replicas of the data source, only set
+	 * for read requests, the processor may hedge the request with them.
+	 */
+	private List<ConcurrentRequest> replicaRequests = Collections.emptyList();
+	/**
+	 * whether the action is side-effect free, only a fan-out of reads may be
+	 * answered with partial results.
+	 */
+	private boolean read;
+	/**
+	 * whether the result of the read may be left out of a partial result, not
+	 * the case when the results of the fan-out are merged into an aggregate,
+	 * which would silently be wrong without it.
+	 */
+	private boolean partialResultAcceptable = true;
+
+	public String getIdentity() {
+		return identity;
+	}
+
+	public void setIdentity(String identity) {
+		this.identity = identity;
+	}
 
 	public SqlSessionCallback<?> getAction() {
 		return action;
@@ -57,4 +93,36 @@ public class ConcurrentRequest {
 		this.sessionFactory = sessionFactory;
 	}
 
+	public ExecutorType getExecutorType() {
+		return executorType;
+	}
+
+	public void setExecutorType(ExecutorType executorType) {
+		this.executorType = executorType;
+	}
+
+	public List<ConcurrentRequest> getReplicaRequests() {
+		return replicaRequests;
+	}
+
+	public void setReplicaRequests(List<ConcurrentRequest> replicaRequests) {
+		this.replicaRequests = replicaRequests;
+	}
+
+	public boolean isRead() {
+		return read;
+	}
+
+	public void setRead(boolean read) {
+		this.read = read;
+	}
+
+	public boolean isPartialResultAcceptable() {
+		return partialResultAcceptable;
+	}
+
+	public void setPartialResultAcceptable(boolean partialResultAcceptable) {
+		this.partialResultAcceptable = partialResultAcceptable;
+	}
+
 }
@@ -0,0 +1,71 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.support.execution;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * how long the requests on a data source waited for their connections.<br>
+ * it's updated by the worker threads concurrently without locking.
+ */
+public class ConnectionAcquireStatistics {
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalWaitNanos = new LongAdder();
+	private final LongAccumulator maxWaitNanos = new LongAccumulator(new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	}, 0L);
+
+	public void record(long waitNanos) {
+		count.increment();
+		totalWaitNanos.add(waitNanos);
+		maxWaitNanos.accumulate(waitNanos);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getTotalWaitNanos() {
+		return totalWaitNanos.sum();
+	}
+
+	public long getMaxWaitNanos() {
+		return maxWaitNanos.get();
+	}
+
+	public long getAverageWaitNanos() {
+		long n = getCount();
+		return (n == 0) ? 0 : getTotalWaitNanos() / n;
+	}
+
+	public void reset() {
+		count.reset();
+		totalWaitNanos.reset();
+		maxWaitNanos.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "ConnectionAcquireStatistics [count=" + getCount() + ", averageWaitNanos=" + getAverageWaitNanos()
+				+ ", maxWaitNanos=" + getMaxWaitNanos() + "]";
+	}
+
+}
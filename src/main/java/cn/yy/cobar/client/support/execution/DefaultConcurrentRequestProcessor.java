@@ -17,25 +17,128 @@ package cn.yy.cobar.client.support.execution;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.Validate;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
 
 import cn.yy.cobar.client.spring.SqlSessionCallback;
 import cn.yy.cobar.client.support.utils.CollectionUtils;
+import cn.yy.cobar.client.support.utils.MapUtils;
 
+/**
+ * executes the requests with their executors and waits for all of them.<br>
+ * by default, the sessions of all of the requests are opened in the calling
+ * thread before any of the requests is submitted. with
+ * {@link #setLazySessionEnabled(boolean)}, each request opens and closes its
+ * own session in the worker thread instead, so the connections are acquired in
+ * parallel and are not held while the requests wait in the executors, and the
+ * time each request waits for its connection is recorded per data source, see
+ * {@link #getConnectionAcquireStatistics()}.<br>
+ * the wait can be bounded with a deadline for the whole fan-out,
+ * {@link #setRequestTimeoutMillis(long)}, and deadlines for each data source,
+ * {@link #setShardTimeoutMillis(long)}, both count from the submission. when a
+ * request fails or times out, the outstanding ones are cancelled and the
+ * failure is thrown right away, a timeout as {@link QueryTimeoutException}.
+ * with {@link #setPartialResultsEnabled(boolean)}, a fan-out of read requests,
+ * see {@link ConcurrentRequest#isRead()}, returns the results of the requests
+ * that succeed in time instead, a missing one is left as null at the position
+ * of its request and is reported to the {@link IPartialResultListener}. writes,
+ * and reads whose results must not be left out, see
+ * {@link ConcurrentRequest#isPartialResultAcceptable()}, are never answered
+ * partially.<br>
+ * with {@link #setHedgedReadsEnabled(boolean)}, a read request that has replicas
+ * is hedged: if it's still unanswered after the
+ * {@link #setHedgeDelayPercentile(double)} percentile of the recent latencies
+ * of its data source, or as soon as it fails, the same request is sent to one
+ * of the replicas, the first response is taken and the other request is
+ * cancelled.<br>
+ * 
+ * @author fujohnwang
+ * @since 1.0
+ */
 public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProcessor {
 
+	private transient final Logger logger = LoggerFactory.getLogger(DefaultConcurrentRequestProcessor.class);
+
 	private SqlSessionFactory sqlMapClient;
 
+	private boolean lazySessionEnabled = false;
+
+	private final ConcurrentMap<String, ConnectionAcquireStatistics> connectionAcquireStatistics = new ConcurrentHashMap<String, ConnectionAcquireStatistics>();
+
+	/**
+	 * deadline of the whole fan-out in milliseconds, no deadline if it's not
+	 * positive.
+	 */
+	private long requestTimeoutMillis = 0;
+	/**
+	 * deadline of the request on each data source in milliseconds, no deadline
+	 * if it's not positive.
+	 */
+	private long shardTimeoutMillis = 0;
+	/**
+	 * deadlines of the requests on specific data sources, keyed by the
+	 * identities of the data sources.
+	 */
+	private Map<String, Long> shardTimeoutMillisOverrides = new HashMap<String, Long>();
+	/**
+	 * if it's false, a failure is thrown after all of the other requests are
+	 * done.
+	 */
+	private boolean failFast = true;
+	private boolean partialResultsEnabled = false;
+	private IPartialResultListener partialResultListener;
+	/**
+	 * whether to interrupt the requests that are running when they are
+	 * cancelled, they are left to complete by default, since not all of the
+	 * jdbc drivers handle interruption well.
+	 */
+	private boolean interruptOnCancel = false;
+
+	private boolean hedgedReadsEnabled = false;
+	/**
+	 * the percentile of the recent latencies of a data source to wait for
+	 * before hedging a read request against it.
+	 */
+	private double hedgeDelayPercentile = 0.95;
+	/**
+	 * the delay to use until enough latencies of the data source are sampled.
+	 */
+	private long hedgeDelayMillis = 50;
+	/**
+	 * schedules the hedges, a daemon single thread scheduler is created if it's
+	 * not injected.
+	 */
+	private ScheduledExecutorService hedgeScheduler;
+	private final ConcurrentMap<String, LatencySampler> latencySamplers = new ConcurrentHashMap<String, LatencySampler>();
+	private final AtomicInteger replicaCursor = new AtomicInteger();
+
 	public DefaultConcurrentRequestProcessor() {
 	}
 
@@ -49,42 +152,273 @@ public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProc
 		if (CollectionUtils.isEmpty(requests))
 			return resultList;
 
-		List<RequestDepository> requestsDepo = fetchConnectionsAndDepositForLaterUse(requests);
-		final CountDownLatch latch = new CountDownLatch(requestsDepo.size());
-		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		List<RequestDepository> requestsDepo = isLazySessionEnabled() ? depositForLaterUse(requests)
+				: fetchConnectionsAndDepositForLaterUse(requests);
+		BlockingQueue<Future<Object>> completionQueue = new LinkedBlockingQueue<Future<Object>>();
+		Map<Future<Object>, Integer> indexes = new IdentityHashMap<Future<Object>, Integer>(requestsDepo.size());
+
+		long now = System.nanoTime();
+		long requestDeadline = deadlineOf(now, getRequestTimeoutMillis());
 		try {
+			for (int i = 0; i < requestsDepo.size(); i++) {
+				RequestDepository depo = requestsDepo.get(i);
+				ConcurrentRequest request = depo.getOriginalRequest();
+				depo.setDeadline(Math.min(requestDeadline, deadlineOf(now, shardTimeoutMillisOf(request))));
+				Future<Object> future = isHedgeable(request) ? submitHedged(depo, completionQueue)
+						: submit(depo, newTask(depo, now), completionQueue);
+				depo.setFuture(future);
+				indexes.put(future, i);
+			}
+		} catch (RuntimeException e) {
+			cancelOutstanding(requestsDepo);
+			throw e;
+		}
 
-			for (RequestDepository rdepo : requestsDepo) {
-				ConcurrentRequest request = rdepo.getOriginalRequest();
-				final SqlSessionCallback<?> action = request.getAction();
-				final SqlSession sqlSession = rdepo.getSqlSession();
-				futures.add(request.getExecutor().submit(new Callable<Object>() {
-					public Object call() throws Exception {
-						try {
-							return executeWith(sqlSession, action);
-						} finally {
-							latch.countDown();
+		boolean partial = isPartialResultsEnabled() && isPartialResultAcceptable(requests);
+		Object[] results = new Object[requestsDepo.size()];
+		PartialResultReport report = new PartialResultReport(requestsDepo.size());
+		RuntimeException deferredFailure = null;
+		int pending = requestsDepo.size();
+		try {
+			while (pending > 0) {
+				long deadline = earliestDeadlineOf(requestsDepo);
+				Future<Object> done = (deadline == Long.MAX_VALUE) ? completionQueue.take()
+						: completionQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if (done == null) {
+					long current = System.nanoTime();
+					for (int i = 0; i < requestsDepo.size(); i++) {
+						RequestDepository depo = requestsDepo.get(i);
+						if (depo.isResolved() || depo.getDeadline() > current) {
+							continue;
+						}
+						cancel(depo);
+						pending--;
+						QueryTimeoutException timeout = new QueryTimeoutException("request on data source ["
+								+ depo.getOriginalRequest().getIdentity() + "] didn't complete in time.");
+						if (!partial) {
+							cancelOutstanding(requestsDepo);
+							throw timeout;
 						}
+						report.addFailure(i, depo.getOriginalRequest().getIdentity(), timeout);
 					}
-				}));
+					continue;
+				}
+
+				int index = indexes.get(done);
+				RequestDepository depo = requestsDepo.get(index);
+				if (depo.isResolved()) {
+					// cancelled already.
+					continue;
+				}
+				depo.setResolved(true);
+				pending--;
+				Throwable cause;
+				try {
+					results[index] = done.get();
+					continue;
+				} catch (ExecutionException e) {
+					cause = e;
+				} catch (CancellationException e) {
+					cause = e;
+				}
+				if (partial) {
+					report.addFailure(index, depo.getOriginalRequest().getIdentity(),
+							(cause instanceof ExecutionException) ? cause.getCause() : cause);
+					continue;
+				}
+				ConcurrencyFailureException failure = new ConcurrencyFailureException(
+						"something goes wrong in processing", cause);
+				if (isFailFast()) {
+					cancelOutstanding(requestsDepo);
+					throw failure;
+				}
+				if (deferredFailure == null) {
+					deferredFailure = failure;
+				}
 			}
+		} catch (InterruptedException e) {
+			cancelOutstanding(requestsDepo);
+			throw new ConcurrencyFailureException("interrupted when processing data access request in concurrency", e);
+		}
 
-			try {
-				latch.await();
-			} catch (InterruptedException e) {
-				throw new ConcurrencyFailureException("interrupted when processing data access request in concurrency",
-						e);
+		if (deferredFailure != null) {
+			throw deferredFailure;
+		}
+		resultList.addAll(Arrays.asList(results));
+		if (!report.isComplete()) {
+			if (report.getMissingCount() == results.length) {
+				throw new ConcurrencyFailureException("none of the requests completed:" + report,
+						report.getFailures().values().iterator().next());
 			}
+			notifyPartialResult(report);
+		}
+		return resultList;
+	}
 
-		} finally {
-			for (RequestDepository depo : requestsDepo) {
-				depo.getSqlSession().close();
+	private static boolean isPartialResultAcceptable(List<ConcurrentRequest> requests) {
+		for (ConcurrentRequest request : requests) {
+			if (!request.isRead() || !request.isPartialResultAcceptable()) {
+				return false;
 			}
 		}
+		return true;
+	}
 
-		fillResultListWithFutureResults(futures, resultList);
+	private static Future<Object> submit(RequestDepository depo, Callable<Object> task,
+			BlockingQueue<Future<Object>> completionQueue) {
+		QueueingTask future = new QueueingTask(depo, task, completionQueue);
+		depo.getOriginalRequest().getExecutor().execute(future);
+		return future;
+	}
 
-		return resultList;
+	private Callable<Object> newTask(final RequestDepository depo, final long submittedAt) {
+		return new Callable<Object>() {
+			public Object call() throws Exception {
+				if (!depo.start()) {
+					// abandoned before it starts.
+					return null;
+				}
+				SqlSession session = depo.getSqlSession();
+				if (session == null) {
+					session = openSessionAndConnection(depo.getOriginalRequest());
+				}
+				Object result = executeWith(session, depo.getOriginalRequest().getAction());
+				recordLatency(depo.getOriginalRequest(), submittedAt);
+				return result;
+			}
+		};
+	}
+
+	private Callable<Object> newReplicaTask(final ConcurrentRequest replica, final long submittedAt) {
+		return new Callable<Object>() {
+			public Object call() throws Exception {
+				Object result = executeWith(openSession(replica), replica.getAction());
+				recordLatency(replica, submittedAt);
+				return result;
+			}
+		};
+	}
+
+	private boolean isHedgeable(ConcurrentRequest request) {
+		return isHedgedReadsEnabled() && CollectionUtils.isNotEmpty(request.getReplicaRequests());
+	}
+
+	private Future<Object> submitHedged(RequestDepository depo, BlockingQueue<Future<Object>> completionQueue) {
+		ConcurrentRequest request = depo.getOriginalRequest();
+		final HedgedRead read = new HedgedRead(depo, completionQueue, isInterruptOnCancel());
+		final ConcurrentRequest replica = nextReplicaOf(request);
+		read.hedge(getHedgeScheduler(), hedgeDelayNanosOf(request), new Runnable() {
+			public void run() {
+				logger.debug("hedge read request with replica [{}]", replica.getIdentity());
+				read.attempt(replica.getExecutor(), newReplicaTask(replica, System.nanoTime()));
+			}
+		});
+		read.attempt(request.getExecutor(), newTask(depo, System.nanoTime()));
+		return read;
+	}
+
+	private ConcurrentRequest nextReplicaOf(ConcurrentRequest request) {
+		List<ConcurrentRequest> replicas = request.getReplicaRequests();
+		return replicas.get((replicaCursor.getAndIncrement() & Integer.MAX_VALUE) % replicas.size());
+	}
+
+	private long hedgeDelayNanosOf(ConcurrentRequest request) {
+		LatencySampler sampler = (request.getIdentity() == null) ? null : latencySamplers.get(request.getIdentity());
+		long delay = (sampler == null) ? -1 : sampler.percentileNanos();
+		return (delay < 0) ? TimeUnit.MILLISECONDS.toNanos(getHedgeDelayMillis()) : delay;
+	}
+
+	private void recordLatency(ConcurrentRequest request, long submittedAt) {
+		if (!isHedgedReadsEnabled() || request.getIdentity() == null) {
+			return;
+		}
+		LatencySampler sampler = latencySamplers.get(request.getIdentity());
+		if (sampler == null) {
+			latencySamplers.putIfAbsent(request.getIdentity(), new LatencySampler(getHedgeDelayPercentile()));
+			sampler = latencySamplers.get(request.getIdentity());
+		}
+		sampler.record(System.nanoTime() - submittedAt);
+	}
+
+	private void cancel(RequestDepository depo) {
+		depo.setResolved(true);
+		depo.abandon();
+		if (depo.getFuture() != null) {
+			depo.getFuture().cancel(isInterruptOnCancel());
+		}
+	}
+
+	private void cancelOutstanding(List<RequestDepository> requestsDepo) {
+		for (RequestDepository depo : requestsDepo) {
+			if (!depo.isResolved()) {
+				cancel(depo);
+			}
+		}
+	}
+
+	private void notifyPartialResult(PartialResultReport report) {
+		if (getPartialResultListener() == null) {
+			logger.warn("return partial results, {}", report);
+			return;
+		}
+		try {
+			getPartialResultListener().onPartialResult(report);
+		} catch (Throwable t) {
+			logger.warn("failed to notify partial result listener:\n{}", t);
+		}
+	}
+
+	private static long deadlineOf(long now, long timeoutMillis) {
+		return (timeoutMillis > 0) ? now + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+	}
+
+	private long shardTimeoutMillisOf(ConcurrentRequest request) {
+		if (request.getIdentity() != null && MapUtils.isNotEmpty(shardTimeoutMillisOverrides)) {
+			Long timeout = shardTimeoutMillisOverrides.get(request.getIdentity());
+			if (timeout != null) {
+				return timeout;
+			}
+		}
+		return getShardTimeoutMillis();
+	}
+
+	private static long earliestDeadlineOf(List<RequestDepository> requestsDepo) {
+		long deadline = Long.MAX_VALUE;
+		for (RequestDepository depo : requestsDepo) {
+			if (!depo.isResolved() && depo.getDeadline() < deadline) {
+				deadline = depo.getDeadline();
+			}
+		}
+		return deadline;
+	}
+
+	/**
+	 * open the session of the request and make it acquire its connection, so
+	 * that the time waiting for the connection can be measured.
+	 */
+	private SqlSession openSessionAndConnection(ConcurrentRequest request) {
+		long start = System.nanoTime();
+		SqlSession session = openSession(request);
+		try {
+			session.getConnection();
+		} catch (RuntimeException e) {
+			session.close();
+			throw e;
+		}
+		if (request.getIdentity() != null) {
+			ConnectionAcquireStatistics statistics = connectionAcquireStatistics.get(request.getIdentity());
+			if (statistics == null) {
+				connectionAcquireStatistics.putIfAbsent(request.getIdentity(), new ConnectionAcquireStatistics());
+				statistics = connectionAcquireStatistics.get(request.getIdentity());
+			}
+			statistics.record(System.nanoTime() - start);
+		}
+		return session;
+	}
+
+	private SqlSession openSession(ConcurrentRequest request) {
+		return (request.getExecutorType() == null) ? request.getSessionFactory().openSession()
+				: request.getSessionFactory().openSession(request.getExecutorType());
 	}
 
 	protected Object executeWith(SqlSession session, SqlSessionCallback<?> action) {
@@ -103,32 +437,154 @@ public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProc
 		}
 	}
 
-	private void fillResultListWithFutureResults(List<Future<Object>> futures, List<Object> resultList) {
-		for (Future<Object> future : futures) {
-			try {
-				resultList.add(future.get());
-			} catch (InterruptedException e) {
-				throw new ConcurrencyFailureException("interrupted when processing data access request in concurrency",
-						e);
-			} catch (ExecutionException e) {
-				throw new ConcurrencyFailureException("something goes wrong in processing", e);
+	private List<RequestDepository> fetchConnectionsAndDepositForLaterUse(List<ConcurrentRequest> requests) {
+		List<RequestDepository> depos = depositForLaterUse(requests);
+		try {
+			for (RequestDepository depo : depos) {
+				depo.setSqlSession(openSession(depo.getOriginalRequest()));
 			}
+		} catch (RuntimeException e) {
+			for (RequestDepository depo : depos) {
+				if (depo.getSqlSession() != null) {
+					depo.getSqlSession().close();
+				}
+			}
+			throw e;
 		}
+		return depos;
 	}
 
-	private List<RequestDepository> fetchConnectionsAndDepositForLaterUse(List<ConcurrentRequest> requests) {
-		List<RequestDepository> depos = new ArrayList<RequestDepository>();
+	private List<RequestDepository> depositForLaterUse(List<ConcurrentRequest> requests) {
+		List<RequestDepository> depos = new ArrayList<RequestDepository>(requests.size());
 		for (ConcurrentRequest request : requests) {
-
 			RequestDepository depo = new RequestDepository();
 			depo.setOriginalRequest(request);
-			depo.setSqlSession(request.getSessionFactory().openSession());
 			depos.add(depo);
 		}
-
 		return depos;
 	}
 
+	public boolean isLazySessionEnabled() {
+		return lazySessionEnabled;
+	}
+
+	public void setLazySessionEnabled(boolean lazySessionEnabled) {
+		this.lazySessionEnabled = lazySessionEnabled;
+	}
+
+	/**
+	 * @return the statistics of connection acquiring keyed by the identity of
+	 *         data source, only requests with sessions opened lazily are
+	 *         counted.
+	 */
+	public Map<String, ConnectionAcquireStatistics> getConnectionAcquireStatistics() {
+		return connectionAcquireStatistics;
+	}
+
+	public long getRequestTimeoutMillis() {
+		return requestTimeoutMillis;
+	}
+
+	public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+		this.requestTimeoutMillis = requestTimeoutMillis;
+	}
+
+	public long getShardTimeoutMillis() {
+		return shardTimeoutMillis;
+	}
+
+	public void setShardTimeoutMillis(long shardTimeoutMillis) {
+		this.shardTimeoutMillis = shardTimeoutMillis;
+	}
+
+	public Map<String, Long> getShardTimeoutMillisOverrides() {
+		return shardTimeoutMillisOverrides;
+	}
+
+	public void setShardTimeoutMillisOverrides(Map<String, Long> shardTimeoutMillisOverrides) {
+		Validate.notNull(shardTimeoutMillisOverrides);
+		this.shardTimeoutMillisOverrides = shardTimeoutMillisOverrides;
+	}
+
+	public boolean isFailFast() {
+		return failFast;
+	}
+
+	public void setFailFast(boolean failFast) {
+		this.failFast = failFast;
+	}
+
+	public boolean isPartialResultsEnabled() {
+		return partialResultsEnabled;
+	}
+
+	public void setPartialResultsEnabled(boolean partialResultsEnabled) {
+		this.partialResultsEnabled = partialResultsEnabled;
+	}
+
+	public IPartialResultListener getPartialResultListener() {
+		return partialResultListener;
+	}
+
+	public void setPartialResultListener(IPartialResultListener partialResultListener) {
+		this.partialResultListener = partialResultListener;
+	}
+
+	public boolean isInterruptOnCancel() {
+		return interruptOnCancel;
+	}
+
+	public void setInterruptOnCancel(boolean interruptOnCancel) {
+		this.interruptOnCancel = interruptOnCancel;
+	}
+
+	public boolean isHedgedReadsEnabled() {
+		return hedgedReadsEnabled;
+	}
+
+	public void setHedgedReadsEnabled(boolean hedgedReadsEnabled) {
+		this.hedgedReadsEnabled = hedgedReadsEnabled;
+	}
+
+	public double getHedgeDelayPercentile() {
+		return hedgeDelayPercentile;
+	}
+
+	public void setHedgeDelayPercentile(double hedgeDelayPercentile) {
+		Validate.isTrue(hedgeDelayPercentile > 0 && hedgeDelayPercentile <= 1,
+				"hedgeDelayPercentile must be in (0, 1].");
+		this.hedgeDelayPercentile = hedgeDelayPercentile;
+		this.latencySamplers.clear();
+	}
+
+	public long getHedgeDelayMillis() {
+		return hedgeDelayMillis;
+	}
+
+	public void setHedgeDelayMillis(long hedgeDelayMillis) {
+		Validate.isTrue(hedgeDelayMillis >= 0, "hedgeDelayMillis must not be negative.");
+		this.hedgeDelayMillis = hedgeDelayMillis;
+	}
+
+	public synchronized ScheduledExecutorService getHedgeScheduler() {
+		if (hedgeScheduler == null) {
+			ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "hedged read scheduler of DefaultConcurrentRequestProcessor");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			scheduler.setRemoveOnCancelPolicy(true);
+			hedgeScheduler = scheduler;
+		}
+		return hedgeScheduler;
+	}
+
+	public synchronized void setHedgeScheduler(ScheduledExecutorService hedgeScheduler) {
+		this.hedgeScheduler = hedgeScheduler;
+	}
+
 	public void setSqlMapClient(SqlSessionFactory sqlMapClient) {
 		Validate.notNull(sqlMapClient);
 		this.sqlMapClient = sqlMapClient;
@@ -138,4 +594,30 @@ public class DefaultConcurrentRequestProcessor implements IConcurrentRequestProc
 		return sqlMapClient;
 	}
 
+	/**
+	 * puts itself on the completion queue once it's done, as the futures of an
+	 * ExecutorCompletionService do, it's also done when the executor rejects it
+	 * after accepting it.
+	 */
+	private static class QueueingTask extends FutureTask<Object> implements RejectableTask {
+		private final RequestDepository depo;
+		private final BlockingQueue<Future<Object>> completionQueue;
+
+		QueueingTask(RequestDepository depo, Callable<Object> task, BlockingQueue<Future<Object>> completionQueue) {
+			super(task);
+			this.depo = depo;
+			this.completionQueue = completionQueue;
+		}
+
+		public void reject(RejectedExecutionException cause) {
+			depo.abandon();
+			setException(cause);
+		}
+
+		@Override
+		protected void done() {
+			completionQueue.add(this);
+		}
+	}
+
 }
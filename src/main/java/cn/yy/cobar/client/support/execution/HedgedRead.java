@@ -0,0 +1,189 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.support.execution;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * the result of a read request which may be hedged with a duplicate request
+ * against a replica.<br>
+ * the first attempt that succeeds completes the read, the other ones are
+ * cancelled. a failed attempt only fails the read if no other attempt is
+ * running or pending, so that the hedge gets its chance, and a pending hedge
+ * is sent right away instead of after its delay. once completed, the
+ * read is put on the completion queue of the processor, just as the futures
+ * submitted with an ExecutorCompletionService.<br>
+ */
+class HedgedRead extends CompletableFuture<Object> {
+	private final RequestDepository depo;
+	private final BlockingQueue<Future<Object>> completionQueue;
+	private final boolean interruptOnCancel;
+
+	private final List<Future<?>> attempts = new CopyOnWriteArrayList<Future<?>>();
+	/**
+	 * the attempts that are running or pending, including the scheduled hedge.
+	 */
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private volatile Throwable firstFailure;
+
+	/**
+	 * the hedge to send, until it's sent or given up.
+	 */
+	private final AtomicReference<Runnable> pendingHedge = new AtomicReference<Runnable>();
+
+	HedgedRead(RequestDepository depo, BlockingQueue<Future<Object>> completionQueue, boolean interruptOnCancel) {
+		this.depo = depo;
+		this.completionQueue = completionQueue;
+		this.interruptOnCancel = interruptOnCancel;
+	}
+
+	/**
+	 * submit an attempt of the read to the executor.
+	 */
+	void attempt(ExecutorService executor, Callable<Object> task) {
+		outstanding.incrementAndGet();
+		Attempt attempt = new Attempt(task);
+		attempts.add(attempt);
+		if (isDone()) {
+			attempt.cancel(false);
+			return;
+		}
+		try {
+			executor.execute(attempt);
+		} catch (RejectedExecutionException e) {
+			attempt.fail(e);
+		}
+	}
+
+	/**
+	 * run the hedge after the delay if the read is still outstanding by then,
+	 * or as soon as an attempt fails. it should be called before the first
+	 * attempt, so that a failure of the attempt can't go unnoticed.
+	 */
+	void hedge(ScheduledExecutorService scheduler, long delayNanos, Runnable hedge) {
+		outstanding.incrementAndGet();
+		pendingHedge.set(hedge);
+		try {
+			attempts.add(scheduler.schedule(new Runnable() {
+				public void run() {
+					sendHedge();
+				}
+			}, delayNanos, TimeUnit.NANOSECONDS));
+		} catch (RejectedExecutionException e) {
+			if (pendingHedge.getAndSet(null) != null) {
+				release();
+			}
+		}
+	}
+
+	/**
+	 * send the pending hedge unless it's sent already.
+	 */
+	private void sendHedge() {
+		Runnable hedge = pendingHedge.getAndSet(null);
+		if (hedge == null) {
+			return;
+		}
+		try {
+			if (!isDone()) {
+				hedge.run();
+			}
+		} finally {
+			release();
+		}
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		cancelAttemptsExcept(null);
+		return cancelled;
+	}
+
+	private void succeed(Attempt winner, Object result) {
+		if (complete(result)) {
+			completionQueue.add(this);
+			cancelAttemptsExcept(winner);
+			// closes the session opened up front if the first attempt never runs.
+			depo.abandon();
+		}
+	}
+
+	private void release() {
+		if (outstanding.decrementAndGet() == 0 && firstFailure != null) {
+			if (completeExceptionally(firstFailure)) {
+				completionQueue.add(this);
+			}
+		}
+	}
+
+	private void cancelAttemptsExcept(Future<?> winner) {
+		for (Future<?> attempt : attempts) {
+			if (attempt != winner) {
+				attempt.cancel(interruptOnCancel);
+			}
+		}
+	}
+
+	private class Attempt extends FutureTask<Object> implements RejectableTask {
+
+		Attempt(Callable<Object> task) {
+			super(task);
+		}
+
+		void fail(Throwable t) {
+			setException(t);
+		}
+
+		public void reject(RejectedExecutionException cause) {
+			fail(cause);
+		}
+
+		@Override
+		protected void done() {
+			if (isCancelled()) {
+				return;
+			}
+			try {
+				succeed(this, get());
+			} catch (ExecutionException e) {
+				if (firstFailure == null) {
+					firstFailure = e.getCause();
+				}
+				// the hedge is sent before the attempt is released, so that the
+				// read doesn't fail while the hedge can still answer it.
+				sendHedge();
+				release();
+			} catch (InterruptedException e) {
+				// can't happen since the attempt is done.
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.support.execution;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * keeps the latest latencies of the requests against a data source in a ring
+ * and tells a percentile of them.<br>
+ * the percentile is recomputed only after every {@link #RECOMPUTE_INTERVAL}
+ * samples, so reading it is cheap enough to be done per request.<br>
+ * writes are not synchronized, a racing write may overwrite another one, which
+ * is fine for an estimation.
+ */
+class LatencySampler {
+	static final int CAPACITY = 256;
+	static final int MIN_SAMPLES = 32;
+	static final int RECOMPUTE_INTERVAL = 32;
+
+	private final double percentile;
+	private final long[] samples = new long[CAPACITY];
+	private final AtomicLong count = new AtomicLong();
+
+	private volatile long cachedPercentile = -1;
+	private volatile long computedAt = 0;
+
+	LatencySampler(double percentile) {
+		this.percentile = percentile;
+	}
+
+	void record(long nanos) {
+		long index = count.getAndIncrement();
+		samples[(int) (index & (CAPACITY - 1))] = nanos;
+	}
+
+	/**
+	 * @return the percentile of the sampled latencies in nanoseconds, -1 if
+	 *         there are not enough samples yet.
+	 */
+	long percentileNanos() {
+		long current = count.get();
+		if (current < MIN_SAMPLES) {
+			return -1;
+		}
+		if (current - computedAt >= RECOMPUTE_INTERVAL || cachedPercentile < 0) {
+			long[] sorted = Arrays.copyOf(samples, (int) Math.min(current, CAPACITY));
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile * sorted.length) - 1;
+			cachedPercentile = sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+			computedAt = current;
+		}
+		return cachedPercentile;
+	}
+
+	long getCount() {
+		return count.get();
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.support.execution;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * tells which of the requests of a fan-out are missing from the results and
+ * why, when partial results are accepted.<br>
+ * 
+ * @see DefaultConcurrentRequestProcessor#setPartialResultsEnabled(boolean)
+ */
+public class PartialResultReport {
+
+	private final int requestCount;
+	private final Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+	private final BitSet missing = new BitSet();
+
+	public PartialResultReport(int requestCount) {
+		this.requestCount = requestCount;
+	}
+
+	void addFailure(int index, String identity, Throwable cause) {
+		failures.put(identity, cause);
+		missing.set(index);
+	}
+
+	/**
+	 * @return the number of requests in the fan-out.
+	 */
+	public int getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * @return the causes keyed by the identity of the data sources whose
+	 *         results are missing, a timeout is reported as a
+	 *         {@link org.springframework.dao.QueryTimeoutException}.
+	 */
+	public Map<String, Throwable> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * @param index,
+	 *            the position of the request in the fan-out.
+	 * @return whether the result of the request is missing, the result list
+	 *         holds null at its position.
+	 */
+	public boolean isMissing(int index) {
+		return missing.get(index);
+	}
+
+	/**
+	 * @return the number of requests whose results are missing.
+	 */
+	public int getMissingCount() {
+		return missing.cardinality();
+	}
+
+	public boolean isComplete() {
+		return failures.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "PartialResultReport [requestCount=" + requestCount + ", missing=" + failures.keySet() + "]";
+	}
+
+}
@@ -0,0 +1,28 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.support.execution;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * a task which can be completed with a rejection by an executor that has
+ * accepted it but gives up on running it, so that whoever waits for the task
+ * gets the rejection instead of waiting forever, see
+ * {@link SemaphoreBoundedExecutorService}.
+ */
+interface RejectableTask extends Runnable {
+	void reject(RejectedExecutionException cause);
+}
@@ -15,17 +15,60 @@
  */
 package cn.yy.cobar.client.support.execution;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.ibatis.session.SqlSession;
 
 /**
  * temporary status depository for request processing.<br>
+ * it also decides who closes the session of the request: the worker closes it
+ * once the request has started, the processor closes it if the request is
+ * abandoned before it starts, see {@link #start()} and {@link #abandon()}.<br>
  * 
  * @author fujohnwang
  * @since 1.0
  */
 public class RequestDepository {
+	private static final int NEW = 0;
+	private static final int RUNNING = 1;
+	private static final int ABANDONED = 2;
+
 	private ConcurrentRequest originalRequest;
 	private SqlSession sqlSession;
+	private Future<Object> future;
+	/**
+	 * System.nanoTime() by which the request must complete, Long.MAX_VALUE if
+	 * there is no deadline.
+	 */
+	private long deadline = Long.MAX_VALUE;
+	private boolean resolved = false;
+	private final AtomicInteger state = new AtomicInteger(NEW);
+
+	/**
+	 * called by the worker before it executes the request.
+	 * 
+	 * @return false if the request has been abandoned and must not run.
+	 */
+	public boolean start() {
+		return state.compareAndSet(NEW, RUNNING);
+	}
+
+	/**
+	 * called by the processor when it stops waiting for the request, the
+	 * session opened for the request is closed if the request hasn't started.
+	 * 
+	 * @return true if the request will not run at all.
+	 */
+	public boolean abandon() {
+		if (state.compareAndSet(NEW, ABANDONED)) {
+			if (sqlSession != null) {
+				sqlSession.close();
+			}
+			return true;
+		}
+		return false;
+	}
 
 	public ConcurrentRequest getOriginalRequest() {
 		return originalRequest;
@@ -43,4 +86,32 @@ public class RequestDepository {
 		this.sqlSession = sqlSession;
 	}
 
+	public Future<Object> getFuture() {
+		return future;
+	}
+
+	public void setFuture(Future<Object> future) {
+		this.future = future;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @return true if the processor is done with the request, either with its
+	 *         result or with its failure.
+	 */
+	public boolean isResolved() {
+		return resolved;
+	}
+
+	public void setResolved(boolean resolved) {
+		this.resolved = resolved;
+	}
+
 }
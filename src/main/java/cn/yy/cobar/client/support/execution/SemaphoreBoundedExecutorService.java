@@ -0,0 +1,132 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.support.execution;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * an {@link ExecutorService} that runs each task on a thread of its own from the
+ * delegate, like one virtual thread per task, while a semaphore allows only
+ * {@link #getMaxConcurrency()} of them to run at the same time.<br>
+ * the permit is acquired by the task itself, so submitting never blocks or
+ * runs the task in the caller, tasks over the limit just wait for a permit in
+ * their own threads, which is cheap for virtual threads.<br>
+ * with the limit set to the size of the connection pool of a data source, tasks
+ * wait for connections here instead of in the connection pool.<br>
+ * a task whose thread is interrupted while it waits for a permit, by
+ * {@link #shutdownNow()} for example, never runs, it's rejected with
+ * {@link RejectedExecutionException} instead, see {@link RejectableTask}.
+ */
+public class SemaphoreBoundedExecutorService extends AbstractExecutorService {
+
+	private final ExecutorService delegate;
+	private final Semaphore permits;
+	private final int maxConcurrency;
+
+	public SemaphoreBoundedExecutorService(ExecutorService delegate, int maxConcurrency) {
+		Validate.notNull(delegate);
+		Validate.isTrue(maxConcurrency > 0, "max concurrency must be positive.");
+		this.delegate = delegate;
+		this.maxConcurrency = maxConcurrency;
+		this.permits = new Semaphore(maxConcurrency, true);
+	}
+
+	public void execute(final Runnable command) {
+		Validate.notNull(command);
+		if (delegate.isShutdown()) {
+			throw new RejectedExecutionException("executor has been shut down.");
+		}
+		delegate.execute(new Runnable() {
+			public void run() {
+				try {
+					permits.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					reject(command, new RejectedExecutionException("interrupted when waiting for a permit.", e));
+					return;
+				}
+				try {
+					command.run();
+				} finally {
+					permits.release();
+				}
+			}
+		});
+	}
+
+	/**
+	 * the command is accepted already, so it's completed with the rejection if
+	 * it's a {@link RejectableTask}, or cancelled if it's a future, so that
+	 * nobody waits for it forever.
+	 */
+	private static void reject(Runnable command, RejectedExecutionException cause) {
+		if (command instanceof RejectableTask) {
+			((RejectableTask) command).reject(cause);
+			return;
+		}
+		if (command instanceof Future) {
+			((Future<?>) command).cancel(false);
+		}
+		throw cause;
+	}
+
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * @return the number of tasks running at the moment.
+	 */
+	public int getActiveCount() {
+		return maxConcurrency - permits.availablePermits();
+	}
+
+	/**
+	 * @return an estimate of the number of tasks waiting for a permit.
+	 */
+	public int getQueueLength() {
+		return permits.getQueueLength();
+	}
+
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	public List<Runnable> shutdownNow() {
+		return delegate.shutdownNow();
+	}
+
+	public boolean isShutdown() {
+		return delegate.isShutdown();
+	}
+
+	public boolean isTerminated() {
+		return delegate.isTerminated();
+	}
+
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.support.execution;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang.Validate;
+import org.apache.ibatis.executor.result.DefaultResultContext;
+import org.apache.ibatis.session.ResultContext;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+import cn.yy.cobar.client.exception.UncategorizedCobarClientException;
+import cn.yy.cobar.client.merger.KWayMergeIterator;
+
+/**
+ * streams the rows of a select against several data sources to one
+ * {@link ResultHandler}.<br>
+ * each data source is read by a producer on {@link #executor}, whose result
+ * handler puts the rows into a bounded queue and waits while the queue is
+ * full, so at most {@link #queueCapacity} rows per data source are buffered
+ * however many rows the select returns.<br>
+ * the calling thread is the only consumer and the only one that calls the
+ * handler, so the handler doesn't need to be thread-safe. the rows are handed
+ * over in the order they arrive, data source by data source, or in the order
+ * of a comparator, merged from the data sources, if each of them returns its
+ * rows in that order.<br>
+ * once the handler stops the result context, or fails, the producers stop
+ * fetching at their next row.<br>
+ * the consumer may wait for the rows of any of the producers, so the executor
+ * has to run each producer right away or reject it, an executor that queues
+ * the producers could hold one back until the others end, and they may never
+ * end with their queues full. when a producer is rejected, the select fails
+ * with {@link TransientDataAccessResourceException} and the producers that are
+ * already running stop.
+ */
+public class StreamingSelectProcessor {
+	private static final Object END = new Object();
+	private static final Object NULL = new Object();
+	private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+	private final ExecutorService executor;
+	private final int queueCapacity;
+
+	public StreamingSelectProcessor(ExecutorService executor, int queueCapacity) {
+		Validate.notNull(executor);
+		Validate.isTrue(queueCapacity > 0, "queueCapacity must be positive.");
+		this.executor = executor;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * @param comparator,
+	 *            null to hand over the rows in the order they arrive.
+	 */
+	@SuppressWarnings("rawtypes")
+	public void select(Collection<SqlSessionFactory> sessionFactories, String statement, Object parameter,
+			RowBounds rowBounds, Comparator comparator, ResultHandler handler) {
+		select(sessionFactories, statement, parameter, rowBounds, comparator, false, handler);
+	}
+
+	/**
+	 * same as
+	 * {@link #select(Collection, String, Object, RowBounds, Comparator, ResultHandler)}
+	 * , except that without a comparator, the rows are handed over data source
+	 * by data source in the order of the session factories, so the order is
+	 * the same for each select. the producers of the data sources after the
+	 * current one are held back by their full queues meanwhile.
+	 * 
+	 * @param comparator,
+	 *            null to hand over the rows in the order of the data sources.
+	 */
+	@SuppressWarnings("rawtypes")
+	public void selectInOrder(Collection<SqlSessionFactory> sessionFactories, String statement, Object parameter,
+			RowBounds rowBounds, Comparator comparator, ResultHandler handler) {
+		select(sessionFactories, statement, parameter, rowBounds, comparator, true, handler);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void select(Collection<SqlSessionFactory> sessionFactories, String statement, Object parameter,
+			RowBounds rowBounds, Comparator comparator, boolean inOrderOfDataSources, ResultHandler handler) {
+		AtomicBoolean aborted = new AtomicBoolean(false);
+		List<Iterator<Object>> sources = new ArrayList<Iterator<Object>>(sessionFactories.size());
+		List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>(sessionFactories.size());
+		BlockingQueue<Object> sharedQueue = (comparator == null && !inOrderOfDataSources)
+				? new ArrayBlockingQueue<Object>(capacityOf(sessionFactories.size())) : null;
+		try {
+			for (SqlSessionFactory sessionFactory : sessionFactories) {
+				BlockingQueue<Object> queue = (sharedQueue != null) ? sharedQueue
+						: new ArrayBlockingQueue<Object>(queueCapacity);
+				queues.add(queue);
+				try {
+					executor.execute(new Producer(sessionFactory, statement, parameter, rowBounds, queue, aborted));
+				} catch (RejectedExecutionException e) {
+					throw new TransientDataAccessResourceException(
+							"no thread is available to stream rows of data source.", e);
+				}
+				if (sharedQueue == null) {
+					sources.add(new QueueIterator(queue, 1));
+				}
+			}
+			Iterator<Object> rows;
+			if (sharedQueue != null) {
+				rows = new QueueIterator(sharedQueue, sessionFactories.size());
+			} else if (comparator != null) {
+				rows = new KWayMergeIterator<Object>(sources, comparator);
+			} else {
+				rows = new SequentialIterator(sources);
+			}
+
+			DefaultResultContext<Object> context = new DefaultResultContext<Object>();
+			while (!context.isStopped() && rows.hasNext()) {
+				context.nextResultObject(rows.next());
+				handler.handleResult(context);
+			}
+		} finally {
+			aborted.set(true);
+			// wakes up the producers waiting on full queues, so they see the
+			// abort and give their threads back right away.
+			for (BlockingQueue<Object> queue : queues) {
+				queue.clear();
+			}
+		}
+	}
+
+	private int capacityOf(int producers) {
+		long capacity = (long) queueCapacity * producers;
+		return (int) Math.min(capacity, Integer.MAX_VALUE);
+	}
+
+	private static class Producer implements Runnable {
+		private final SqlSessionFactory sessionFactory;
+		private final String statement;
+		private final Object parameter;
+		private final RowBounds rowBounds;
+		private final BlockingQueue<Object> queue;
+		private final AtomicBoolean aborted;
+
+		Producer(SqlSessionFactory sessionFactory, String statement, Object parameter, RowBounds rowBounds,
+				BlockingQueue<Object> queue, AtomicBoolean aborted) {
+			this.sessionFactory = sessionFactory;
+			this.statement = statement;
+			this.parameter = parameter;
+			this.rowBounds = rowBounds;
+			this.queue = queue;
+			this.aborted = aborted;
+		}
+
+		@SuppressWarnings("rawtypes")
+		public void run() {
+			SqlSession session = null;
+			try {
+				session = sessionFactory.openSession();
+				session.select(statement, parameter, (rowBounds == null) ? RowBounds.DEFAULT : rowBounds,
+						new ResultHandler() {
+							public void handleResult(ResultContext context) {
+								Object row = context.getResultObject();
+								if (!put((row == null) ? NULL : row)) {
+									context.stop();
+								}
+							}
+						});
+				put(END);
+			} catch (Throwable t) {
+				put(new Failure(t));
+			} finally {
+				if (session != null) {
+					session.close();
+				}
+			}
+		}
+
+		/**
+		 * @return false if the consumer has gone.
+		 */
+		private boolean put(Object element) {
+			try {
+				while (!aborted.get()) {
+					if (queue.offer(element, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		}
+	}
+
+	private static class Failure {
+		private final Throwable cause;
+
+		Failure(Throwable cause) {
+			this.cause = cause;
+		}
+	}
+
+	/**
+	 * iterates over the rows of the sources one source after another.
+	 */
+	private static class SequentialIterator implements Iterator<Object> {
+		private final Iterator<Iterator<Object>> sources;
+		private Iterator<Object> current;
+
+		SequentialIterator(List<Iterator<Object>> sources) {
+			this.sources = sources.iterator();
+		}
+
+		public boolean hasNext() {
+			while (current == null || !current.hasNext()) {
+				if (!sources.hasNext()) {
+					return false;
+				}
+				current = sources.next();
+			}
+			return true;
+		}
+
+		public Object next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return current.next();
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * iterates over the rows in a queue until all of its producers end.
+	 */
+	private static class QueueIterator implements Iterator<Object> {
+		private final BlockingQueue<Object> queue;
+		private int producers;
+		private Object next;
+
+		QueueIterator(BlockingQueue<Object> queue, int producers) {
+			this.queue = queue;
+			this.producers = producers;
+		}
+
+		public boolean hasNext() {
+			while (next == null && producers > 0) {
+				Object element;
+				try {
+					element = queue.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ConcurrencyFailureException("interrupted when streaming rows of data sources.", e);
+				}
+				if (element == END) {
+					producers--;
+				} else if (element instanceof Failure) {
+					Throwable cause = ((Failure) element).cause;
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					throw new UncategorizedCobarClientException("failed to stream rows of data source.", cause);
+				} else {
+					next = element;
+				}
+			}
+			return next != null;
+		}
+
+		public Object next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Object row = next;
+			next = null;
+			return (row == NULL) ? null : row;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
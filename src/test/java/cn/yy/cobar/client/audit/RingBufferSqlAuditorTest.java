@@ -0,0 +1,169 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RingBufferSqlAuditorTest {
+
+	private RingBufferSqlAuditor auditor;
+
+	@After
+	public void tearDown() throws Exception {
+		if (auditor != null) {
+			auditor.destroy();
+		}
+	}
+
+	@Test
+	public void drainsEveryStatementInTheOrderOfEachThread() throws Exception {
+		final CollectingAuditor delegate = new CollectingAuditor();
+		auditor = auditor(delegate, 1024);
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final String id = "thread" + t;
+			threads.add(new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 5000; i++) {
+						while (auditor.getPendingCount() > 512) {
+							Thread.yield();
+						}
+						auditor.audit(id, "select " + i, i);
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		awaitDrained(delegate, 20000);
+
+		assertEquals(0, auditor.getDroppedCount());
+		Map<String, Integer> lastOfThreads = new HashMap<String, Integer>();
+		for (Object[] statement : delegate.statements()) {
+			String id = (String) statement[0];
+			int sequence = (Integer) statement[2];
+			Integer last = lastOfThreads.put(id, sequence);
+			assertEquals("select " + sequence, statement[1]);
+			assertEquals((last == null) ? 0 : last + 1, sequence);
+		}
+		assertEquals(4, lastOfThreads.size());
+	}
+
+	@Test
+	public void dropsStatementsWhenTheRingBufferIsFull() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CollectingAuditor delegate = new CollectingAuditor() {
+			@Override
+			public void audit(String id, String sql, Object sqlContext) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				super.audit(id, sql, sqlContext);
+			}
+		};
+		auditor = auditor(delegate, 4);
+
+		for (int i = 0; i < 20; i++) {
+			auditor.audit("id", "select " + i, i);
+		}
+		// the drain thread may hold one statement besides the 4 slots.
+		long dropped = auditor.getDroppedCount();
+		assertTrue("dropped " + dropped, dropped >= 15 && dropped <= 16);
+
+		release.countDown();
+		awaitDrained(delegate, 20 - (int) dropped);
+		assertEquals(0, auditor.getPendingCount());
+	}
+
+	@Test
+	public void keepsDrainingWhenTheDelegateFails() throws Exception {
+		final CollectingAuditor delegate = new CollectingAuditor() {
+			@Override
+			public void audit(String id, String sql, Object sqlContext) {
+				super.audit(id, sql, sqlContext);
+				throw new IllegalStateException("failed to audit " + id);
+			}
+		};
+		auditor = auditor(delegate, 16);
+
+		for (int i = 0; i < 10; i++) {
+			auditor.audit("id", "select " + i, i);
+		}
+
+		awaitDrained(delegate, 10);
+	}
+
+	@Test
+	public void dropsStatementsOnceDestroyed() throws Exception {
+		CollectingAuditor delegate = new CollectingAuditor();
+		auditor = auditor(delegate, 16);
+		auditor.destroy();
+
+		auditor.audit("id", "select 1", null);
+
+		assertEquals(1, auditor.getDroppedCount());
+		assertTrue(delegate.statements().isEmpty());
+	}
+
+	private static RingBufferSqlAuditor auditor(ISqlAuditor delegate, int bufferSize) throws Exception {
+		RingBufferSqlAuditor auditor = new RingBufferSqlAuditor();
+		auditor.setDelegate(delegate);
+		auditor.setBufferSize(bufferSize);
+		auditor.afterPropertiesSet();
+		return auditor;
+	}
+
+	private static void awaitDrained(CollectingAuditor delegate, int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (delegate.statements().size() < count && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(count, delegate.statements().size());
+	}
+
+	private static class CollectingAuditor implements ISqlAuditor {
+		private final List<Object[]> statements = Collections.synchronizedList(new ArrayList<Object[]>());
+
+		public void audit(String id, String sql, Object sqlContext) {
+			statements.add(new Object[] { id, sql, sqlContext });
+		}
+
+		List<Object[]> statements() {
+			synchronized (statements) {
+				return new ArrayList<Object[]>(statements);
+			}
+		}
+	}
+}
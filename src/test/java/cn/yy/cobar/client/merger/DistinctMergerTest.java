@@ -0,0 +1,129 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DistinctMergerTest {
+
+	private static final IKeyExtractor<Row> ID = new IKeyExtractor<Row>() {
+		public Object keyOf(Row element) {
+			return element.id;
+		}
+	};
+
+	private static final Comparator<Row> BY_SCORE = new Comparator<Row>() {
+		public int compare(Row left, Row right) {
+			return (left.score < right.score) ? -1 : ((left.score == right.score) ? 0 : 1);
+		}
+	};
+
+	@Test
+	public void keepsTheFirstOfEqualElementsInTheOrderOfShards() {
+		DistinctMerger<String> merger = new DistinctMerger<String>();
+
+		List<String> result = merger.merge(shards(Arrays.asList("a", "b", "a"), Arrays.asList("c", "b"),
+				new ArrayList<String>(), Arrays.asList("d", "a")));
+
+		assertEquals(Arrays.asList("a", "b", "c", "d"), result);
+	}
+
+	@Test
+	public void removesElementsOfTheSameKey() {
+		DistinctMerger<Row> merger = new DistinctMerger<Row>(ID);
+
+		List<Row> result = merger.merge(shards(Arrays.asList(new Row(1, 10, 0), new Row(2, 20, 0)),
+				Arrays.asList(new Row(2, 20, 1), new Row(3, 5, 1))));
+
+		assertEquals("1@0 2@0 3@1", describe(result));
+	}
+
+	@Test
+	public void removesDuplicatesOfSortedRunsAcrossShards() {
+		DistinctMerger<Row> merger = new DistinctMerger<Row>(ID);
+		merger.setComparator(BY_SCORE);
+
+		// a run of equal scores spans all of the shards, rows 4 and 5 share a
+		// score with the duplicated rows but are distinct.
+		List<Row> result = merger.merge(shards(
+				Arrays.asList(new Row(1, 10, 0), new Row(2, 20, 0), new Row(4, 20, 0), new Row(6, 30, 0)),
+				Arrays.asList(new Row(2, 20, 1), new Row(5, 20, 1), new Row(6, 30, 1)),
+				Arrays.asList(new Row(0, 5, 2), new Row(4, 20, 2), new Row(2, 20, 2), new Row(7, 40, 2))));
+
+		assertEquals("0@2 1@0 2@0 4@0 5@1 6@0 7@2", describe(result));
+	}
+
+	@Test
+	public void keepsElementsOfTheSameKeyInDifferentRuns() {
+		DistinctMerger<Row> merger = new DistinctMerger<Row>(ID);
+		merger.setComparator(BY_SCORE);
+
+		// only the elements of one run are checked against each other, so keys
+		// must compare equal to be removed.
+		List<Row> result = merger.merge(shards(Arrays.asList(new Row(1, 10, 0)), Arrays.asList(new Row(1, 20, 1))));
+
+		assertEquals("1@0 1@1", describe(result));
+	}
+
+	@Test
+	public void mergesNothingIntoAnEmptyList() {
+		DistinctMerger<String> merger = new DistinctMerger<String>();
+		merger.setComparator(String.CASE_INSENSITIVE_ORDER);
+
+		assertTrue(merger.merge(new ArrayList<List<String>>()).isEmpty());
+		assertTrue(merger.merge(shards(new ArrayList<String>(), new ArrayList<String>())).isEmpty());
+	}
+
+	@SafeVarargs
+	private static <E> List<List<E>> shards(List<E>... shards) {
+		List<List<E>> entities = new ArrayList<List<E>>(shards.length);
+		for (List<E> shard : shards) {
+			entities.add(shard);
+		}
+		return entities;
+	}
+
+	private static String describe(List<Row> rows) {
+		StringBuilder description = new StringBuilder();
+		for (Row row : rows) {
+			if (description.length() > 0) {
+				description.append(' ');
+			}
+			description.append(row.id).append('@').append(row.shard);
+		}
+		return description.toString();
+	}
+
+	private static class Row {
+		private final int id;
+		private final int score;
+		private final int shard;
+
+		Row(int id, int score, int shard) {
+			this.id = id;
+			this.score = score;
+			this.shard = shard;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GroupByMergerTest {
+
+	private GroupByMerger merger;
+
+	@Before
+	public void setUp() {
+		merger = new GroupByMerger();
+		merger.getColumns().put("CNT", AggregateFunction.COUNT);
+		merger.getColumns().put("TOTAL", AggregateFunction.SUM);
+		merger.getColumns().put("TOP", AggregateFunction.MAX);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		merger.destroy();
+	}
+
+	@Test
+	public void mergesGroupsOfSeveralColumnsAcrossShards() throws Exception {
+		merger.setGroupByColumns(new String[] { "REGION", "KIND" });
+		merger.getAverages().put("MEAN", "TOTAL,CNT");
+		merger.afterPropertiesSet();
+
+		List<Object> shard0 = new ArrayList<Object>();
+		shard0.add(row("REGION", "east", "KIND", 1, "CNT", 2L, "TOTAL", 10L, "TOP", 7L));
+		shard0.add(row("REGION", "east", "KIND", 2, "CNT", 1L, "TOTAL", 4L, "TOP", 4L));
+		List<Object> shard1 = new ArrayList<Object>();
+		shard1.add(row("REGION", "east", "KIND", 1, "CNT", 3L, "TOTAL", 20L, "TOP", 9L));
+		shard1.add(row("REGION", "west", "KIND", 1, "CNT", 1L, "TOTAL", 5L, "TOP", 5L));
+
+		Map<Object, Map<String, Object>> groups = groupsOf(merge(shard0, shard1), "REGION", "KIND");
+
+		assertEquals(3, groups.size());
+		Map<String, Object> eastOne = groups.get(Arrays.<Object> asList("east", 1));
+		assertEquals(5L, eastOne.get("CNT"));
+		assertEquals(30L, eastOne.get("TOTAL"));
+		assertEquals(9L, eastOne.get("TOP"));
+		assertEquals(6.0, (Double) eastOne.get("MEAN"), 0.0);
+		assertEquals(1L, groups.get(Arrays.<Object> asList("east", 2)).get("CNT"));
+		assertEquals(5L, groups.get(Arrays.<Object> asList("west", 1)).get("TOTAL"));
+	}
+
+	@Test
+	public void mergesNullKeysIntoOneGroup() throws Exception {
+		merger.setGroupByColumns(new String[] { "REGION" });
+		merger.afterPropertiesSet();
+
+		List<Object> shard0 = new ArrayList<Object>();
+		shard0.add(row("REGION", null, "CNT", 2L, "TOTAL", 10L, "TOP", 7L));
+		shard0.add(row("REGION", "east", "CNT", 1L, "TOTAL", 1L, "TOP", 1L));
+		List<Object> shard1 = new ArrayList<Object>();
+		shard1.add(row("REGION", null, "CNT", 1L, "TOTAL", 3L, "TOP", 3L));
+
+		Map<Object, Map<String, Object>> groups = groupsOf(merge(shard0, shard1), "REGION");
+
+		assertEquals(2, groups.size());
+		Map<String, Object> nullGroup = groups.get(Arrays.<Object> asList((Object) null));
+		assertNull(nullGroup.get("REGION"));
+		assertEquals(3L, nullGroup.get("CNT"));
+		assertEquals(13L, nullGroup.get("TOTAL"));
+	}
+
+	@Test
+	public void mergesNullKeysOfSeveralColumns() throws Exception {
+		merger.setGroupByColumns(new String[] { "REGION", "KIND" });
+		merger.afterPropertiesSet();
+
+		List<Object> shard0 = new ArrayList<Object>();
+		shard0.add(row("REGION", "east", "KIND", null, "CNT", 2L, "TOTAL", 10L, "TOP", 7L));
+		shard0.add(row("REGION", null, "KIND", null, "CNT", 1L, "TOTAL", 1L, "TOP", 1L));
+		List<Object> shard1 = new ArrayList<Object>();
+		shard1.add(row("REGION", "east", "KIND", null, "CNT", 4L, "TOTAL", 2L, "TOP", 2L));
+		shard1.add(row("REGION", "east", "KIND", 1, "CNT", 1L, "TOTAL", 1L, "TOP", 1L));
+
+		Map<Object, Map<String, Object>> groups = groupsOf(merge(shard0, shard1), "REGION", "KIND");
+
+		assertEquals(3, groups.size());
+		assertEquals(6L, groups.get(Arrays.<Object> asList("east", null)).get("CNT"));
+		assertEquals(1L, groups.get(Arrays.<Object> asList(null, null)).get("CNT"));
+		assertEquals(1L, groups.get(Arrays.<Object> asList("east", 1)).get("CNT"));
+	}
+
+	@Test
+	public void mergesInParallelAsInOnePass() throws Exception {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		try {
+			merger.setGroupByColumns(new String[] { "REGION", "KIND" });
+			merger.setExecutor(executor);
+			merger.setParallelMergeThreshold(1);
+			merger.setPartitionCount(4);
+			merger.afterPropertiesSet();
+
+			List<Object> shard0 = new ArrayList<Object>();
+			List<Object> shard1 = new ArrayList<Object>();
+			for (int i = 0; i < 1000; i++) {
+				Object region = (i % 7 == 0) ? null : "r" + (i % 13);
+				shard0.add(row("REGION", region, "KIND", i % 3, "CNT", 1L, "TOTAL", (long) i, "TOP", (long) i));
+				shard1.add(row("REGION", region, "KIND", i % 3, "CNT", 2L, "TOTAL", 1L, "TOP", 0L));
+			}
+			Map<Object, Map<String, Object>> parallel = groupsOf(merge(shard0, shard1), "REGION", "KIND");
+
+			assertEquals(4, executor.getTaskCount());
+
+			GroupByMerger sequential = new GroupByMerger();
+			sequential.setColumns(merger.getColumns());
+			sequential.setGroupByColumns(merger.getGroupByColumns());
+			sequential.setExecutor(executor);
+			sequential.afterPropertiesSet();
+			Map<Object, Map<String, Object>> expected = groupsOf(sequential.merge(asList(shard0, shard1)),
+					"REGION", "KIND");
+
+			assertEquals(expected, parallel);
+			long count = 0;
+			for (Map<String, Object> group : parallel.values()) {
+				count += (Long) group.get("CNT");
+			}
+			assertEquals(3000L, count);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void takesSingleRowsAndSkipsMissingShards() throws Exception {
+		merger.setGroupByColumns(new String[] { "REGION" });
+		merger.afterPropertiesSet();
+
+		List<Object> entities = new ArrayList<Object>();
+		entities.add(row("REGION", "east", "CNT", 1L, "TOTAL", 1L, "TOP", 1L));
+		entities.add(null);
+		entities.add(Arrays.<Object> asList(row("REGION", "east", "CNT", 2L, "TOTAL", 2L, "TOP", 2L)));
+
+		List<?> result = (List<?>) merger.merge(entities);
+
+		assertEquals(1, result.size());
+		assertEquals(3L, ((Map<?, ?>) result.get(0)).get("CNT"));
+		assertTrue(((List<?>) merger.merge(new ArrayList<Object>())).isEmpty());
+	}
+
+	private List<?> merge(List<Object> shard0, List<Object> shard1) {
+		return (List<?>) merger.merge(asList(shard0, shard1));
+	}
+
+	private static List<Object> asList(List<Object> shard0, List<Object> shard1) {
+		List<Object> entities = new ArrayList<Object>();
+		entities.add(shard0);
+		entities.add(shard1);
+		return entities;
+	}
+
+	/**
+	 * @return the merged rows keyed by the values of the group by columns.
+	 */
+	private static Map<Object, Map<String, Object>> groupsOf(Object merged, String... columns) {
+		Map<Object, Map<String, Object>> groups = new HashMap<Object, Map<String, Object>>();
+		for (Object element : (List<?>) merged) {
+			@SuppressWarnings("unchecked")
+			Map<String, Object> row = (Map<String, Object>) element;
+			Object[] key = new Object[columns.length];
+			for (int i = 0; i < columns.length; i++) {
+				key[i] = row.get(columns[i]);
+			}
+			assertNull("duplicate group " + Arrays.asList(key), groups.put(Arrays.asList(key), row));
+		}
+		return groups;
+	}
+
+	private static Map<String, Object> row(Object... columnValues) {
+		Map<String, Object> row = new HashMap<String, Object>();
+		for (int i = 0; i < columnValues.length; i += 2) {
+			row.put((String) columnValues[i], columnValues[i + 1]);
+		}
+		return row;
+	}
+}
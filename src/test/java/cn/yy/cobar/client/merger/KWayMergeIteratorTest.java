@@ -0,0 +1,102 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KWayMergeIteratorTest {
+
+	private static final Comparator<Integer> NATURAL = new Comparator<Integer>() {
+		public int compare(Integer left, Integer right) {
+			return left.compareTo(right);
+		}
+	};
+
+	/**
+	 * compares the tens only, so that elements of the same tens are equal.
+	 */
+	private static final Comparator<Integer> BY_TENS = new Comparator<Integer>() {
+		public int compare(Integer left, Integer right) {
+			return NATURAL.compare(left / 10, right / 10);
+		}
+	};
+
+	@Test
+	public void mergesSortedSourcesInOrder() {
+		List<List<Integer>> lists = new ArrayList<List<Integer>>();
+		lists.add(Arrays.asList(1, 4, 9));
+		lists.add(Collections.<Integer> emptyList());
+		lists.add(Arrays.asList(2, 3, 10, 11));
+		lists.add(Arrays.asList(0));
+
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4, 9, 10, 11), KWayMergeIterator.merge(lists, NATURAL));
+	}
+
+	@Test
+	public void returnsEqualElementsInTheOrderOfTheirSources() {
+		List<List<Integer>> lists = new ArrayList<List<Integer>>();
+		lists.add(Arrays.asList(12, 15, 31));
+		lists.add(Arrays.asList(5, 11, 19));
+		lists.add(Arrays.asList(10, 30));
+
+		assertEquals(Arrays.asList(5, 12, 15, 11, 19, 10, 31, 30), KWayMergeIterator.merge(lists, BY_TENS));
+	}
+
+	@Test
+	public void mergesAsSortingTheConcatenationStably() {
+		Random random = new Random(42);
+		for (int round = 0; round < 50; round++) {
+			List<List<Integer>> lists = new ArrayList<List<Integer>>();
+			List<Integer> expected = new ArrayList<Integer>();
+			int sources = 1 + random.nextInt(9);
+			for (int i = 0; i < sources; i++) {
+				List<Integer> list = new ArrayList<Integer>();
+				int size = random.nextInt(20);
+				for (int j = 0; j < size; j++) {
+					list.add(random.nextInt(100));
+				}
+				Collections.sort(list, BY_TENS);
+				lists.add(list);
+				expected.addAll(list);
+			}
+			Collections.sort(expected, BY_TENS);
+
+			assertEquals(expected, KWayMergeIterator.merge(lists, BY_TENS));
+		}
+	}
+
+	@Test(expected = NoSuchElementException.class)
+	public void throwsWhenExhausted() {
+		List<Iterator<Integer>> sources = new ArrayList<Iterator<Integer>>();
+		sources.add(Collections.<Integer> emptyList().iterator());
+		KWayMergeIterator<Integer> iterator = new KWayMergeIterator<Integer>(sources, NATURAL);
+
+		assertFalse(iterator.hasNext());
+		iterator.next();
+	}
+}
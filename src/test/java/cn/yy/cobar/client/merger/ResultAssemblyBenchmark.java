@@ -0,0 +1,148 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * assembling the shard results of selectList and selectMap into one result
+ * which is then iterated once, growing a default-sized list or map is how the
+ * results were assembled before they were sized from the shard results, the
+ * {@link CompositeList} view doesn't copy them at all.<br>
+ * {@link #main(String[])} runs the benchmark with the gc profiler, compare the
+ * gc.alloc.rate.norm figures, the bytes allocated per assembly.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=cn.yy.cobar.client.merger.ResultAssemblyBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultAssemblyBenchmark {
+
+	@Param({ "4", "16", "64" })
+	private int k;
+
+	@Param({ "1000" })
+	private int rowsPerShard;
+
+	private List<List<Long>> listResults;
+	private List<Map<Long, Long>> mapResults;
+
+	@Setup
+	public void setUp() {
+		listResults = new ArrayList<List<Long>>(k);
+		mapResults = new ArrayList<Map<Long, Long>>(k);
+		long value = 0;
+		for (int i = 0; i < k; i++) {
+			List<Long> rows = new ArrayList<Long>(rowsPerShard);
+			Map<Long, Long> rowsByKey = new HashMap<Long, Long>(rowsPerShard * 2);
+			for (int j = 0; j < rowsPerShard; j++) {
+				Long row = Long.valueOf(value++);
+				rows.add(row);
+				rowsByKey.put(row, row);
+			}
+			listResults.add(rows);
+			mapResults.add(rowsByKey);
+		}
+	}
+
+	@Benchmark
+	public void growingList(Blackhole blackhole) {
+		List<Long> result = new ArrayList<Long>();
+		for (List<Long> rows : listResults) {
+			result.addAll(rows);
+		}
+		consume(result, blackhole);
+	}
+
+	@Benchmark
+	public void presizedList(Blackhole blackhole) {
+		int size = 0;
+		for (List<Long> rows : listResults) {
+			size += rows.size();
+		}
+		List<Long> result = new ArrayList<Long>(size);
+		for (List<Long> rows : listResults) {
+			result.addAll(rows);
+		}
+		consume(result, blackhole);
+	}
+
+	@Benchmark
+	public void compositeList(Blackhole blackhole) {
+		consume(new CompositeList<Long>(listResults), blackhole);
+	}
+
+	@Benchmark
+	public Map<Long, Long> growingMap() {
+		Map<Long, Long> result = new HashMap<Long, Long>();
+		for (Map<Long, Long> rows : mapResults) {
+			result.putAll(rows);
+		}
+		return result;
+	}
+
+	@Benchmark
+	public Map<Long, Long> presizedMap() {
+		int size = 0;
+		for (Map<Long, Long> rows : mapResults) {
+			size += rows.size();
+		}
+		Map<Long, Long> result = new HashMap<Long, Long>((int) (size / 0.75f + 1));
+		for (Map<Long, Long> rows : mapResults) {
+			result.putAll(rows);
+		}
+		return result;
+	}
+
+	private static void consume(List<Long> result, Blackhole blackhole) {
+		for (Long row : result) {
+			blackhole.consume(row);
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ResultAssemblyBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.merger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * merging k sorted sub-result lists, the pairwise merge with an executor hop
+ * per pair and level is how {@link ConcurrentSortMerger} merged before it used
+ * {@link KWayMergeIterator}.<br>
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=cn.yy.cobar.client.merger.SortMergeBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortMergeBenchmark {
+
+	private static final Comparator<Long> COMPARATOR = new Comparator<Long>() {
+		public int compare(Long o1, Long o2) {
+			return o1.compareTo(o2);
+		}
+	};
+
+	@Param({ "2", "4", "8", "16", "32", "64" })
+	private int k;
+
+	@Param({ "1000" })
+	private int rowsPerShard;
+
+	private List<List<Long>> shardResults;
+	private ExecutorService executor;
+	private ConcurrentSortMerger<Long> merger;
+
+	@Setup
+	public void setUp() throws Exception {
+		Random random = new Random(k);
+		shardResults = new ArrayList<List<Long>>(k);
+		for (int i = 0; i < k; i++) {
+			List<Long> rows = new ArrayList<Long>(rowsPerShard);
+			long value = 0;
+			for (int j = 0; j < rowsPerShard; j++) {
+				value += random.nextInt(100);
+				rows.add(Long.valueOf(value));
+			}
+			shardResults.add(rows);
+		}
+		executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		merger = new ConcurrentSortMerger<Long>();
+		merger.setComparator(COMPARATOR);
+		merger.setExecutor(executor);
+		merger.afterPropertiesSet();
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Benchmark
+	public List<Long> pairwise() throws Exception {
+		return pairwiseMerge(shardResults);
+	}
+
+	@Benchmark
+	public List<Long> kWayHeap() {
+		return merger.merge(shardResults);
+	}
+
+	private List<Long> pairwiseMerge(List<List<Long>> lists) throws Exception {
+		if (lists.size() == 1) {
+			return new ArrayList<Long>(lists.get(0));
+		}
+		List<Future<List<Long>>> futures = new ArrayList<Future<List<Long>>>();
+		for (int i = 0; i + 1 < lists.size(); i += 2) {
+			final List<Long> left = lists.get(i);
+			final List<Long> right = lists.get(i + 1);
+			futures.add(executor.submit(new Callable<List<Long>>() {
+				public List<Long> call() {
+					return mergePair(left, right);
+				}
+			}));
+		}
+		List<List<Long>> next = new ArrayList<List<Long>>();
+		for (Future<List<Long>> f : futures) {
+			next.add(f.get());
+		}
+		if (lists.size() % 2 == 1) {
+			next.add(lists.get(lists.size() - 1));
+		}
+		return pairwiseMerge(next);
+	}
+
+	private static List<Long> mergePair(List<Long> left, List<Long> right) {
+		List<Long> result = new ArrayList<Long>();
+		int li = 0, ri = 0;
+		while (li < left.size() && ri < right.size()) {
+			if (COMPARATOR.compare(left.get(li), right.get(ri)) <= 0) {
+				result.add(left.get(li++));
+			} else {
+				result.add(right.get(ri++));
+			}
+		}
+		result.addAll(left.subList(li, left.size()));
+		result.addAll(right.subList(ri, right.size()));
+		return result;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(SortMergeBenchmark.class.getSimpleName()).build()).run();
+	}
+}
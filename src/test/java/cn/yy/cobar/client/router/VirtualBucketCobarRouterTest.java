@@ -0,0 +1,119 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import cn.yy.cobar.client.router.support.IBatisRoutingFact;
+
+public class VirtualBucketCobarRouterTest {
+
+	@Test
+	public void jumpsOnlyToTheNewShard() {
+		for (int shards = 1; shards < 20; shards++) {
+			int moved = 0;
+			for (long key = 0; key < 10000; key++) {
+				int before = VirtualBucketCobarRouter.jumpConsistentHash(key, shards);
+				int after = VirtualBucketCobarRouter.jumpConsistentHash(key, shards + 1);
+				assertTrue(before >= 0 && before < shards);
+				if (after != before) {
+					assertEquals(shards, after);
+					moved++;
+				}
+			}
+			// about 1/(n+1) of the keys move, allow some statistical slack.
+			double expected = 10000.0 / (shards + 1);
+			assertTrue("moved " + moved + " keys to shard " + shards, Math.abs(moved - expected) < expected * 0.2);
+		}
+	}
+
+	@Test
+	public void mapsEveryKeyToTheOnlyShard() {
+		for (long key = -100; key < 100; key++) {
+			assertEquals(0, VirtualBucketCobarRouter.jumpConsistentHash(key, 1));
+		}
+	}
+
+	@Test
+	public void movesOnlyTheBucketsOfTheAppendedShard() throws Exception {
+		List<String> fourShards = router("p0", "p1", "p2", "p3").getBucketTable();
+		List<String> fiveShards = router("p0", "p1", "p2", "p3", "p4").getBucketTable();
+
+		int moved = 0;
+		for (int bucket = 0; bucket < fourShards.size(); bucket++) {
+			if (!fourShards.get(bucket).equals(fiveShards.get(bucket))) {
+				assertEquals("p4", fiveShards.get(bucket));
+				moved++;
+			}
+		}
+		assertEquals(Collections.frequency(fiveShards, "p4"), moved);
+		assertTrue(moved > 0);
+	}
+
+	@Test
+	public void routesTheSameKeyToTheSameShard() throws Exception {
+		VirtualBucketCobarRouter router = router("p0", "p1", "p2");
+		Map<String, Object> argument = new HashMap<String, Object>();
+		argument.put("userId", 42L);
+
+		List<String> shards = router.doRoute(new IBatisRoutingFact("user.select", argument)).getResourceIdentities();
+
+		assertEquals(1, shards.size());
+		for (int i = 0; i < 10; i++) {
+			Map<String, Object> same = new HashMap<String, Object>();
+			same.put("userId", 42L);
+			assertEquals(shards, router.doRoute(new IBatisRoutingFact("user.insert", same)).getResourceIdentities());
+		}
+		assertEquals(router.bucketOf(argument), router.bucketOf(Collections.singletonMap("userId", 42)));
+	}
+
+	@Test
+	public void routesArgumentsWithoutTheKeysToTheFallbackRouter() throws Exception {
+		VirtualBucketCobarRouter fallback = router("f0");
+		VirtualBucketCobarRouter router = router("p0", "p1");
+		router.setNamespaces(Collections.singleton("user"));
+		router.setFallbackRouter(fallback);
+
+		Map<String, Object> withoutKey = Collections.<String, Object> singletonMap("name", "x");
+		Map<String, Object> withKey = Collections.<String, Object> singletonMap("userId", 1L);
+
+		assertEquals(-1, router.bucketOf(withoutKey));
+		assertTrue(router.doRoute(new IBatisRoutingFact("user.select", withoutKey)).getResourceIdentities()
+				.isEmpty());
+		assertEquals(Arrays.asList("f0"),
+				router.doRoute(new IBatisRoutingFact("order.select", withKey)).getResourceIdentities());
+		assertSame(router.doRoute(new IBatisRoutingFact("user.select", withKey)),
+				router.doRoute(new IBatisRoutingFact("user.update", withKey)));
+	}
+
+	private static VirtualBucketCobarRouter router(String... shards) throws Exception {
+		VirtualBucketCobarRouter router = new VirtualBucketCobarRouter();
+		router.setShardKeys(Arrays.asList("userId"));
+		router.setShards(Arrays.asList(shards));
+		router.afterPropertiesSet();
+		return router;
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router.rules.ibatis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.mvel2.optimizers.OptimizerFactory;
+import org.mvel2.optimizers.impl.refl.ReflectiveAccessorOptimizer;
+
+import cn.yy.cobar.client.router.support.IBatisRoutingFact;
+
+public class AbstractIBatisOrientedRuleTest {
+
+	private static final String SQLMAP = "user.insert";
+
+	@Test
+	public void derivesThePropertyPathsTheExpressionReads() {
+		assertEquals(Arrays.asList("id"), shardKeysOf("id % 16 == 3"));
+		assertEquals(Arrays.asList("id"), shardKeysOf("(id + 1) % 2 == 0 && !(id > 100) && -id < 0"));
+		assertEquals(Arrays.asList("user.id", "name"), shardKeysOf("user.id == 3 || name == 'a;b'"));
+		assertEquals(Arrays.asList("id"), shardKeysOf("$ROOT.id > 1"));
+		assertEquals(Arrays.asList("$ROOT"), shardKeysOf("$ROOT != null"));
+		assertEquals(Arrays.asList("name", "id"), shardKeysOf("name contains 'x' && id != null"));
+		assertEquals(Arrays.asList("name"), shardKeysOf("name ~= 'x.*'"));
+		assertEquals(Arrays.asList("id"), shardKeysOf("id > 3 ? true : false"));
+		assertEquals(Collections.<String> emptyList(), shardKeysOf("true"));
+	}
+
+	@Test
+	public void derivesTheArgumentsOfFunctionCalls() {
+		assertEquals(Arrays.asList("id"), shardKeysOf("id % 16 == 3 && mod.apply(id) >= 0"));
+		assertEquals(Arrays.asList("user.id", "offset"), shardKeysOf("mod.add(user.id, (offset + 1)) == 3"));
+		assertEquals(Collections.<String> emptyList(), shardKeysOf("mod.apply(3) == 3"));
+	}
+
+	@Test
+	public void derivesNothingFromExpressionsItCantTakeApart() {
+		// method calls on the argument
+		assertNull(shardKeysOf("id.hashCode() == 1"));
+		assertNull(shardKeysOf("getId() == 1"));
+		assertNull(shardKeysOf("mod.apply(id.hashCode()) == 1"));
+		assertNull(shardKeysOf("mod.apply(id).value == 1"));
+		// "this", indexes and projections
+		assertNull(shardKeysOf("this.id == 3"));
+		assertNull(shardKeysOf("ids[0] == 1"));
+		assertNull(shardKeysOf("id in [1, 2]"));
+		// assignments, declarations and multiple statements
+		assertNull(shardKeysOf("x = 3; x == id"));
+		assertNull(shardKeysOf("def f(x) { x }; f(id) == 1"));
+		// a type is not a property
+		assertNull(shardKeysOf("id instanceof Long"));
+	}
+
+	@Test
+	public void prefersTheDeclaredShardKeys() {
+		IBatisSqlActionShardingRule rule = rule("id.hashCode() == 1");
+		rule.setShardKeys(Arrays.asList("id"));
+
+		assertEquals(Arrays.asList("id"), rule.getShardKeys());
+	}
+
+	@Test
+	public void evaluatesNestedPropertyPaths() {
+		IBatisSqlActionShardingRule rule = rule("user.id % 16 == mod.apply(3)");
+		Map<String, Object> user = new HashMap<String, Object>();
+		Map<String, Object> argument = new HashMap<String, Object>();
+		argument.put("user", user);
+
+		user.put("id", 19L);
+		assertTrue(rule.isDefinedAt(new IBatisRoutingFact(SQLMAP, argument)));
+		user.put("id", 20L);
+		assertFalse(rule.isDefinedAt(new IBatisRoutingFact(SQLMAP, argument)));
+	}
+
+	@Test
+	public void restoresTheOptimizerOfTheEvaluatingThread() {
+		IBatisSqlActionShardingRule rule = rule("id == 3");
+		IBatisRoutingFact fact = new IBatisRoutingFact(SQLMAP, Collections.<String, Object> singletonMap("id", 3L));
+
+		assertTrue(rule.isDefinedAt(fact));
+		assertFalse(OptimizerFactory.isThreadAccessorOptimizerInitialized());
+
+		OptimizerFactory.setThreadAccessorOptimizer(CallerOptimizer.class);
+		try {
+			assertTrue(rule.isDefinedAt(fact));
+			assertSame(CallerOptimizer.class, OptimizerFactory.getThreadAccessorOptimizer().getClass());
+		} finally {
+			OptimizerFactory.clearThreadAccessorOptimizer();
+		}
+	}
+
+	private static List<String> shardKeysOf(String expression) {
+		return rule(expression).getShardKeys();
+	}
+
+	private static IBatisSqlActionShardingRule rule(String expression) {
+		IBatisSqlActionShardingRule rule = new IBatisSqlActionShardingRule(SQLMAP, "p0", expression);
+		rule.setFunctionMap(Collections.<String, Object> singletonMap("mod", new Modulo()));
+		return rule;
+	}
+
+	public static class Modulo {
+		public long apply(long value) {
+			return value % 16;
+		}
+
+		public long add(long left, long right) {
+			return left + right;
+		}
+	}
+
+	/**
+	 * stands for an optimizer installed by another mvel2 user of the thread.
+	 */
+	public static class CallerOptimizer extends ReflectiveAccessorOptimizer {
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router.rules.ibatis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import cn.yy.cobar.client.router.support.IBatisRoutingFact;
+
+public class IBatisHashShardingRuleTest {
+
+	private final IBatisHashShardingRule rule = new IBatisHashShardingRule("user.insert", "p0,p1,p2,p3", "id", "16",
+			false);
+
+	/**
+	 * the shards of these keys are pinned, a change of the hash would move
+	 * the rows that are already stored.
+	 */
+	@Test
+	public void mapsKeysToTheSameShardsAcrossReleases() {
+		assertEquals(Arrays.asList("p0"), shardsOf(0L));
+		assertEquals(Arrays.asList("p1"), shardsOf(1L));
+		assertEquals(Arrays.asList("p3"), shardsOf(42L));
+		assertEquals(Arrays.asList("p2"), shardsOf(-7L));
+		assertEquals(Arrays.asList("p2"), shardsOf(123456789L));
+		assertEquals(Arrays.asList("p2"), shardsOf("alice"));
+		assertEquals(Arrays.asList("p2"), shardsOf("bob"));
+	}
+
+	@Test
+	public void mapsTheSameIntegralValueToTheSameShardHoweverItsBoxed() {
+		for (long id = -100; id < 100; id++) {
+			List<String> shards = shardsOf(id);
+			assertEquals(shards, shardsOf((int) id));
+			assertEquals(shards, shardsOf(String.valueOf(id)));
+		}
+	}
+
+	@Test
+	public void spreadsKeysEvenly() {
+		int[] counts = new int[4];
+		for (long id = 0; id < 40000; id++) {
+			counts[Integer.parseInt(shardsOf(id).get(0).substring(1))]++;
+		}
+		for (int count : counts) {
+			assertTrue(Arrays.toString(counts), Math.abs(count - 10000) < 500);
+		}
+	}
+
+	@Test
+	public void assignsContiguousBlocksOfBucketsToTheShards() {
+		// the 16 buckets go to 4 shards in blocks of 4, and to 2 shards in
+		// blocks of 8, which are two neighbouring blocks of 4.
+		IBatisHashShardingRule twoShards = new IBatisHashShardingRule("user.insert", "p0,p1", "id", "16", false);
+		for (long id = 0; id < 1000; id++) {
+			int shard = Integer.parseInt(shardsOf(id).get(0).substring(1));
+			assertEquals(Arrays.asList("p" + (shard / 2)), twoShards.actionIfDefinedAt(factOf(id)));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsFewerBucketsThanShards() {
+		new IBatisHashShardingRule("user.insert", "p0,p1,p2,p3", "id", "3", false);
+	}
+
+	private List<String> shardsOf(Object id) {
+		return rule.actionIfDefinedAt(factOf(id));
+	}
+
+	private static IBatisRoutingFact factOf(Object id) {
+		return new IBatisRoutingFact("user.insert", Collections.singletonMap("id", id));
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router.rules.ibatis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import cn.yy.cobar.client.router.support.IBatisRoutingFact;
+
+public class IBatisModuloShardingRuleTest {
+
+	private final IBatisModuloShardingRule rule = new IBatisModuloShardingRule("user", "p0,p1,p2", "id", true);
+
+	@Test
+	public void mapsTheValueModuloTheShardCount() {
+		for (long id = 0; id < 30; id++) {
+			assertEquals(Arrays.asList("p" + (id % 3)), shardsOf(id));
+		}
+		assertEquals(Arrays.asList("p2"), shardsOf(-1L));
+		assertEquals(Arrays.asList("p0"), shardsOf(-3L));
+		assertEquals(Arrays.asList("p1"), shardsOf(Long.MIN_VALUE));
+	}
+
+	@Test
+	public void mapsTheSameIntegralValueToTheSameShardHoweverItsBoxed() {
+		for (Object id : new Object[] { 7, (short) 7, (byte) 7, " 7 ", BigInteger.valueOf(7), new BigDecimal("7.00"), 7.0d,
+				7.0f }) {
+			assertEquals(String.valueOf(id), Arrays.asList("p1"), shardsOf(id));
+		}
+	}
+
+	@Test
+	public void isNotDefinedAtNonIntegralValues() {
+		for (Object id : new Object[] { new BigDecimal("1.5"), 1.9d, 0.5f, Double.NaN, Double.POSITIVE_INFINITY, 1e19d,
+				"1.5", "x", null }) {
+			IBatisRoutingFact fact = factOf(id);
+			assertFalse(String.valueOf(id), rule.isDefinedAt(fact));
+			assertNull(String.valueOf(id), rule.actionIfDefinedAt(fact));
+		}
+	}
+
+	@Test
+	public void isDefinedAtTheStatementsOfItsNamespaceOnly() {
+		assertTrue(rule.isDefinedAt(new IBatisRoutingFact("user.insert", Collections.singletonMap("id", 1L))));
+		assertFalse(rule.isDefinedAt(new IBatisRoutingFact("order.insert", Collections.singletonMap("id", 1L))));
+		assertFalse(rule.isDefinedAt(new IBatisRoutingFact("user.insert", Collections.singletonMap("userId", 1L))));
+	}
+
+	private List<String> shardsOf(Object id) {
+		IBatisRoutingFact fact = factOf(id);
+		assertTrue(rule.isDefinedAt(fact));
+		assertEquals(rule.action(fact), rule.actionIfDefinedAt(fact));
+		return rule.action(fact);
+	}
+
+	private static IBatisRoutingFact factOf(Object id) {
+		return new IBatisRoutingFact("user.insert", Collections.singletonMap("id", id));
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router.rules.ibatis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import cn.yy.cobar.client.router.support.IBatisRoutingFact;
+
+public class IBatisRangeShardingRuleTest {
+
+	private final IBatisRangeShardingRule rule = new IBatisRangeShardingRule("user.insert", "p0,p1,p2", "id",
+			"1000, 2000", false);
+
+	@Test
+	public void mapsABoundToTheRangeItStarts() {
+		assertEquals(Arrays.asList("p0"), shardsOf(Long.MIN_VALUE));
+		assertEquals(Arrays.asList("p0"), shardsOf(-1L));
+		assertEquals(Arrays.asList("p0"), shardsOf(999L));
+		assertEquals(Arrays.asList("p1"), shardsOf(1000L));
+		assertEquals(Arrays.asList("p1"), shardsOf(1999L));
+		assertEquals(Arrays.asList("p2"), shardsOf(2000L));
+		assertEquals(Arrays.asList("p2"), shardsOf(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void doesNotTruncateValuesBelowABound() {
+		assertEquals(Arrays.asList("p1"), shardsOf(new BigDecimal("1000.0")));
+		assertNull(rule.actionIfDefinedAt(factOf(new BigDecimal("999.5"))));
+		assertNull(rule.actionIfDefinedAt(factOf(1999.9d)));
+	}
+
+	@Test
+	public void worksWithASingleShard() {
+		IBatisRangeShardingRule single = new IBatisRangeShardingRule("user.insert", "p0", "id", "", false);
+
+		assertEquals(Arrays.asList("p0"), single.actionIfDefinedAt(factOf(42L)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsATableWithoutABoundForEachShard() {
+		new IBatisRangeShardingRule("user.insert", "p0,p1,p2", "id", "1000", false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsBoundsOutOfOrder() {
+		new IBatisRangeShardingRule("user.insert", "p0,p1,p2", "id", "2000,1000", false);
+	}
+
+	private List<String> shardsOf(Object id) {
+		return rule.actionIfDefinedAt(factOf(id));
+	}
+
+	private static IBatisRoutingFact factOf(Object id) {
+		return new IBatisRoutingFact("user.insert", Collections.singletonMap("id", id));
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.router.rules.ibatis;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.mvel2.MVEL;
+import org.mvel2.integration.VariableResolverFactory;
+import org.mvel2.integration.impl.MapVariableResolverFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import cn.yy.cobar.client.router.support.IBatisRoutingFact;
+
+/**
+ * routing cost per call of a sharding rule, the interpreted evaluation is what
+ * the sharding rules did before the attribute pattern was precompiled.<br>
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=cn.yy.cobar.client.router.rules.ibatis.ShardingRuleBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardingRuleBenchmark {
+
+	private static final String SQLMAP = "com.alibaba.cobar.client.entity.Follower.create";
+	private static final String EXPRESSION = "id % 16 == 3 && mod.apply(id) >= 0";
+
+	private IBatisSqlActionShardingRule rule;
+	private Map<String, Object> functionMap;
+	private IBatisRoutingFact[] facts;
+	private int index;
+
+	@Setup
+	public void setUp() {
+		functionMap = new HashMap<String, Object>();
+		functionMap.put("mod", new Modulo());
+
+		rule = new IBatisSqlActionShardingRule(SQLMAP, "p3", EXPRESSION);
+		rule.setFunctionMap(functionMap);
+
+		facts = new IBatisRoutingFact[1024];
+		for (int i = 0; i < facts.length; i++) {
+			Map<String, Object> argument = new HashMap<String, Object>();
+			argument.put("id", Long.valueOf(i));
+			facts[i] = new IBatisRoutingFact(SQLMAP, argument);
+		}
+	}
+
+	@Benchmark
+	public boolean interpreted() {
+		IBatisRoutingFact routingFact = nextFact();
+		Map<String, Object> vrs = new HashMap<String, Object>();
+		vrs.putAll(functionMap);
+		vrs.put("$ROOT", routingFact.getArgument());
+		VariableResolverFactory vrfactory = new MapVariableResolverFactory(vrs);
+		return MVEL.evalToBoolean(EXPRESSION, routingFact.getArgument(), vrfactory);
+	}
+
+	@Benchmark
+	public boolean compiled() {
+		return rule.isDefinedAt(nextFact());
+	}
+
+	private IBatisRoutingFact nextFact() {
+		return facts[(index++) & (facts.length - 1)];
+	}
+
+	public static class Modulo {
+		public long apply(long value) {
+			return value % 16;
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(ShardingRuleBenchmark.class.getSimpleName()).build()).run();
+	}
+}
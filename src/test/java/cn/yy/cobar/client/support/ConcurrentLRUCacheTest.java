@@ -0,0 +1,195 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ConcurrentLRUCacheTest {
+
+	@Test
+	public void evictsTheFirstUnreferencedEntry() {
+		ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(3);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.put("c", 3);
+		cache.get("a");
+		cache.get("c");
+
+		cache.put("d", 4);
+
+		assertEquals(3, cache.size());
+		assertFalse(cache.containsKey("b"));
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		assertEquals(Integer.valueOf(3), cache.get("c"));
+		assertEquals(Integer.valueOf(4), cache.get("d"));
+		assertEquals(1, cache.getEvictionCount());
+	}
+
+	@Test
+	public void givesReferencedEntriesASecondChanceOnly() {
+		ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(2);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.get("a");
+		cache.get("b");
+
+		// the first sweep clears the reference bits, the second one evicts "a".
+		cache.put("c", 3);
+		assertFalse(cache.containsKey("a"));
+		assertTrue(cache.containsKey("b"));
+
+		// "b" lost its reference bit in the sweep.
+		cache.put("d", 4);
+		assertFalse(cache.containsKey("b"));
+		assertTrue(cache.containsKey("c"));
+		assertTrue(cache.containsKey("d"));
+		assertEquals(2, cache.getEvictionCount());
+	}
+
+	@Test
+	public void reusesTheSlotOfARemovedEntryBeforeEvicting() {
+		ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(2);
+		cache.put("a", 1);
+		cache.put("b", 2);
+
+		assertEquals(Integer.valueOf(1), cache.remove("a"));
+		assertNull(cache.remove("a"));
+		cache.put("c", 3);
+
+		assertEquals(0, cache.getEvictionCount());
+		assertEquals(2, cache.size());
+		assertTrue(cache.containsKey("b"));
+		assertTrue(cache.containsKey("c"));
+
+		for (int i = 0; i < 100; i++) {
+			cache.remove("c");
+			cache.put("c", i);
+		}
+		assertEquals(0, cache.getEvictionCount());
+		assertEquals(Integer.valueOf(99), cache.get("c"));
+		assertTrue(cache.containsKey("b"));
+	}
+
+	@Test
+	public void replacesTheValueOfACachedKeyInPlace() {
+		ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(1);
+		cache.put("a", 1);
+		cache.put("a", 2);
+
+		assertEquals(Integer.valueOf(2), cache.get("a"));
+		assertEquals(1, cache.size());
+		assertEquals(0, cache.getEvictionCount());
+	}
+
+	@Test
+	public void countsHitsAndMisses() {
+		ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(1);
+		cache.put("a", 1);
+		cache.get("a");
+		cache.get("a");
+		cache.get("b");
+
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void startsOverWhenCleared() {
+		ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<String, Integer>(2);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		cache.remove("a");
+		cache.clear();
+
+		assertEquals(0, cache.size());
+		cache.put("c", 3);
+		cache.put("d", 4);
+		assertEquals(0, cache.getEvictionCount());
+		cache.put("e", 5);
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(2, cache.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNullValues() {
+		new ConcurrentLRUCache<String, Integer>(1).put("a", null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNonPositiveCapacity() {
+		new ConcurrentLRUCache<String, Integer>(0);
+	}
+
+	@Test
+	public void staysWithinItsCapacityUnderConcurrentAccess() throws Exception {
+		final ConcurrentLRUCache<Integer, Integer> cache = new ConcurrentLRUCache<Integer, Integer>(64);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread(new Runnable() {
+				public void run() {
+					try {
+						ThreadLocalRandom random = ThreadLocalRandom.current();
+						for (int i = 0; i < 50000; i++) {
+							Integer key = random.nextInt(256);
+							int op = random.nextInt(10);
+							if (op == 0) {
+								cache.remove(key);
+							} else if (op < 4) {
+								cache.put(key, key);
+							} else {
+								Integer value = cache.get(key);
+								if (value != null && !value.equals(key)) {
+									throw new AssertionError("value " + value + " cached for key " + key);
+								}
+							}
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertNull(failure.get());
+		assertTrue(cache.size() <= cache.getCapacity());
+		// every remaining entry still owns a slot, so filling the cache up
+		// evicts exactly the overflow.
+		long evictions = cache.getEvictionCount();
+		int size = cache.size();
+		for (int key = 1000; key < 1000 + cache.getCapacity(); key++) {
+			cache.put(key, key);
+		}
+		assertEquals(cache.getCapacity(), cache.size());
+		assertEquals(evictions + size, cache.getEvictionCount());
+	}
+}
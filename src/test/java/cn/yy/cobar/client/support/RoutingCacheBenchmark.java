@@ -0,0 +1,110 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.support;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * throughput of the routing cache lookups, the synchronized {@link LRUMap} is
+ * how the routing caches were accessed before {@link ConcurrentLRUCache}.<br>
+ * the key space is a bit larger than the capacity so that misses and evictions
+ * are exercised too. {@link #main(String[])} runs the benchmark with 1, 8 and
+ * 64 threads.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=cn.yy.cobar.client.support.RoutingCacheBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingCacheBenchmark {
+
+	private static final int CAPACITY = 10000;
+
+	@Param({ "11000" })
+	private int keySpace;
+
+	private LRUMap<Integer, Object> lruMap;
+	private ConcurrentLRUCache<Integer, Object> concurrentCache;
+	private Integer[] keys;
+
+	@Setup
+	public void setUp() {
+		lruMap = new LRUMap<Integer, Object>(CAPACITY);
+		concurrentCache = new ConcurrentLRUCache<Integer, Object>(CAPACITY);
+		keys = new Integer[keySpace];
+		for (int i = 0; i < keySpace; i++) {
+			keys[i] = Integer.valueOf(i);
+		}
+		for (int i = 0; i < CAPACITY; i++) {
+			lruMap.put(keys[i], keys[i]);
+			concurrentCache.put(keys[i], keys[i]);
+		}
+	}
+
+	@Benchmark
+	public Object synchronizedLRUMap() {
+		Integer key = keys[ThreadLocalRandom.current().nextInt(keySpace)];
+		synchronized (lruMap) {
+			if (lruMap.containsKey(key)) {
+				return lruMap.get(key);
+			}
+		}
+		synchronized (lruMap) {
+			lruMap.put(key, key);
+		}
+		return key;
+	}
+
+	@Benchmark
+	public Object concurrentLRUCache() {
+		Integer key = keys[ThreadLocalRandom.current().nextInt(keySpace)];
+		Object value = concurrentCache.get(key);
+		if (value != null) {
+			return value;
+		}
+		concurrentCache.put(key, key);
+		return key;
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		for (int threads : new int[] { 1, 8, 64 }) {
+			new Runner(new OptionsBuilder().include(RoutingCacheBenchmark.class.getSimpleName()).threads(threads)
+					.build()).run();
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.support.execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HedgedReadTest {
+
+	private static final long HEDGE_DELAY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	private ExecutorService executor;
+	private ScheduledExecutorService scheduler;
+	private BlockingQueue<Future<Object>> completionQueue;
+	private HedgedRead read;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newCachedThreadPool();
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		completionQueue = new LinkedBlockingQueue<Future<Object>>();
+		read = new HedgedRead(new RequestDepository(), completionQueue, false);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void sendsTheHedgeAsSoonAsTheAttemptFails() throws Exception {
+		read.hedge(scheduler, HEDGE_DELAY_NANOS, attemptOf(returning("replica")));
+		read.attempt(executor, failing("primary down"));
+
+		assertSame(read, completionQueue.poll(10, TimeUnit.SECONDS));
+		assertEquals("replica", read.get());
+	}
+
+	@Test
+	public void failsWithTheFirstFailureOnceTheHedgeFailsToo() throws Exception {
+		read.hedge(scheduler, HEDGE_DELAY_NANOS, attemptOf(failing("replica down")));
+		read.attempt(executor, failing("primary down"));
+
+		assertSame(read, completionQueue.poll(10, TimeUnit.SECONDS));
+		try {
+			read.get();
+			throw new AssertionError("the read must fail.");
+		} catch (ExecutionException e) {
+			assertEquals("primary down", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void doesNotSendTheHedgeOnceTheAttemptSucceeds() throws Exception {
+		final AtomicInteger hedges = new AtomicInteger();
+		read.hedge(scheduler, TimeUnit.MILLISECONDS.toNanos(200), new Runnable() {
+			public void run() {
+				hedges.incrementAndGet();
+			}
+		});
+		read.attempt(executor, returning("primary"));
+
+		assertSame(read, completionQueue.poll(10, TimeUnit.SECONDS));
+		assertEquals("primary", read.get());
+		Thread.sleep(400);
+		assertEquals(0, hedges.get());
+		assertFalse(completionQueue.contains(read));
+	}
+
+	private Runnable attemptOf(final Callable<Object> task) {
+		return new Runnable() {
+			public void run() {
+				read.attempt(executor, task);
+			}
+		};
+	}
+
+	private static Callable<Object> returning(final Object result) {
+		return new Callable<Object>() {
+			public Object call() {
+				return result;
+			}
+		};
+	}
+
+	private static Callable<Object> failing(final String message) {
+		return new Callable<Object>() {
+			public Object call() {
+				throw new IllegalStateException(message);
+			}
+		};
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright 1999-2011 Alibaba Group
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.yy.cobar.client.support.execution;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SemaphoreBoundedExecutorServiceTest {
+
+	private SemaphoreBoundedExecutorService executor;
+
+	@Before
+	public void setUp() {
+		ExecutorService delegate = Executors.newCachedThreadPool(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setDaemon(true);
+				// the rejections of plain runnables are thrown in the workers.
+				t.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+					public void uncaughtException(Thread t, Throwable e) {
+					}
+				});
+				return t;
+			}
+		});
+		executor = new SemaphoreBoundedExecutorService(delegate, 2);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void runsAtMostMaxConcurrencyTasksAtOnce() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(20);
+		for (int i = 0; i < 20; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					int current = running.incrementAndGet();
+					int max;
+					do {
+						max = maxRunning.get();
+					} while (current > max && !maxRunning.compareAndSet(max, current));
+					try {
+						Thread.sleep(5);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						running.decrementAndGet();
+						done.countDown();
+					}
+				}
+			});
+		}
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertEquals(2, maxRunning.get());
+		// the permit of the last task is released after it counts down.
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (executor.getActiveCount() > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(0, executor.getActiveCount());
+	}
+
+	@Test
+	public void completesTheTasksInterruptedWhileWaitingForAPermit() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		for (int i = 0; i < 2; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					// holds the permit through the interrupt, or a waiting task
+					// might take it before it's interrupted itself.
+					boolean interrupted = false;
+					while (release.getCount() > 0) {
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+					if (interrupted) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (executor.getActiveCount() < 2 && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		Future<Object> future = executor.submit(new Callable<Object>() {
+			public Object call() {
+				return "never";
+			}
+		});
+		final AtomicReference<RejectedExecutionException> rejection = new AtomicReference<RejectedExecutionException>();
+		final CountDownLatch rejected = new CountDownLatch(1);
+		executor.execute(new RejectableTask() {
+			public void run() {
+			}
+
+			public void reject(RejectedExecutionException cause) {
+				rejection.set(cause);
+				rejected.countDown();
+			}
+		});
+		while (executor.getQueueLength() < 2 && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+
+		executor.shutdownNow();
+
+		assertTrue(rejected.await(10, TimeUnit.SECONDS));
+		assertTrue(rejection.get().getCause() instanceof InterruptedException);
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			throw new AssertionError("the interrupted task must not run.");
+		} catch (CancellationException e) {
+			// expected
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void rejectsTasksOnceShutDown() {
+		executor.shutdown();
+		executor.execute(new Runnable() {
+			public void run() {
+			}
+		});
+	}
+}